@@ -0,0 +1,242 @@
+package de.spinscale.elasticsearch.action.suggest.refresh;
+
+import de.spinscale.elasticsearch.service.suggest.ShardSuggestService;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The progress of a running rebuild of the suggesters of a shard copy: the terms of every field are scanned first,
+ * afterwards the suggesters are built from them
+ */
+public class RefreshTaskStatus implements Streamable, ToXContent {
+
+    private String node;
+    private String index;
+    private int shardId;
+    private String field;
+    private String phase;
+    private long startTime;
+    private long elapsedInMillis;
+    private boolean cancelled;
+    private List<BuildStatus> builds = Lists.newArrayList();
+
+    RefreshTaskStatus() {}
+
+    public RefreshTaskStatus(String node, String index, int shardId, String field, String phase, long startTime,
+                             long elapsedInMillis, boolean cancelled, List<BuildStatus> builds) {
+        this.node = node;
+        this.index = index;
+        this.shardId = shardId;
+        this.field = field;
+        this.phase = phase;
+        this.startTime = startTime;
+        this.elapsedInMillis = elapsedInMillis;
+        this.cancelled = cancelled;
+        this.builds = builds;
+    }
+
+    public static RefreshTaskStatus readRefreshTaskStatus(StreamInput in) throws IOException {
+        RefreshTaskStatus status = new RefreshTaskStatus();
+        status.readFrom(in);
+        return status;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public int getShardId() {
+        return shardId;
+    }
+
+    /**
+     * The field being refreshed, null if all fields are refreshed
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Either scanning or building
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getElapsedInMillis() {
+        return elapsedInMillis;
+    }
+
+    /**
+     * True, if the refresh has been cancelled, but has not stopped yet
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public List<BuildStatus> getBuilds() {
+        return builds;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        node = in.readOptionalString();
+        index = in.readString();
+        shardId = in.readVInt();
+        field = in.readOptionalString();
+        phase = in.readString();
+        startTime = in.readVLong();
+        elapsedInMillis = in.readVLong();
+        cancelled = in.readBoolean();
+        int size = in.readVInt();
+        builds = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            BuildStatus build = new BuildStatus();
+            build.readFrom(in);
+            builds.add(build);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeOptionalString(node);
+        out.writeString(index);
+        out.writeVInt(shardId);
+        out.writeOptionalString(field);
+        out.writeString(phase);
+        out.writeVLong(startTime);
+        out.writeVLong(elapsedInMillis);
+        out.writeBoolean(cancelled);
+        out.writeVInt(builds.size());
+        for (BuildStatus build : builds) {
+            build.writeTo(out);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field("node", node);
+        builder.field("index", index);
+        builder.field("shard", shardId);
+        if (field != null) {
+            builder.field("field", field);
+        }
+        builder.field("phase", phase);
+        builder.field("startTime", startTime);
+        builder.field("elapsedInMillis", elapsedInMillis);
+        builder.field("cancelled", cancelled);
+        builder.startArray("builds");
+        for (BuildStatus build : builds) {
+            build.toXContent(builder, params);
+        }
+        builder.endArray();
+        builder.endObject();
+        return builder;
+    }
+
+    /**
+     * The progress of scanning the terms of a field, or of building one suggester. While building, the bytes are the
+     * estimated size reserved in the memory budget, afterwards the size of the built suggester
+     */
+    public static class BuildStatus implements Streamable, ToXContent {
+
+        private String type;
+        private ShardSuggestService.FieldType fieldType;
+        private String phase;
+        private long termsProcessed;
+        private long bytesAllocated;
+        private long elapsedInMillis;
+
+        BuildStatus() {}
+
+        public BuildStatus(String type, ShardSuggestService.FieldType fieldType, String phase, long termsProcessed,
+                           long bytesAllocated, long elapsedInMillis) {
+            this.type = type;
+            this.fieldType = fieldType;
+            this.phase = phase;
+            this.termsProcessed = termsProcessed;
+            this.bytesAllocated = bytesAllocated;
+            this.elapsedInMillis = elapsedInMillis;
+        }
+
+        /**
+         * The suggester type, or terms for scanning the terms of the field
+         */
+        public String getType() {
+            return type;
+        }
+
+        public ShardSuggestService.FieldType getFieldType() {
+            return fieldType;
+        }
+
+        /**
+         * One of scanning, building or done
+         */
+        public String getPhase() {
+            return phase;
+        }
+
+        public long getTermsProcessed() {
+            return termsProcessed;
+        }
+
+        public long getBytesAllocated() {
+            return bytesAllocated;
+        }
+
+        public long getElapsedInMillis() {
+            return elapsedInMillis;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            type = in.readString();
+            fieldType = new ShardSuggestService.FieldType();
+            fieldType.readFrom(in);
+            phase = in.readString();
+            termsProcessed = in.readVLong();
+            bytesAllocated = in.readVLong();
+            elapsedInMillis = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(type);
+            fieldType.writeTo(out);
+            out.writeString(phase);
+            out.writeVLong(termsProcessed);
+            out.writeVLong(bytesAllocated);
+            out.writeVLong(elapsedInMillis);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("type", type);
+            fieldType.toXContent(builder, params);
+            builder.field("phase", phase);
+            builder.field("termsProcessed", termsProcessed);
+            builder.field("bytesAllocated", bytesAllocated);
+            builder.field("elapsedInMillis", elapsedInMillis);
+            builder.endObject();
+            return builder;
+        }
+    }
+}
@@ -10,12 +10,14 @@ import org.elasticsearch.common.io.stream.StreamOutput;
 public class ShardSuggestRefreshRequest extends BroadcastShardOperationRequest {
 
     private String field;
+    private boolean force;
 
     public ShardSuggestRefreshRequest() {}
 
     public ShardSuggestRefreshRequest(String index, int shardId, SuggestRefreshRequest request) {
         super(index, shardId, request);
         field = request.field();
+        force = request.force();
     }
 
     public String field() {
@@ -26,14 +28,20 @@ public class ShardSuggestRefreshRequest extends BroadcastShardOperationRequest {
         this.field = field;
     }
 
+    public boolean force() {
+        return force;
+    }
+
     @Override public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
         field = in.readOptionalString();
+        force = in.readBoolean();
     }
 
     @Override public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
         out.writeOptionalString(field);
+        out.writeBoolean(force);
     }
 
     @Override
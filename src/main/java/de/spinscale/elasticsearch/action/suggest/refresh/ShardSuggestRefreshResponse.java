@@ -1,14 +1,39 @@
 package de.spinscale.elasticsearch.action.suggest.refresh;
 
+import java.io.IOException;
+
 import org.elasticsearch.action.support.broadcast.BroadcastShardOperationResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
 
 
 public class ShardSuggestRefreshResponse extends BroadcastShardOperationResponse {
 
+    private boolean rebuilt;
+
     public ShardSuggestRefreshResponse() {}
 
-    public ShardSuggestRefreshResponse(String index, int shardId) {
+    public ShardSuggestRefreshResponse(String index, int shardId, boolean rebuilt) {
         super(index, shardId);
+        this.rebuilt = rebuilt;
+    }
+
+    /**
+     * Returns false, if nothing had to be rebuilt, because the shard has not been queried yet or its index reader has not changed
+     */
+    public boolean rebuilt() {
+        return rebuilt;
     }
 
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        rebuilt = in.readBoolean();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeBoolean(rebuilt);
+    }
 }
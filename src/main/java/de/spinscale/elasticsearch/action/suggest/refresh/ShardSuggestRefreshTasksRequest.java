@@ -0,0 +1,41 @@
+package de.spinscale.elasticsearch.action.suggest.refresh;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+public class ShardSuggestRefreshTasksRequest extends BroadcastShardOperationRequest {
+
+    private String nodeId;
+    private boolean cancel;
+
+    public ShardSuggestRefreshTasksRequest() {}
+
+    public ShardSuggestRefreshTasksRequest(String index, int shardId, SuggestRefreshTasksRequest request) {
+        super(index, shardId, request);
+        nodeId = request.nodeId();
+        cancel = request.cancel();
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public boolean cancel() {
+        return cancel;
+    }
+
+    @Override public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        nodeId = in.readOptionalString();
+        cancel = in.readBoolean();
+    }
+
+    @Override public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeOptionalString(nodeId);
+        out.writeBoolean(cancel);
+    }
+}
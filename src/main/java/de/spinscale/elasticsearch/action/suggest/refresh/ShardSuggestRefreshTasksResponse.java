@@ -0,0 +1,45 @@
+package de.spinscale.elasticsearch.action.suggest.refresh;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationResponse;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+public class ShardSuggestRefreshTasksResponse extends BroadcastShardOperationResponse {
+
+    private RefreshTaskStatus task;
+
+    public ShardSuggestRefreshTasksResponse() {}
+
+    public ShardSuggestRefreshTasksResponse(String index, int shardId, @Nullable RefreshTaskStatus task) {
+        super(index, shardId);
+        this.task = task;
+    }
+
+    /**
+     * The running refresh of the shard copy, null if none is running
+     */
+    @Nullable
+    public RefreshTaskStatus task() {
+        return task;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        if (in.readBoolean()) {
+            task = RefreshTaskStatus.readRefreshTaskStatus(in);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeBoolean(task != null);
+        if (task != null) {
+            task.writeTo(out);
+        }
+    }
+}
@@ -12,6 +12,7 @@ import org.elasticsearch.common.io.stream.StreamOutput;
 public class SuggestRefreshRequest extends BroadcastOperationRequest {
 
     private String field;
+    private boolean force;
 
     public SuggestRefreshRequest() {}
 
@@ -27,20 +28,33 @@ public class SuggestRefreshRequest extends BroadcastOperationRequest {
         this.field = field;
     }
 
+    public boolean force() {
+        return force;
+    }
+
+    /**
+     * Rebuilds the suggesters of shards, whose index reader has not changed since they have been built, as well
+     */
+    public void force(boolean force) {
+        this.force = force;
+    }
+
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
         field = in.readOptionalString();
+        force = in.readBoolean();
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
         out.writeOptionalString(field);
+        out.writeBoolean(force);
     }
 
     @Override public String toString() {
-        return String.format(Locale.ROOT, "[%s] field[%s]", Arrays.toString(indices), field);
+        return String.format(Locale.ROOT, "[%s] field[%s] force[%s]", Arrays.toString(indices), field, force);
     }
 
 }
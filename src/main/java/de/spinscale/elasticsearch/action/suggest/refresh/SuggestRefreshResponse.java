@@ -13,24 +13,54 @@ import org.elasticsearch.common.xcontent.XContentBuilder;
 
 public class SuggestRefreshResponse extends BroadcastOperationResponse implements ToXContent {
 
+    private int rebuiltShards;
+    private int skippedShards;
+
     public SuggestRefreshResponse() {}
 
     public SuggestRefreshResponse(int totalShards, int successfulShards, int failedShards, List<ShardOperationFailedException> shardFailures) {
+        this(totalShards, successfulShards, failedShards, shardFailures, 0, 0);
+    }
+
+    public SuggestRefreshResponse(int totalShards, int successfulShards, int failedShards, List<ShardOperationFailedException> shardFailures,
+                                  int rebuiltShards, int skippedShards) {
         super(totalShards, successfulShards, failedShards, shardFailures);
+        this.rebuiltShards = rebuiltShards;
+        this.skippedShards = skippedShards;
+    }
+
+    /**
+     * The number of shards, whose suggesters have been rebuilt
+     */
+    public int getRebuiltShards() {
+        return rebuiltShards;
+    }
+
+    /**
+     * The number of shards, which have not been rebuilt, as their index has not changed or they have not been queried yet
+     */
+    public int getSkippedShards() {
+        return skippedShards;
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
+        rebuiltShards = in.readVInt();
+        skippedShards = in.readVInt();
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
+        out.writeVInt(rebuiltShards);
+        out.writeVInt(skippedShards);
     }
 
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("rebuilt", rebuiltShards);
+        builder.field("skipped", skippedShards);
         return builder;
     }
 }
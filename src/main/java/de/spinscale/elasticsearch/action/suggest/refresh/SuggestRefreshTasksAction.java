@@ -0,0 +1,25 @@
+package de.spinscale.elasticsearch.action.suggest.refresh;
+
+import de.spinscale.elasticsearch.client.action.suggest.SuggestRefreshTasksRequestBuilder;
+import org.elasticsearch.action.ClientAction;
+import org.elasticsearch.client.Client;
+
+public class SuggestRefreshTasksAction extends ClientAction<SuggestRefreshTasksRequest, SuggestRefreshTasksResponse, SuggestRefreshTasksRequestBuilder> {
+
+    public static final SuggestRefreshTasksAction INSTANCE = new SuggestRefreshTasksAction();
+    public static final String NAME = "suggestRefreshTasks";
+
+    private SuggestRefreshTasksAction() {
+        super(NAME);
+    }
+
+    @Override
+    public SuggestRefreshTasksRequestBuilder newRequestBuilder(Client client) {
+        return new SuggestRefreshTasksRequestBuilder(client);
+    }
+
+    @Override
+    public SuggestRefreshTasksResponse newResponse() {
+        return new SuggestRefreshTasksResponse();
+    }
+}
@@ -0,0 +1,64 @@
+package de.spinscale.elasticsearch.action.suggest.refresh;
+
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Lists the running suggest refreshes of the shards of the indices, and cancels them, if requested
+ */
+public class SuggestRefreshTasksRequest extends BroadcastOperationRequest {
+
+    private String nodeId;
+    private boolean cancel;
+
+    public SuggestRefreshTasksRequest() {}
+
+    public SuggestRefreshTasksRequest(String... indices) {
+        super(indices);
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Only lists the refreshes running on the node
+     */
+    public void nodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public boolean cancel() {
+        return cancel;
+    }
+
+    /**
+     * Cancels the listed refreshes, the shards keep their previous suggesters
+     */
+    public void cancel(boolean cancel) {
+        this.cancel = cancel;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        nodeId = in.readOptionalString();
+        cancel = in.readBoolean();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeOptionalString(nodeId);
+        out.writeBoolean(cancel);
+    }
+
+    @Override public String toString() {
+        return String.format(Locale.ROOT, "[%s] node[%s] cancel[%s]", Arrays.toString(indices), nodeId, cancel);
+    }
+}
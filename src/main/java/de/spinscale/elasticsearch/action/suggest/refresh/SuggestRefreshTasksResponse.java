@@ -0,0 +1,65 @@
+package de.spinscale.elasticsearch.action.suggest.refresh;
+
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationResponse;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.elasticsearch.rest.action.support.RestActions.buildBroadcastShardsHeader;
+
+public class SuggestRefreshTasksResponse extends BroadcastOperationResponse implements ToXContent {
+
+    private List<RefreshTaskStatus> tasks = Lists.newArrayList();
+
+    public SuggestRefreshTasksResponse() {}
+
+    public SuggestRefreshTasksResponse(int totalShards, int successfulShards, int failedShards,
+                                       List<ShardOperationFailedException> shardFailures, List<RefreshTaskStatus> tasks) {
+        super(totalShards, successfulShards, failedShards, shardFailures);
+        this.tasks = tasks;
+    }
+
+    /**
+     * The refreshes running when the request arrived at their shards, they are marked as cancelled, if the request
+     * cancelled them
+     */
+    public List<RefreshTaskStatus> getTasks() {
+        return tasks;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        int size = in.readVInt();
+        tasks = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            tasks.add(RefreshTaskStatus.readRefreshTaskStatus(in));
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(tasks.size());
+        for (RefreshTaskStatus task : tasks) {
+            task.writeTo(out);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        buildBroadcastShardsHeader(builder, this);
+        builder.startArray("tasks");
+        for (RefreshTaskStatus task : tasks) {
+            task.toXContent(builder, params);
+        }
+        builder.endArray();
+        return builder;
+    }
+}
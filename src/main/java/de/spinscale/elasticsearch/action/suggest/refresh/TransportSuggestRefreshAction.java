@@ -1,5 +1,6 @@
 package de.spinscale.elasticsearch.action.suggest.refresh;
 
+import de.spinscale.elasticsearch.service.suggest.PrefixExtensionCache;
 import de.spinscale.elasticsearch.service.suggest.ShardSuggestService;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ShardOperationFailedException;
@@ -27,12 +28,14 @@ import java.util.concurrent.atomic.AtomicReferenceArray;
 public class TransportSuggestRefreshAction extends TransportBroadcastOperationAction<SuggestRefreshRequest, SuggestRefreshResponse, ShardSuggestRefreshRequest, ShardSuggestRefreshResponse> {
 
     private final IndicesService indicesService;
+    private final PrefixExtensionCache prefixExtensionCache;
 
     @Inject
     public TransportSuggestRefreshAction(Settings settings, ThreadPool threadPool, ClusterService clusterService,
-            TransportService transportService, IndicesService indicesService) {
+            TransportService transportService, IndicesService indicesService, PrefixExtensionCache prefixExtensionCache) {
         super(settings, SuggestRefreshAction.NAME, threadPool, clusterService, transportService);
         this.indicesService = indicesService;
+        this.prefixExtensionCache = prefixExtensionCache;
     }
 
     @Override
@@ -49,6 +52,8 @@ public class TransportSuggestRefreshAction extends TransportBroadcastOperationAc
     protected SuggestRefreshResponse newResponse(SuggestRefreshRequest request, AtomicReferenceArray shardsResponses, ClusterState clusterState) {
         int successfulShards = 0;
         int failedShards = 0;
+        int rebuiltShards = 0;
+        int skippedShards = 0;
         List<ShardOperationFailedException> shardFailures = Lists.newArrayList();
 
         for (int i = 0; i < shardsResponses.length(); i++) {
@@ -60,10 +65,21 @@ public class TransportSuggestRefreshAction extends TransportBroadcastOperationAc
                 shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
             } else {
                 successfulShards++;
+                if (shardResponse instanceof ShardSuggestRefreshResponse && ((ShardSuggestRefreshResponse) shardResponse).rebuilt()) {
+                    rebuiltShards++;
+                } else {
+                    skippedShards++;
+                }
             }
         }
 
-        return new SuggestRefreshResponse(shardsResponses.length(), successfulShards, failedShards, shardFailures);
+        // this node may not hold any of the refreshed shards
+        for (String index : clusterState.metaData().concreteIndices(request.indicesOptions(), request.indices())) {
+            prefixExtensionCache.invalidate(index);
+        }
+
+        return new SuggestRefreshResponse(shardsResponses.length(), successfulShards, failedShards, shardFailures,
+                rebuiltShards, skippedShards);
     }
 
     @Override
@@ -91,7 +107,8 @@ public class TransportSuggestRefreshAction extends TransportBroadcastOperationAc
 
     @Override
     protected GroupShardsIterator shards(ClusterState clusterState, SuggestRefreshRequest request, String[] concreteIndices) {
-        return clusterService.operationRouting().searchShards(clusterState, request.indices(), concreteIndices, null, null);
+        // every copy keeps its own suggesters, so primaries and replicas have to be refreshed
+        return clusterState.routingTable().allActiveShardsGrouped(concreteIndices, false);
     }
 
     @Override
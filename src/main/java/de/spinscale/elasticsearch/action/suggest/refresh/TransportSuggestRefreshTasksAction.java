@@ -0,0 +1,110 @@
+package de.spinscale.elasticsearch.action.suggest.refresh;
+
+import de.spinscale.elasticsearch.service.suggest.ShardSuggestService;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastOperationAction;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class TransportSuggestRefreshTasksAction extends TransportBroadcastOperationAction<SuggestRefreshTasksRequest, SuggestRefreshTasksResponse, ShardSuggestRefreshTasksRequest, ShardSuggestRefreshTasksResponse> {
+
+    private final IndicesService indicesService;
+
+    @Inject
+    public TransportSuggestRefreshTasksAction(Settings settings, ThreadPool threadPool, ClusterService clusterService,
+                                              TransportService transportService, IndicesService indicesService) {
+        super(settings, SuggestRefreshTasksAction.NAME, threadPool, clusterService, transportService);
+        this.indicesService = indicesService;
+    }
+
+    @Override
+    protected String executor() {
+        return ThreadPool.Names.MANAGEMENT;
+    }
+
+    @Override
+    protected SuggestRefreshTasksRequest newRequest() {
+        return new SuggestRefreshTasksRequest();
+    }
+
+    @Override
+    protected SuggestRefreshTasksResponse newResponse(SuggestRefreshTasksRequest request, AtomicReferenceArray shardsResponses, ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        List<ShardOperationFailedException> shardFailures = Lists.newArrayList();
+        List<RefreshTaskStatus> tasks = Lists.newArrayList();
+
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                failedShards++;
+            } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+            } else {
+                successfulShards++;
+                RefreshTaskStatus task = ((ShardSuggestRefreshTasksResponse) shardResponse).task();
+                if (task != null) {
+                    tasks.add(task);
+                }
+            }
+        }
+
+        return new SuggestRefreshTasksResponse(shardsResponses.length(), successfulShards, failedShards, shardFailures, tasks);
+    }
+
+    @Override
+    protected ShardSuggestRefreshTasksRequest newShardRequest() {
+        return new ShardSuggestRefreshTasksRequest();
+    }
+
+    @Override
+    protected ShardSuggestRefreshTasksRequest newShardRequest(int numShards, ShardRouting shard, SuggestRefreshTasksRequest request) {
+        return new ShardSuggestRefreshTasksRequest(shard.index(), shard.id(), request);
+    }
+
+    @Override
+    protected ShardSuggestRefreshTasksResponse newShardResponse() {
+        return new ShardSuggestRefreshTasksResponse();
+    }
+
+    @Override
+    protected ShardSuggestRefreshTasksResponse shardOperation(ShardSuggestRefreshTasksRequest request) throws ElasticsearchException {
+        IndexService indexService = indicesService.indexServiceSafe(request.index());
+        ShardSuggestService suggestShardService = indexService.shardInjectorSafe(request.shardId()).getInstance(ShardSuggestService.class);
+        return suggestShardService.refreshTasks(request, clusterService.localNode().id());
+    }
+
+    @Override
+    protected GroupShardsIterator shards(ClusterState clusterState, SuggestRefreshTasksRequest request, String[] concreteIndices) {
+        // every copy refreshes its own suggesters
+        return clusterState.routingTable().allActiveShardsGrouped(concreteIndices, false);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state, SuggestRefreshTasksRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.METADATA);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state, SuggestRefreshTasksRequest request, String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.METADATA, concreteIndices);
+    }
+}
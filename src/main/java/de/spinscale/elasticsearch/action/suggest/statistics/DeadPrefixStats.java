@@ -0,0 +1,69 @@
+package de.spinscale.elasticsearch.action.suggest.statistics;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Lookups skipped, because the term extends a prefix known to return nothing, and lookups checked without
+ * finding such a prefix, summed up over all shards
+ */
+public class DeadPrefixStats implements Streamable, Serializable, ToXContent {
+
+    private static final long serialVersionUID = 1L;
+
+    private long hits;
+    private long misses;
+
+    public DeadPrefixStats() {}
+
+    public DeadPrefixStats(long hits, long misses) {
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    public void add(DeadPrefixStats other) {
+        hits += other.hits;
+        misses += other.misses;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        hits = in.readVLong();
+        misses = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVLong(hits);
+        out.writeVLong(misses);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("deadPrefixStats");
+        builder.field("hits", hits);
+        builder.field("misses", misses);
+        builder.field("hitRate", getHitRate());
+        builder.endObject();
+        return builder;
+    }
+}
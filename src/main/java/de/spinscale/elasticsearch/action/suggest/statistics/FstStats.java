@@ -57,14 +57,27 @@ public class FstStats implements Streamable, Serializable, ToXContent {
         private String type;
         private ShardSuggestService.FieldType fieldType;
         private long sizeInBytes;
+        private long offHeapSizeInBytes;
+        private long prefixTableSizeInBytes;
 
         public FstIndexShardStats() {}
 
         public FstIndexShardStats(ShardId shardId, String type, ShardSuggestService.FieldType fieldType, long sizeInBytes) {
+            this(shardId, type, fieldType, sizeInBytes, 0);
+        }
+
+        public FstIndexShardStats(ShardId shardId, String type, ShardSuggestService.FieldType fieldType, long sizeInBytes, long offHeapSizeInBytes) {
+            this(shardId, type, fieldType, sizeInBytes, offHeapSizeInBytes, 0);
+        }
+
+        public FstIndexShardStats(ShardId shardId, String type, ShardSuggestService.FieldType fieldType, long sizeInBytes,
+                                  long offHeapSizeInBytes, long prefixTableSizeInBytes) {
             this.shardId = shardId;
             this.type = type;
             this.fieldType = fieldType;
             this.sizeInBytes = sizeInBytes;
+            this.offHeapSizeInBytes = offHeapSizeInBytes;
+            this.prefixTableSizeInBytes = prefixTableSizeInBytes;
         }
 
         public ShardId getShardId() {
@@ -83,10 +96,26 @@ public class FstStats implements Streamable, Serializable, ToXContent {
             return sizeInBytes;
         }
 
+        /**
+         * The size of the memory mapped files used by this structure, which is not part of the heap
+         */
+        public long getOffHeapSizeInBytes() {
+            return offHeapSizeInBytes;
+        }
+
+        /**
+         * The heap used by the precomputed results of short prefixes, which is not part of the size of the structure
+         */
+        public long getPrefixTableSizeInBytes() {
+            return prefixTableSizeInBytes;
+        }
+
         @Override
         public void readFrom(StreamInput in) throws IOException {
             type = in.readString();
             sizeInBytes = in.readLong();
+            offHeapSizeInBytes = in.readLong();
+            prefixTableSizeInBytes = in.readLong();
             shardId = ShardId.readShardId(in);
             fieldType = new ShardSuggestService.FieldType();
             fieldType.readFrom(in);
@@ -97,6 +126,8 @@ public class FstStats implements Streamable, Serializable, ToXContent {
         public void writeTo(StreamOutput out) throws IOException {
             out.writeString(type);
             out.writeLong(sizeInBytes);
+            out.writeLong(offHeapSizeInBytes);
+            out.writeLong(prefixTableSizeInBytes);
             shardId.writeTo(out);
             fieldType.writeTo(out);
         }
@@ -107,6 +138,8 @@ public class FstStats implements Streamable, Serializable, ToXContent {
             builder.field("index", shardId.getIndex());
             builder.field("id", shardId.getId());
             builder.field("sizeInBytes", sizeInBytes);
+            builder.field("offHeapSizeInBytes", offHeapSizeInBytes);
+            builder.field("prefixTableSizeInBytes", prefixTableSizeInBytes);
             builder.field("type", type);
             fieldType.toXContent(builder, params);
             builder.endObject();
@@ -12,6 +12,10 @@ import java.util.List;
 public class ShardSuggestStatisticsResponse extends BroadcastShardOperationResponse {
 
     private List<FstStats.FstIndexShardStats> shardStats = Lists.newArrayList();
+    private SuggestCacheStats cacheStats = new SuggestCacheStats();
+    private DeadPrefixStats deadPrefixStats = new DeadPrefixStats();
+    private SuggestRequestStats requestStats = new SuggestRequestStats();
+    private SuggestBuildStats buildStats = new SuggestBuildStats();
 
     public ShardSuggestStatisticsResponse() {}
 
@@ -29,6 +33,10 @@ public class ShardSuggestStatisticsResponse extends BroadcastShardOperationRespo
                 shardStats.add(fstIndexShardStats);
             }
         }
+        cacheStats.readFrom(in);
+        deadPrefixStats.readFrom(in);
+        requestStats.readFrom(in);
+        buildStats.readFrom(in);
     }
 
     @Override
@@ -38,9 +46,45 @@ public class ShardSuggestStatisticsResponse extends BroadcastShardOperationRespo
         for (FstStats.FstIndexShardStats fstIndexShardStats : shardStats) {
             fstIndexShardStats.writeTo(out);
         }
+        cacheStats.writeTo(out);
+        deadPrefixStats.writeTo(out);
+        requestStats.writeTo(out);
+        buildStats.writeTo(out);
     }
 
     public List<FstStats.FstIndexShardStats> getFstIndexShardStats() {
         return shardStats;
     }
+
+    public SuggestCacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    public void setCacheStats(SuggestCacheStats cacheStats) {
+        this.cacheStats = cacheStats;
+    }
+
+    public DeadPrefixStats getDeadPrefixStats() {
+        return deadPrefixStats;
+    }
+
+    public void setDeadPrefixStats(DeadPrefixStats deadPrefixStats) {
+        this.deadPrefixStats = deadPrefixStats;
+    }
+
+    public SuggestRequestStats getRequestStats() {
+        return requestStats;
+    }
+
+    public void setRequestStats(SuggestRequestStats requestStats) {
+        this.requestStats = requestStats;
+    }
+
+    public SuggestBuildStats getBuildStats() {
+        return buildStats;
+    }
+
+    public void setBuildStats(SuggestBuildStats buildStats) {
+        this.buildStats = buildStats;
+    }
 }
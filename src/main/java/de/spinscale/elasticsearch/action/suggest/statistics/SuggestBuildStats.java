@@ -0,0 +1,62 @@
+package de.spinscale.elasticsearch.action.suggest.statistics;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Suggesters built from the terms of a shard and suggesters loaded from disk instead, summed up over all shards
+ */
+public class SuggestBuildStats implements Streamable, Serializable, ToXContent {
+
+    private static final long serialVersionUID = 1L;
+
+    private long built;
+    private long loaded;
+
+    public SuggestBuildStats() {}
+
+    public SuggestBuildStats(long built, long loaded) {
+        this.built = built;
+        this.loaded = loaded;
+    }
+
+    public void add(SuggestBuildStats other) {
+        built += other.built;
+        loaded += other.loaded;
+    }
+
+    public long getBuilt() {
+        return built;
+    }
+
+    public long getLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        built = in.readVLong();
+        loaded = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVLong(built);
+        out.writeVLong(loaded);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("buildStats");
+        builder.field("built", built);
+        builder.field("loaded", loaded);
+        builder.endObject();
+        return builder;
+    }
+}
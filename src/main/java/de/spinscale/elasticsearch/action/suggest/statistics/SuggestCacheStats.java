@@ -0,0 +1,63 @@
+package de.spinscale.elasticsearch.action.suggest.statistics;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Hits and misses of a suggest cache, like the result cache summed up over all shards or the prefix extension
+ * cache of a node
+ */
+public class SuggestCacheStats implements Streamable, Serializable, ToXContent {
+
+    private static final long serialVersionUID = 1L;
+
+    private long hits;
+    private long misses;
+
+    public SuggestCacheStats() {}
+
+    public SuggestCacheStats(long hits, long misses) {
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    public void add(SuggestCacheStats other) {
+        hits += other.hits;
+        misses += other.misses;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        hits = in.readVLong();
+        misses = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVLong(hits);
+        out.writeVLong(misses);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("cacheStats");
+        builder.field("hits", hits);
+        builder.field("misses", misses);
+        builder.endObject();
+        return builder;
+    }
+}
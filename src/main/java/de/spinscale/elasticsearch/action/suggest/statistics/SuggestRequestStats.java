@@ -0,0 +1,95 @@
+package de.spinscale.elasticsearch.action.suggest.statistics;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Counts of shard operations of suggest requests, summed up over all shards: operations skipped, because a newer
+ * request of the same session arrived, operations which have waited for the result of an identical running lookup
+ * instead of looking up by themselves, operations rejected or degraded by the admission control, and operations
+ * which have returned partial suggestions instead of waiting for a suggester being built
+ */
+public class SuggestRequestStats implements Streamable, Serializable, ToXContent {
+
+    private static final long serialVersionUID = 1L;
+
+    private long cancelled;
+    private long coalesced;
+    private long rejected;
+    private long degraded;
+    private long partial;
+
+    public SuggestRequestStats() {}
+
+    public SuggestRequestStats(long cancelled, long coalesced, long rejected, long degraded, long partial) {
+        this.cancelled = cancelled;
+        this.coalesced = coalesced;
+        this.rejected = rejected;
+        this.degraded = degraded;
+        this.partial = partial;
+    }
+
+    public void add(SuggestRequestStats other) {
+        cancelled += other.cancelled;
+        coalesced += other.coalesced;
+        rejected += other.rejected;
+        degraded += other.degraded;
+        partial += other.partial;
+    }
+
+    public long getCancelled() {
+        return cancelled;
+    }
+
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getDegraded() {
+        return degraded;
+    }
+
+    public long getPartial() {
+        return partial;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        cancelled = in.readVLong();
+        coalesced = in.readVLong();
+        rejected = in.readVLong();
+        degraded = in.readVLong();
+        partial = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVLong(cancelled);
+        out.writeVLong(coalesced);
+        out.writeVLong(rejected);
+        out.writeVLong(degraded);
+        out.writeVLong(partial);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("requestStats");
+        builder.field("cancelled", cancelled);
+        builder.field("coalesced", coalesced);
+        builder.field("rejected", rejected);
+        builder.field("degraded", degraded);
+        builder.field("partial", partial);
+        builder.endObject();
+        return builder;
+    }
+}
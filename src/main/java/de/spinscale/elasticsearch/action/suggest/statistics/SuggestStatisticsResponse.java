@@ -18,6 +18,10 @@ import static org.elasticsearch.rest.action.support.RestActions.buildBroadcastSh
 public class SuggestStatisticsResponse extends BroadcastOperationResponse implements ToXContent {
 
     private FstStats fstStats = new FstStats();
+    private SuggestCacheStats cacheStats = new SuggestCacheStats();
+    private DeadPrefixStats deadPrefixStats = new DeadPrefixStats();
+    private SuggestRequestStats requestStats = new SuggestRequestStats();
+    private SuggestBuildStats buildStats = new SuggestBuildStats();
 
     public SuggestStatisticsResponse() {}
 
@@ -30,6 +34,10 @@ public class SuggestStatisticsResponse extends BroadcastOperationResponse implem
             if (response.getFstIndexShardStats() != null && response.getFstIndexShardStats().size() > 0) {
                 fstStats.getStats().addAll(response.getFstIndexShardStats());
             }
+            cacheStats.add(response.getCacheStats());
+            deadPrefixStats.add(response.getDeadPrefixStats());
+            requestStats.add(response.getRequestStats());
+            buildStats.add(response.getBuildStats());
         }
     }
 
@@ -38,12 +46,24 @@ public class SuggestStatisticsResponse extends BroadcastOperationResponse implem
         super.readFrom(in);
         fstStats = new FstStats();
         fstStats.readFrom(in);
+        cacheStats = new SuggestCacheStats();
+        cacheStats.readFrom(in);
+        deadPrefixStats = new DeadPrefixStats();
+        deadPrefixStats.readFrom(in);
+        requestStats = new SuggestRequestStats();
+        requestStats.readFrom(in);
+        buildStats = new SuggestBuildStats();
+        buildStats.readFrom(in);
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
         fstStats.writeTo(out);
+        cacheStats.writeTo(out);
+        deadPrefixStats.writeTo(out);
+        requestStats.writeTo(out);
+        buildStats.writeTo(out);
     }
 
     public FstStats fstStats() {
@@ -53,10 +73,30 @@ public class SuggestStatisticsResponse extends BroadcastOperationResponse implem
         return fstStats;
     }
 
+    public SuggestCacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    public DeadPrefixStats getDeadPrefixStats() {
+        return deadPrefixStats;
+    }
+
+    public SuggestRequestStats getRequestStats() {
+        return requestStats;
+    }
+
+    public SuggestBuildStats getBuildStats() {
+        return buildStats;
+    }
+
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
         buildBroadcastShardsHeader(builder, this);
         fstStats.toXContent(builder, params);
+        cacheStats.toXContent(builder, params);
+        deadPrefixStats.toXContent(builder, params);
+        requestStats.toXContent(builder, params);
+        buildStats.toXContent(builder, params);
         return builder;
     }
 }
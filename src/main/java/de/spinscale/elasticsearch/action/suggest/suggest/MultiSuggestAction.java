@@ -0,0 +1,26 @@
+package de.spinscale.elasticsearch.action.suggest.suggest;
+
+import de.spinscale.elasticsearch.client.action.suggest.MultiSuggestRequestBuilder;
+import org.elasticsearch.action.ClientAction;
+import org.elasticsearch.client.Client;
+
+public class MultiSuggestAction extends ClientAction<MultiSuggestRequest, MultiSuggestResponse, MultiSuggestRequestBuilder> {
+
+    public static final MultiSuggestAction INSTANCE = new MultiSuggestAction();
+    public static final String NAME = "suggest-fst-multi";
+
+    private MultiSuggestAction() {
+        super(NAME);
+    }
+
+    @Override
+    public MultiSuggestResponse newResponse() {
+        return new MultiSuggestResponse();
+    }
+
+    @Override
+    public MultiSuggestRequestBuilder newRequestBuilder(Client client) {
+        return new MultiSuggestRequestBuilder(client);
+    }
+
+}
@@ -0,0 +1,72 @@
+package de.spinscale.elasticsearch.action.suggest.suggest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.ValidateActions;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequest;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+/**
+ * Several suggest requests against the same indices, which are executed in a single shard operation per shard.
+ * The indices of the single requests are ignored
+ */
+public class MultiSuggestRequest extends BroadcastOperationRequest {
+
+    private List<SuggestRequest> requests = Lists.newArrayList();
+
+    public MultiSuggestRequest() {
+    }
+
+    public MultiSuggestRequest(String... indices) {
+        super(indices);
+    }
+
+    public MultiSuggestRequest add(SuggestRequest request) {
+        requests.add(request);
+        return this;
+    }
+
+    public List<SuggestRequest> requests() {
+        return requests;
+    }
+
+    @Override public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (requests.isEmpty()) {
+            validationException = ValidateActions.addValidationError("No suggest requests specified", validationException);
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            ActionRequestValidationException requestValidationException = requests.get(i).validate();
+            if (requestValidationException != null) {
+                for (String error : requestValidationException.validationErrors()) {
+                    validationException = ValidateActions.addValidationError(String.format(Locale.ROOT, "[%s] %s", i, error), validationException);
+                }
+            }
+        }
+        return validationException;
+    }
+
+    @Override public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        int size = in.readVInt();
+        requests = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            SuggestRequest request = new SuggestRequest();
+            request.readFrom(in);
+            requests.add(request);
+        }
+    }
+
+    @Override public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(requests.size());
+        for (SuggestRequest request : requests) {
+            request.writeTo(out);
+        }
+    }
+}
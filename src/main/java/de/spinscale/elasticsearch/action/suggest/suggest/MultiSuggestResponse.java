@@ -0,0 +1,68 @@
+package de.spinscale.elasticsearch.action.suggest.suggest;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationResponse;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import static org.elasticsearch.rest.action.support.RestActions.buildBroadcastShardsHeader;
+
+/**
+ * The suggestions of every request of a multi suggest request, in the order of the requests
+ */
+public class MultiSuggestResponse extends BroadcastOperationResponse implements ToXContent {
+
+    private List<List<String>> suggestions;
+
+    public MultiSuggestResponse() {
+    }
+
+    public MultiSuggestResponse(List<List<String>> suggestions, int totalShards, int successfulShards, int failedShards, List<ShardOperationFailedException> shardFailures) {
+        super(totalShards, successfulShards, failedShards, shardFailures);
+        this.suggestions = suggestions;
+    }
+
+    public int size() {
+        return suggestions.size();
+    }
+
+    public List<String> getSuggestions(int request) {
+        return Lists.newArrayList(suggestions.get(request));
+    }
+
+    @Override public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        int size = in.readVInt();
+        suggestions = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            suggestions.add(Lists.newArrayList(in.readStringArray()));
+        }
+    }
+
+    @Override public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(suggestions.size());
+        for (List<String> requestSuggestions : suggestions) {
+            out.writeStringArray(requestSuggestions.toArray(new String[requestSuggestions.size()]));
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        buildBroadcastShardsHeader(builder, this);
+        builder.startArray("responses");
+        for (List<String> requestSuggestions : suggestions) {
+            builder.startObject();
+            builder.field("suggestions", requestSuggestions);
+            builder.endObject();
+        }
+        builder.endArray();
+        return builder;
+    }
+}
@@ -0,0 +1,46 @@
+package de.spinscale.elasticsearch.action.suggest.suggest;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationRequest;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+public class ShardMultiSuggestRequest extends BroadcastShardOperationRequest {
+
+    private List<ShardSuggestRequest> requests = Lists.newArrayList();
+
+    public ShardMultiSuggestRequest() {}
+
+    public ShardMultiSuggestRequest(String index, int shardId, MultiSuggestRequest request) {
+        super(index, shardId, request);
+        for (SuggestRequest suggestRequest : request.requests()) {
+            requests.add(new ShardSuggestRequest(index, shardId, suggestRequest));
+        }
+    }
+
+    public List<ShardSuggestRequest> requests() {
+        return requests;
+    }
+
+    @Override public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        int size = in.readVInt();
+        requests = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            ShardSuggestRequest request = new ShardSuggestRequest();
+            request.readFrom(in);
+            requests.add(request);
+        }
+    }
+
+    @Override public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(requests.size());
+        for (ShardSuggestRequest request : requests) {
+            request.writeTo(out);
+        }
+    }
+}
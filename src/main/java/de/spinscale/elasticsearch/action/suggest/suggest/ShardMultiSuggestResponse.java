@@ -0,0 +1,47 @@
+package de.spinscale.elasticsearch.action.suggest.suggest;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationResponse;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+/**
+ * The suggestions of a shard for every request of a multi suggest request, in the order of the requests
+ */
+public class ShardMultiSuggestResponse extends BroadcastShardOperationResponse {
+
+    private List<ShardSuggestResponse> responses;
+
+    public ShardMultiSuggestResponse() {}
+
+    public ShardMultiSuggestResponse(String index, int shardId, List<ShardSuggestResponse> responses) {
+        super(index, shardId);
+        this.responses = responses;
+    }
+
+    public ShardSuggestResponse response(int request) {
+        return responses.get(request);
+    }
+
+    @Override public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        int size = in.readVInt();
+        responses = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            ShardSuggestResponse response = new ShardSuggestResponse();
+            response.readFrom(in);
+            responses.add(response);
+        }
+    }
+
+    @Override public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(responses.size());
+        for (ShardSuggestResponse response : responses) {
+            response.writeTo(out);
+        }
+    }
+}
@@ -6,18 +6,26 @@ import org.elasticsearch.action.support.broadcast.BroadcastShardOperationRequest
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
 
 public class ShardSuggestRequest extends BroadcastShardOperationRequest {
 
     private int size = 10;
     private String field;
     private float similarity = 1.0f;
+    private String similarityEngine = "spellchecker";
     private String term;
     private String[] types = Strings.EMPTY_ARRAY;
     private String suggestType = "fst";
     private String queryAnalyzer;
     private String indexAnalyzer;
     private boolean preservePositionIncrements = true;
+    private String session;
+    private String coordinatingNode;
+    private long sequence;
+    private TimeValue timeout;
+    // when the request has been created or received on this node, not serialized
+    private long receivedNanos = System.nanoTime();
 
     public ShardSuggestRequest() {}
 
@@ -27,11 +35,14 @@ public class ShardSuggestRequest extends BroadcastShardOperationRequest {
         field = request.field();
         term = request.term();
         similarity = request.similarity();
+        similarityEngine = request.similarityEngine();
         types = request.types();
         suggestType = request.suggestType();
         queryAnalyzer = request.queryAnalyzer();
         indexAnalyzer = request.indexAnalyzer();
         preservePositionIncrements = request.preservePositionIncrements();
+        session = request.session();
+        timeout = request.timeout();
     }
 
     public int size() {
@@ -58,6 +69,14 @@ public class ShardSuggestRequest extends BroadcastShardOperationRequest {
         this.similarity = similarity;
     }
 
+    public String similarityEngine() {
+        return similarityEngine;
+    }
+
+    public void similarityEngine(String similarityEngine) {
+        this.similarityEngine = similarityEngine;
+    }
+
     public String term() {
         return term;
     }
@@ -102,10 +121,53 @@ public class ShardSuggestRequest extends BroadcastShardOperationRequest {
         this.preservePositionIncrements = preservePositionIncrements;
     }
 
+    public String session() {
+        return session;
+    }
+
+    public void session(String session) {
+        this.session = session;
+    }
+
+    /**
+     * The node coordinating the request, which numbers the requests of a session
+     */
+    public String coordinatingNode() {
+        return coordinatingNode;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    public void sequence(String coordinatingNode, long sequence) {
+        this.coordinatingNode = coordinatingNode;
+        this.sequence = sequence;
+    }
+
+    public TimeValue timeout() {
+        return timeout;
+    }
+
+    /**
+     * The time passed since the request has been received on this node
+     */
+    public long elapsedNanos() {
+        return System.nanoTime() - receivedNanos;
+    }
+
+    /**
+     * Returns true, if the request has a timeout, which has passed since the request has been received
+     */
+    public boolean expired() {
+        return timeout != null && elapsedNanos() > timeout.nanos();
+    }
+
     @Override public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
         size = in.readVInt();
         similarity = in.readFloat();
+        similarityEngine = in.readString();
         field = in.readString();
         term = in.readString();
         suggestType = in.readString();
@@ -113,12 +175,20 @@ public class ShardSuggestRequest extends BroadcastShardOperationRequest {
         indexAnalyzer = in.readOptionalString();
         types = in.readStringArray();
         preservePositionIncrements = in.readBoolean();
+        session = in.readOptionalString();
+        coordinatingNode = in.readOptionalString();
+        sequence = in.readVLong();
+        if (in.readBoolean()) {
+            timeout = TimeValue.readTimeValue(in);
+        }
+        receivedNanos = System.nanoTime();
     }
 
     @Override public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
         out.writeVInt(size);
         out.writeFloat(similarity);
+        out.writeString(similarityEngine);
         out.writeString(field);
         out.writeString(term);
         out.writeString(suggestType);
@@ -126,5 +196,14 @@ public class ShardSuggestRequest extends BroadcastShardOperationRequest {
         out.writeOptionalString(indexAnalyzer);
         out.writeStringArrayNullable(types);
         out.writeBoolean(preservePositionIncrements);
+        out.writeOptionalString(session);
+        out.writeOptionalString(coordinatingNode);
+        out.writeVLong(sequence);
+        if (timeout == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            timeout.writeTo(out);
+        }
     }
 }
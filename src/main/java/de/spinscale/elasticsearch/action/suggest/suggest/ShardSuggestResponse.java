@@ -8,15 +8,65 @@ import org.elasticsearch.common.collect.Lists;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 
+/**
+ * The suggestions of a shard in the order they should be returned, together with their weights, which are
+ * used to merge the suggestions of all shards. The weight is the document frequency of the suggestion in the shard,
+ * as the weights of the suggesters depend on the terms of each shard and cannot be compared across shards.
+ * The suggestions starting from {@link #similarStart()} are similar terms, which do not start with the term of the
+ * request. A partial response has been returned without waiting for a suggester, which is still being built.
+ * A superseded response is empty, as the operation has been skipped in favour of a newer request of its session.
+ * A timed out response is empty, as the shard has not looked up the suggestions within the timeout of the request.
+ * Responses to requests with a timeout report the node of the shard and the time the shard has taken
+ */
 public class ShardSuggestResponse extends BroadcastShardOperationResponse {
 
     private List<String> suggestions;
+    private long[] weights;
+    private int similarStart;
+    private boolean partial;
+    private boolean superseded;
+    private boolean timedOut;
+    private String node;
+    private long tookInMillis;
 
     public ShardSuggestResponse() {}
 
-    public ShardSuggestResponse(String index, int shardId, List<String> suggestions) {
+    public ShardSuggestResponse(String index, int shardId, List<String> suggestions, long[] weights) {
+        this(index, shardId, suggestions, weights, suggestions.size(), false);
+    }
+
+    public ShardSuggestResponse(String index, int shardId, List<String> suggestions, long[] weights, int similarStart, boolean partial) {
         super(index, shardId);
+        assert suggestions.size() == weights.length;
         this.suggestions = suggestions;
+        this.weights = weights;
+        this.similarStart = similarStart;
+        this.partial = partial;
+    }
+
+    public static ShardSuggestResponse superseded(String index, int shardId) {
+        ShardSuggestResponse response = new ShardSuggestResponse(index, shardId, Lists.<String>newArrayList(), new long[0]);
+        response.superseded = true;
+        return response;
+    }
+
+    public static ShardSuggestResponse timedOut(String index, int shardId) {
+        ShardSuggestResponse response = new ShardSuggestResponse(index, shardId, Lists.<String>newArrayList(), new long[0]);
+        response.timedOut = true;
+        return response;
+    }
+
+    /**
+     * Returns a copy of this response with the node and the time the shard has taken, as responses are shared
+     * between identical requests
+     */
+    public ShardSuggestResponse timing(String node, long tookInMillis) {
+        ShardSuggestResponse response = new ShardSuggestResponse(getIndex(), getShardId(), suggestions, weights, similarStart, partial);
+        response.superseded = superseded;
+        response.timedOut = timedOut;
+        response.node = node;
+        response.tookInMillis = tookInMillis;
+        return response;
     }
 
     public List<String> getSuggestions() {
@@ -27,13 +77,75 @@ public class ShardSuggestResponse extends BroadcastShardOperationResponse {
         return Lists.newArrayList(suggestions);
     }
 
+    public int size() {
+        return suggestions.size();
+    }
+
+    public String suggestion(int i) {
+        return suggestions.get(i);
+    }
+
+    public long weight(int i) {
+        return weights[i];
+    }
+
+    public boolean similar(int i) {
+        return i >= similarStart;
+    }
+
+    public int similarStart() {
+        return similarStart;
+    }
+
+    public boolean partial() {
+        return partial;
+    }
+
+    public boolean superseded() {
+        return superseded;
+    }
+
+    public boolean timedOut() {
+        return timedOut;
+    }
+
+    public String node() {
+        return node;
+    }
+
+    public long tookInMillis() {
+        return tookInMillis;
+    }
+
     @Override public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
-        suggestions = (List<String>) in.readGenericValue();
+        int size = in.readVInt();
+        suggestions = Lists.newArrayListWithCapacity(size);
+        weights = new long[size];
+        for (int i = 0; i < size; i++) {
+            suggestions.add(in.readString());
+            weights[i] = in.readVLong();
+        }
+        similarStart = in.readVInt();
+        partial = in.readBoolean();
+        superseded = in.readBoolean();
+        timedOut = in.readBoolean();
+        node = in.readOptionalString();
+        tookInMillis = in.readVLong();
     }
 
     @Override public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
-        out.writeGenericValue(suggestions);
+        out.writeVInt(suggestions.size());
+        for (int i = 0; i < suggestions.size(); i++) {
+            out.writeString(suggestions.get(i));
+            out.writeVLong(weights[i]);
+        }
+        out.writeVInt(similarStart);
+        out.writeBoolean(partial);
+        out.writeBoolean(superseded);
+        out.writeBoolean(timedOut);
+        out.writeOptionalString(node);
+        out.writeVLong(tookInMillis);
     }
 }
@@ -9,6 +9,7 @@ import org.elasticsearch.action.ValidateActions;
 import org.elasticsearch.action.support.broadcast.BroadcastOperationRequest;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
 
 public class SuggestRequest extends BroadcastOperationRequest {
 
@@ -17,11 +18,16 @@ public class SuggestRequest extends BroadcastOperationRequest {
     private int size = 10;
     private String field;
     private float similarity = 1.0f;
+    private String similarityEngine = "spellchecker";
     private String term;
     private String suggestType = "fst";
     private String queryAnalyzer;
     private String indexAnalyzer;
     private boolean preservePositionIncrements = true;
+    private String session;
+    private TimeValue timeout;
+    // assigned by the coordinating node to requests of a session, not serialized
+    private long sequence;
 
     public SuggestRequest() {
     }
@@ -54,6 +60,18 @@ public class SuggestRequest extends BroadcastOperationRequest {
         this.similarity = similarity;
     }
 
+    public String similarityEngine() {
+        return similarityEngine;
+    }
+
+    /**
+     * The engine used to find similar terms, if the similarity is below 1.0: either "spellchecker", which uses
+     * an n-gram index built per field, or "direct", which runs Levenshtein automata against the terms of the shard
+     */
+    public void similarityEngine(String similarityEngine) {
+        this.similarityEngine = similarityEngine;
+    }
+
     public String term() {
         return term;
     }
@@ -91,6 +109,39 @@ public class SuggestRequest extends BroadcastOperationRequest {
         queryAnalyzer(analyzer);
     }
 
+    public String session() {
+        return session;
+    }
+
+    /**
+     * An optional token identifying the typing session of a user. Shards keep the state of the previous lookup
+     * of a session for a short time and continue from it, if the next term of the session extends the previous one.
+     * Shard operations of a request are skipped, once a newer request of the same session has arrived
+     */
+    public void session(String session) {
+        this.session = session;
+    }
+
+    public TimeValue timeout() {
+        return timeout;
+    }
+
+    /**
+     * The time every shard waits for its lookup. Shards, which have not looked up their suggestions once it has passed,
+     * are reported as failed and the response is marked as timed out
+     */
+    public void timeout(TimeValue timeout) {
+        this.timeout = timeout;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    void sequence(long sequence) {
+        this.sequence = sequence;
+    }
+
     @Override public ActionRequestValidationException validate() {
         ActionRequestValidationException validationException = super.validate();
         if (field == null || field.length() == 0) {
@@ -99,6 +150,12 @@ public class SuggestRequest extends BroadcastOperationRequest {
         if (term == null || term.length() == 0) {
             validationException = ValidateActions.addValidationError("No query term specified", validationException);
         }
+        if (timeout != null && timeout.nanos() <= 0) {
+            validationException = ValidateActions.addValidationError("Timeout must be positive", validationException);
+        }
+        if (!"spellchecker".equals(similarityEngine) && !"direct".equals(similarityEngine)) {
+            validationException = ValidateActions.addValidationError("Unknown similarity engine [" + similarityEngine + "]", validationException);
+        }
         return validationException;
     }
 
@@ -124,28 +181,41 @@ public class SuggestRequest extends BroadcastOperationRequest {
         super.readFrom(in);
         size = in.readVInt();
         similarity = in.readFloat();
+        similarityEngine = in.readString();
         field = in.readString();
         term = in.readString();
         suggestType = in.readString();
         queryAnalyzer = in.readOptionalString();
         indexAnalyzer = in.readOptionalString();
         types = in.readStringArray();
+        session = in.readOptionalString();
+        if (in.readBoolean()) {
+            timeout = TimeValue.readTimeValue(in);
+        }
     }
 
     @Override public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
         out.writeVInt(size);
         out.writeFloat(similarity);
+        out.writeString(similarityEngine);
         out.writeString(field);
         out.writeString(term);
         out.writeString(suggestType);
         out.writeOptionalString(queryAnalyzer);
         out.writeOptionalString(indexAnalyzer);
         out.writeStringArray(types);
+        out.writeOptionalString(session);
+        if (timeout == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            timeout.writeTo(out);
+        }
     }
 
     @Override public String toString() {
-        return String.format(Locale.ROOT, "[%s] %s, field[%s], term[%s], size[%s], similarity[%s], suggestType[%s], indexAnalyzer[%s], queryAnalyzer[%s]",
-                Arrays.toString(indices), Arrays.toString(types), field, term, size, similarity, suggestType, indexAnalyzer, queryAnalyzer);
+        return String.format(Locale.ROOT, "[%s] %s, field[%s], term[%s], size[%s], similarity[%s], similarityEngine[%s], suggestType[%s], indexAnalyzer[%s], queryAnalyzer[%s]",
+                Arrays.toString(indices), Arrays.toString(types), field, term, size, similarity, similarityEngine, suggestType, indexAnalyzer, queryAnalyzer);
     }
 }
@@ -8,6 +8,7 @@ import org.elasticsearch.action.support.broadcast.BroadcastOperationResponse;
 import org.elasticsearch.common.collect.Lists;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 
@@ -16,13 +17,22 @@ import static org.elasticsearch.rest.action.support.RestActions.buildBroadcastSh
 public class SuggestResponse extends BroadcastOperationResponse implements ToXContent {
 
     private List<String> suggestions;
+    private boolean partial;
+    private boolean timedOut;
+    private List<ShardTiming> shardTimings = Lists.newArrayList();
 
     public SuggestResponse() {
     }
 
     public SuggestResponse(List<String> suggestions, int totalShards, int successfulShards, int failedShards, List<ShardOperationFailedException> shardFailures) {
+        this(suggestions, totalShards, successfulShards, failedShards, shardFailures, false);
+    }
+
+    public SuggestResponse(List<String> suggestions, int totalShards, int successfulShards, int failedShards,
+                           List<ShardOperationFailedException> shardFailures, boolean partial) {
         super(totalShards, successfulShards, failedShards, shardFailures);
         this.suggestions = suggestions;
+        this.partial = partial;
     }
 
     public List<String> suggestions() {
@@ -33,20 +43,149 @@ public class SuggestResponse extends BroadcastOperationResponse implements ToXCo
         return Lists.newArrayList(suggestions);
     }
 
+    /**
+     * Returns true, if at least one shard has answered without waiting for a suggester, which is still being built,
+     * so that suggestions may be missing
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * Returns true, if the timeout of the request has passed, before all shards have looked up their suggestions
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * The time every shard, which has answered, has taken, only reported for requests with a timeout
+     */
+    public List<ShardTiming> getShardTimings() {
+        return shardTimings;
+    }
+
+    void timings(boolean timedOut, List<ShardTiming> shardTimings) {
+        this.timedOut = timedOut;
+        this.shardTimings = shardTimings;
+    }
+
     @Override public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
-        suggestions = (List<String>) in.readGenericValue();
+        suggestions = Lists.newArrayList(in.readStringArray());
+        partial = in.readBoolean();
+        timedOut = in.readBoolean();
+        int size = in.readVInt();
+        shardTimings = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            ShardTiming shardTiming = new ShardTiming();
+            shardTiming.readFrom(in);
+            shardTimings.add(shardTiming);
+        }
     }
 
     @Override public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
-        out.writeGenericValue(suggestions);
+        out.writeStringArray(suggestions.toArray(new String[suggestions.size()]));
+        out.writeBoolean(partial);
+        out.writeBoolean(timedOut);
+        out.writeVInt(shardTimings.size());
+        for (ShardTiming shardTiming : shardTimings) {
+            shardTiming.writeTo(out);
+        }
     }
 
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
         buildBroadcastShardsHeader(builder, this);
         builder.field("suggestions", suggestions);
+        if (partial) {
+            builder.field("partial", true);
+        }
+        if (!shardTimings.isEmpty()) {
+            builder.field("timedOut", timedOut);
+            builder.startArray("shardTimings");
+            for (ShardTiming shardTiming : shardTimings) {
+                shardTiming.toXContent(builder, params);
+            }
+            builder.endArray();
+        }
         return builder;
     }
+
+    /**
+     * The time a shard has taken from receiving the operation until it has answered, either with its suggestions
+     * or because the timeout has passed
+     */
+    public static class ShardTiming implements Streamable, ToXContent {
+
+        private String index;
+        private int shardId;
+        private String node;
+        private long tookInMillis;
+        private boolean timedOut;
+
+        ShardTiming() {}
+
+        public ShardTiming(String index, int shardId, String node, long tookInMillis, boolean timedOut) {
+            this.index = index;
+            this.shardId = shardId;
+            this.node = node;
+            this.tookInMillis = tookInMillis;
+            this.timedOut = timedOut;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public int getShardId() {
+            return shardId;
+        }
+
+        /**
+         * The node of the shard copy, which has answered
+         */
+        public String getNode() {
+            return node;
+        }
+
+        public long getTookInMillis() {
+            return tookInMillis;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            index = in.readString();
+            shardId = in.readVInt();
+            node = in.readOptionalString();
+            tookInMillis = in.readVLong();
+            timedOut = in.readBoolean();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(index);
+            out.writeVInt(shardId);
+            out.writeOptionalString(node);
+            out.writeVLong(tookInMillis);
+            out.writeBoolean(timedOut);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("index", index);
+            builder.field("shard", shardId);
+            builder.field("node", node);
+            builder.field("tookInMillis", tookInMillis);
+            builder.field("timedOut", timedOut);
+            builder.endObject();
+            return builder;
+        }
+    }
 }
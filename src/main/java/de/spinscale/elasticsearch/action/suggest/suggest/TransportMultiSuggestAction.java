@@ -0,0 +1,132 @@
+package de.spinscale.elasticsearch.action.suggest.suggest;
+
+import de.spinscale.elasticsearch.service.suggest.ShardSuggestService;
+import de.spinscale.elasticsearch.service.suggest.SuggestAdmissionService;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastOperationAction;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ * Sends all requests of a multi suggest request to every shard at once and merges the suggestions of the shards
+ * per request, like the suggest action does for a single request
+ */
+public class TransportMultiSuggestAction extends TransportBroadcastOperationAction<MultiSuggestRequest, MultiSuggestResponse, ShardMultiSuggestRequest, ShardMultiSuggestResponse> {
+
+    private final IndicesService indicesService;
+
+    @Inject public TransportMultiSuggestAction(Settings settings, ThreadPool threadPool,
+            ClusterService clusterService, TransportService transportService, IndicesService indicesService) {
+        super(settings, MultiSuggestAction.NAME, threadPool, clusterService, transportService);
+        this.indicesService = indicesService;
+    }
+
+    @Override
+    protected String executor() {
+        return SuggestAdmissionService.THREAD_POOL;
+    }
+
+    @Override
+    protected MultiSuggestRequest newRequest() {
+        return new MultiSuggestRequest();
+    }
+
+    @Override
+    protected MultiSuggestResponse newResponse(MultiSuggestRequest request,
+            AtomicReferenceArray shardsResponses, ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        List<ShardOperationFailedException> shardFailures = null;
+        List<ShardMultiSuggestResponse> shardMultiSuggestResponses = Lists.newArrayList();
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                failedShards++;
+            } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                if (shardFailures == null) {
+                    shardFailures = newArrayList();
+                }
+                shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+            } else if (shardResponse instanceof ShardMultiSuggestResponse) {
+                shardMultiSuggestResponses.add((ShardMultiSuggestResponse) shardResponse);
+                successfulShards++;
+            } else {
+                successfulShards++;
+            }
+        }
+
+        List<List<String>> suggestions = Lists.newArrayListWithCapacity(request.requests().size());
+        for (int i = 0; i < request.requests().size(); i++) {
+            List<ShardSuggestResponse> shardSuggestResponses = Lists.newArrayListWithCapacity(shardMultiSuggestResponses.size());
+            for (ShardMultiSuggestResponse shardMultiSuggestResponse : shardMultiSuggestResponses) {
+                shardSuggestResponses.add(shardMultiSuggestResponse.response(i));
+            }
+            suggestions.add(TransportSuggestAction.merge(shardSuggestResponses, request.requests().get(i).term(),
+                    request.requests().get(i).size()));
+        }
+
+        return new MultiSuggestResponse(suggestions, shardsResponses.length(), successfulShards, failedShards, shardFailures);
+    }
+
+    @Override
+    protected ShardMultiSuggestRequest newShardRequest() {
+        return new ShardMultiSuggestRequest();
+    }
+
+    @Override
+    protected ShardMultiSuggestRequest newShardRequest(int numShards, ShardRouting shard, MultiSuggestRequest request) {
+        return new ShardMultiSuggestRequest(shard.index(), shard.id(), request);
+    }
+
+    @Override
+    protected ShardMultiSuggestResponse newShardResponse() {
+        return new ShardMultiSuggestResponse();
+    }
+
+    @Override
+    protected ShardMultiSuggestResponse shardOperation(ShardMultiSuggestRequest request) throws ElasticsearchException {
+        IndexService indexService = indicesService.indexServiceSafe(request.index());
+        ShardSuggestService suggestShardService = indexService.shardInjectorSafe(request.shardId()).getInstance(ShardSuggestService.class);
+        List<ShardSuggestResponse> responses = Lists.newArrayListWithCapacity(request.requests().size());
+        for (ShardSuggestRequest shardSuggestRequest : request.requests()) {
+            responses.add(suggestShardService.suggest(shardSuggestRequest));
+        }
+        return new ShardMultiSuggestResponse(request.index(), request.shardId(), responses);
+    }
+
+    @Override
+    protected GroupShardsIterator shards(ClusterState clusterState,
+            MultiSuggestRequest request, String[] concreteIndices) {
+        return clusterService.operationRouting().searchShards(clusterState, request.indices(), concreteIndices, null, null);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state, MultiSuggestRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.METADATA);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state, MultiSuggestRequest request, String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.METADATA, concreteIndices);
+    }
+}
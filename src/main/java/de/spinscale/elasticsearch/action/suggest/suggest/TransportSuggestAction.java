@@ -1,7 +1,12 @@
 package de.spinscale.elasticsearch.action.suggest.suggest;
 
+import de.spinscale.elasticsearch.service.suggest.PrefixExtensionCache;
 import de.spinscale.elasticsearch.service.suggest.ShardSuggestService;
+import de.spinscale.elasticsearch.service.suggest.SuggestAdmissionService;
+import de.spinscale.elasticsearch.service.suggest.SupersededRequests;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ShardOperationFailedException;
 import org.elasticsearch.action.support.DefaultShardOperationFailedException;
 import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
@@ -10,18 +15,30 @@ import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.block.ClusterBlockException;
 import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.cluster.routing.GroupShardsIterator;
 import org.elasticsearch.cluster.routing.ShardRouting;
-import org.elasticsearch.common.collect.ImmutableSortedSet;
 import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.collect.Maps;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.service.IndexService;
 import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.threadpool.ThreadPool;
+import org.apache.lucene.util.CollectionUtil;
+import org.elasticsearch.transport.BaseTransportRequestHandler;
+import org.elasticsearch.transport.EmptyTransportResponseHandler;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.transport.TransportResponse;
 import org.elasticsearch.transport.TransportService;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static org.elasticsearch.common.collect.Lists.newArrayList;
@@ -29,17 +46,83 @@ import static org.elasticsearch.common.collect.Lists.newArrayList;
 public class TransportSuggestAction extends TransportBroadcastOperationAction<SuggestRequest, SuggestResponse, ShardSuggestRequest, ShardSuggestResponse> {
 
     private final IndicesService indicesService;
+    private final PrefixExtensionCache prefixExtensionCache;
+    private final SupersededRequests supersededRequests;
+    private final String supersedeAction;
 
     @Inject public TransportSuggestAction(Settings settings, ThreadPool threadPool,
             ClusterService clusterService, TransportService transportService,
-            IndicesService indicesService) {
+            IndicesService indicesService, PrefixExtensionCache prefixExtensionCache,
+            SupersededRequests supersededRequests) {
         super(settings, SuggestAction.NAME, threadPool, clusterService, transportService);
         this.indicesService = indicesService;
+        this.prefixExtensionCache = prefixExtensionCache;
+        this.supersededRequests = supersededRequests;
+        this.supersedeAction = SuggestAction.NAME + "/supersede";
+        transportService.registerHandler(supersedeAction, new SupersedeTransportHandler());
+    }
+
+    @Override
+    protected void doExecute(SuggestRequest request, ActionListener<SuggestResponse> listener) {
+        if (request.session() != null) {
+            listener = startSession(request, listener);
+        }
+
+        ClusterState clusterState = clusterService.state();
+        String[] concreteIndices;
+        try {
+            concreteIndices = clusterState.metaData().concreteIndices(request.indicesOptions(), request.indices());
+        } catch (ElasticsearchException e) {
+            // reported by the broadcast
+            concreteIndices = null;
+        }
+
+        if (concreteIndices != null && prefixExtensionCache.cacheable(request, clusterState, concreteIndices)) {
+            SuggestResponse response = prefixExtensionCache.get(request, concreteIndices);
+            if (response != null) {
+                listener.onResponse(response);
+                return;
+            }
+        }
+        super.doExecute(request, listener);
+    }
+
+    /**
+     * Numbers the request within its session and notifies the nodes running shard operations of the previous
+     * request of the session, so they can skip them. Returns a listener, which marks the request as done
+     */
+    private ActionListener<SuggestResponse> startSession(SuggestRequest request, final ActionListener<SuggestResponse> listener) {
+        String localNodeId = clusterService.localNode().id();
+        final String key = SupersededRequests.key(localNodeId, request.session());
+        final long sequence = supersededRequests.nextSequence();
+        request.sequence(sequence);
+
+        for (String nodeId : supersededRequests.start(key, sequence)) {
+            DiscoveryNode node = clusterService.state().nodes().get(nodeId);
+            if (node != null && !nodeId.equals(localNodeId)) {
+                transportService.sendRequest(node, supersedeAction, new SupersedeRequest(key, sequence),
+                        EmptyTransportResponseHandler.INSTANCE_SAME);
+            }
+        }
+
+        return new ActionListener<SuggestResponse>() {
+            @Override
+            public void onResponse(SuggestResponse response) {
+                supersededRequests.done(key, sequence);
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                supersededRequests.done(key, sequence);
+                listener.onFailure(e);
+            }
+        };
     }
 
     @Override
     protected String executor() {
-        return ThreadPool.Names.SEARCH;
+        return SuggestAdmissionService.THREAD_POOL;
     }
 
     @Override
@@ -55,9 +138,18 @@ public class TransportSuggestAction extends TransportBroadcastOperationAction<Su
         int successfulShards = 0;
         int failedShards = 0;
         List<ShardOperationFailedException> shardFailures = null;
-        List<String> items = Lists.newArrayList();
+        boolean partial = false;
+        boolean superseded = false;
+        boolean timedOut = false;
+        List<SuggestResponse.ShardTiming> shardTimings = Lists.newArrayList();
+        List<ShardSuggestResponse> shardSuggestResponses = Lists.newArrayList();
         for (int i = 0; i < shardsResponses.length(); i++) {
             Object shardResponse = shardsResponses.get(i);
+            if (request.timeout() != null && shardResponse instanceof ShardSuggestResponse) {
+                ShardSuggestResponse shardSuggestResponse = (ShardSuggestResponse) shardResponse;
+                shardTimings.add(new SuggestResponse.ShardTiming(shardSuggestResponse.getIndex(), shardSuggestResponse.getShardId(),
+                        shardSuggestResponse.node(), shardSuggestResponse.tookInMillis(), shardSuggestResponse.timedOut()));
+            }
             if (shardResponse == null) {
                 failedShards++;
             } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
@@ -66,19 +158,93 @@ public class TransportSuggestAction extends TransportBroadcastOperationAction<Su
                     shardFailures = newArrayList();
                 }
                 shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
-            } else if (shardResponse instanceof ShardSuggestResponse) {
+            } else if (shardResponse instanceof ShardSuggestResponse && ((ShardSuggestResponse) shardResponse).timedOut()) {
+                // the shard has not looked up its suggestions in time
+                timedOut = true;
+                failedShards++;
+                if (shardFailures == null) {
+                    shardFailures = newArrayList();
+                }
                 ShardSuggestResponse shardSuggestResponse = (ShardSuggestResponse) shardResponse;
-                List<String> shardItems = shardSuggestResponse.suggestions();
-                items.addAll(shardItems);
+                shardFailures.add(new DefaultShardOperationFailedException(shardSuggestResponse.getIndex(), shardSuggestResponse.getShardId(),
+                        new ElasticsearchTimeoutException("Suggest request has timed out after [" + request.timeout() + "]")));
+            } else if (shardResponse instanceof ShardSuggestResponse && ((ShardSuggestResponse) shardResponse).superseded()) {
+                // skipped in favour of a newer request of the session, whose suggestions are shown instead
+                superseded = true;
+                successfulShards++;
+            } else if (shardResponse instanceof ShardSuggestResponse) {
+                shardSuggestResponses.add((ShardSuggestResponse) shardResponse);
+                partial |= ((ShardSuggestResponse) shardResponse).partial();
                 successfulShards++;
             } else {
                 successfulShards++;
             }
         }
 
-        List<String> resultItems = ImmutableSortedSet.copyOf(items).asList();
-        return new SuggestResponse(resultItems.subList(0, Math.min(resultItems.size(), request.size())),
-                shardsResponses.length(), successfulShards, failedShards, shardFailures);
+        String[] concreteIndices = clusterState.metaData().concreteIndices(request.indicesOptions(), request.indices());
+        // partial and superseded suggestions are not complete, even if no shard has returned as many as requested
+        if (failedShards == 0 && !partial && !superseded && prefixExtensionCache.cacheable(request, clusterState, concreteIndices)) {
+            // every suggestion of the term has been fetched, if no shard has returned as many as requested
+            int fetchSize = prefixExtensionCache.fetchSize(request);
+            int fetched = 0;
+            boolean complete = true;
+            for (ShardSuggestResponse shardSuggestResponse : shardSuggestResponses) {
+                fetched += shardSuggestResponse.size();
+                complete &= shardSuggestResponse.size() < fetchSize;
+            }
+            if (complete) {
+                List<String> suggestions = merge(shardSuggestResponses, request.term(), fetched);
+                prefixExtensionCache.put(request, concreteIndices, suggestions, shardsResponses.length());
+                SuggestResponse response = new SuggestResponse(suggestions.subList(0, Math.min(suggestions.size(), request.size())),
+                        shardsResponses.length(), successfulShards, failedShards, shardFailures);
+                if (request.timeout() != null) {
+                    response.timings(false, shardTimings);
+                }
+                return response;
+            }
+        }
+
+        SuggestResponse response = new SuggestResponse(merge(shardSuggestResponses, request.term(), request.size()),
+                shardsResponses.length(), successfulShards, failedShards, shardFailures, partial);
+        if (request.timeout() != null) {
+            response.timings(timedOut, shardTimings);
+        }
+        return response;
+    }
+
+    /**
+     * Merges the suggestions of all shards: an exact match of the term comes first, followed by the suggestions
+     * starting with the term and the similar suggestions. Within each of these, suggestions are ordered by the sum
+     * of their document frequencies in all shards, equal frequencies are ordered alphabetically
+     */
+    static List<String> merge(List<ShardSuggestResponse> shardSuggestResponses, String term, int size) {
+        if (size <= 0 || shardSuggestResponses.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        Map<String, MergedSuggestion> mergedSuggestions = Maps.newHashMap();
+        for (ShardSuggestResponse shardSuggestResponse : shardSuggestResponses) {
+            for (int i = 0; i < shardSuggestResponse.size(); i++) {
+                String suggestion = shardSuggestResponse.suggestion(i);
+                MergedSuggestion mergedSuggestion = mergedSuggestions.get(suggestion);
+                if (mergedSuggestion == null) {
+                    mergedSuggestion = new MergedSuggestion(suggestion, suggestion.equals(term));
+                    mergedSuggestions.put(suggestion, mergedSuggestion);
+                }
+                mergedSuggestion.add(shardSuggestResponse.weight(i), shardSuggestResponse.similar(i));
+            }
+        }
+
+        List<MergedSuggestion> sortedSuggestions = Lists.newArrayList(mergedSuggestions.values());
+        CollectionUtil.timSort(sortedSuggestions);
+        List<String> suggestions = Lists.newArrayListWithCapacity(Math.min(size, sortedSuggestions.size()));
+        for (MergedSuggestion mergedSuggestion : sortedSuggestions) {
+            if (suggestions.size() >= size) {
+                break;
+            }
+            suggestions.add(mergedSuggestion.suggestion);
+        }
+        return suggestions;
     }
 
     @Override
@@ -88,7 +254,16 @@ public class TransportSuggestAction extends TransportBroadcastOperationAction<Su
 
     @Override
     protected ShardSuggestRequest newShardRequest(int numShards, ShardRouting shard, SuggestRequest request) {
-        return new ShardSuggestRequest(shard.index(), shard.id(), request);
+        ShardSuggestRequest shardSuggestRequest = new ShardSuggestRequest(shard.index(), shard.id(), request);
+        if (prefixExtensionCache.cacheable(request, clusterService.state(), shard.index())) {
+            shardSuggestRequest.size(prefixExtensionCache.fetchSize(request));
+        }
+        if (request.session() != null) {
+            String localNodeId = clusterService.localNode().id();
+            shardSuggestRequest.sequence(localNodeId, request.sequence());
+            supersededRequests.sent(SupersededRequests.key(localNodeId, request.session()), request.sequence(), shard.currentNodeId());
+        }
+        return shardSuggestRequest;
     }
 
     @Override
@@ -101,7 +276,11 @@ public class TransportSuggestAction extends TransportBroadcastOperationAction<Su
         logger.trace("Entered TransportSuggestAction.shardOperation()");
         IndexService indexService = indicesService.indexServiceSafe(request.index());
         ShardSuggestService suggestShardService = indexService.shardInjectorSafe(request.shardId()).getInstance(ShardSuggestService.class);
-        return suggestShardService.suggest(request);
+        ShardSuggestResponse response = suggestShardService.suggest(request);
+        if (request.timeout() != null) {
+            return response.timing(clusterService.localNode().id(), TimeUnit.NANOSECONDS.toMillis(request.elapsedNanos()));
+        }
+        return response;
     }
 
     @Override
@@ -121,4 +300,88 @@ public class TransportSuggestAction extends TransportBroadcastOperationAction<Su
         return state.blocks().indicesBlockedException(ClusterBlockLevel.METADATA, concreteIndices);
     }
 
+    /**
+     * A suggestion of one or more shards, a suggestion starting with the term on any shard is not similar
+     */
+    private static class MergedSuggestion implements Comparable<MergedSuggestion> {
+
+        private final String suggestion;
+        private final boolean exactMatch;
+        private boolean similar = true;
+        private long weight;
+
+        MergedSuggestion(String suggestion, boolean exactMatch) {
+            this.suggestion = suggestion;
+            this.exactMatch = exactMatch;
+        }
+
+        void add(long weight, boolean similar) {
+            this.weight += weight;
+            this.similar &= similar;
+        }
+
+        private int rank() {
+            return exactMatch ? 2 : (similar ? 0 : 1);
+        }
+
+        @Override
+        public int compareTo(MergedSuggestion other) {
+            if (rank() != other.rank()) {
+                return rank() > other.rank() ? -1 : 1;
+            }
+            if (weight != other.weight) {
+                return weight > other.weight ? -1 : 1;
+            }
+            return suggestion.compareTo(other.suggestion);
+        }
+    }
+
+    static class SupersedeRequest extends TransportRequest {
+
+        private String key;
+        private long sequence;
+
+        SupersedeRequest() {}
+
+        SupersedeRequest(String key, long sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            key = in.readString();
+            sequence = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeString(key);
+            out.writeVLong(sequence);
+        }
+    }
+
+    /**
+     * Runs on the network thread, so that shard operations already queued on this node see the newer request
+     */
+    private class SupersedeTransportHandler extends BaseTransportRequestHandler<SupersedeRequest> {
+
+        @Override
+        public SupersedeRequest newInstance() {
+            return new SupersedeRequest();
+        }
+
+        @Override
+        public void messageReceived(SupersedeRequest request, TransportChannel channel) throws Exception {
+            supersededRequests.supersede(request.key, request.sequence);
+            channel.sendResponse(TransportResponse.Empty.INSTANCE);
+        }
+
+        @Override
+        public String executor() {
+            return ThreadPool.Names.SAME;
+        }
+    }
 }
@@ -0,0 +1,36 @@
+package de.spinscale.elasticsearch.client.action.suggest;
+
+import de.spinscale.elasticsearch.action.suggest.suggest.MultiSuggestAction;
+import de.spinscale.elasticsearch.action.suggest.suggest.MultiSuggestRequest;
+import de.spinscale.elasticsearch.action.suggest.suggest.MultiSuggestResponse;
+import de.spinscale.elasticsearch.action.suggest.suggest.SuggestRequest;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.client.Client;
+
+public class MultiSuggestRequestBuilder extends ActionRequestBuilder<MultiSuggestRequest, MultiSuggestResponse, MultiSuggestRequestBuilder, Client> {
+
+    public MultiSuggestRequestBuilder(Client client) {
+        super(client, new MultiSuggestRequest());
+    }
+
+    @Override
+    protected void doExecute(ActionListener<MultiSuggestResponse> listener) {
+        client.execute(MultiSuggestAction.INSTANCE, request, listener);
+    }
+
+    public MultiSuggestRequestBuilder add(SuggestRequestBuilder suggestRequestBuilder) {
+        request.add(suggestRequestBuilder.request());
+        return this;
+    }
+
+    public MultiSuggestRequestBuilder add(SuggestRequest suggestRequest) {
+        request.add(suggestRequest);
+        return this;
+    }
+
+    public MultiSuggestRequestBuilder setIndices(String ... indices) {
+        request.indices(indices);
+        return this;
+    }
+}
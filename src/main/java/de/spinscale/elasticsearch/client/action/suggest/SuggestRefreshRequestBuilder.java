@@ -23,6 +23,11 @@ public class SuggestRefreshRequestBuilder extends ActionRequestBuilder<SuggestRe
         return this;
     }
 
+    public SuggestRefreshRequestBuilder setForce(boolean force) {
+        request.force(force);
+        return this;
+    }
+
     @Override
     protected void doExecute(ActionListener<SuggestRefreshResponse> listener) {
         client.execute(SuggestRefreshAction.INSTANCE, request, listener);
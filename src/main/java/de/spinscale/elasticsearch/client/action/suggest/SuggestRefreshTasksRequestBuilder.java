@@ -0,0 +1,36 @@
+package de.spinscale.elasticsearch.client.action.suggest;
+
+import de.spinscale.elasticsearch.action.suggest.refresh.SuggestRefreshTasksAction;
+import de.spinscale.elasticsearch.action.suggest.refresh.SuggestRefreshTasksRequest;
+import de.spinscale.elasticsearch.action.suggest.refresh.SuggestRefreshTasksResponse;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.client.Client;
+
+public class SuggestRefreshTasksRequestBuilder extends ActionRequestBuilder<SuggestRefreshTasksRequest, SuggestRefreshTasksResponse, SuggestRefreshTasksRequestBuilder, Client> {
+
+    public SuggestRefreshTasksRequestBuilder(Client client) {
+        super(client, new SuggestRefreshTasksRequest());
+    }
+
+    public SuggestRefreshTasksRequestBuilder setIndices(String ... indices) {
+        request.indices(indices);
+        return this;
+    }
+
+    public SuggestRefreshTasksRequestBuilder setNodeId(String nodeId) {
+        request.nodeId(nodeId);
+        return this;
+    }
+
+    public SuggestRefreshTasksRequestBuilder setCancel(boolean cancel) {
+        request.cancel(cancel);
+        return this;
+    }
+
+    @Override
+    protected void doExecute(ActionListener<SuggestRefreshTasksResponse> listener) {
+        client.execute(SuggestRefreshTasksAction.INSTANCE, request, listener);
+    }
+
+}
@@ -6,6 +6,7 @@ import org.elasticsearch.action.ActionRequestBuilder;
 import de.spinscale.elasticsearch.action.suggest.suggest.SuggestRequest;
 import de.spinscale.elasticsearch.action.suggest.suggest.SuggestResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
 
 public class SuggestRequestBuilder extends ActionRequestBuilder<SuggestRequest, SuggestResponse, SuggestRequestBuilder, Client> {
 
@@ -38,6 +39,26 @@ public class SuggestRequestBuilder extends ActionRequestBuilder<SuggestRequest,
         return this;
     }
 
+    public SuggestRequestBuilder similarityEngine(String similarityEngine) {
+        request.similarityEngine(similarityEngine);
+        return this;
+    }
+
+    public SuggestRequestBuilder session(String session) {
+        request.session(session);
+        return this;
+    }
+
+    public SuggestRequestBuilder timeout(TimeValue timeout) {
+        request.timeout(timeout);
+        return this;
+    }
+
+    public SuggestRequestBuilder timeout(String timeout) {
+        request.timeout(TimeValue.parseTimeValue(timeout, null));
+        return this;
+    }
+
     public SuggestRequestBuilder size(int size) {
         request.size(size);
         return this;
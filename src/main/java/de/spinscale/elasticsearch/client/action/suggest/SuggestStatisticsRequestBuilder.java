@@ -13,6 +13,11 @@ public class SuggestStatisticsRequestBuilder extends ActionRequestBuilder<Sugges
         super(client, new SuggestStatisticsRequest());
     }
 
+    public SuggestStatisticsRequestBuilder setIndices(String ... indices) {
+        request.indices(indices);
+        return this;
+    }
+
     @Override
     protected void doExecute(ActionListener<SuggestStatisticsResponse> listener) {
         client.execute(SuggestStatisticsAction.INSTANCE, request, listener);
@@ -0,0 +1,26 @@
+package de.spinscale.elasticsearch.module.suggest;
+
+import de.spinscale.elasticsearch.service.suggest.PrefixExtensionCache;
+import de.spinscale.elasticsearch.service.suggest.SuggestAdmissionService;
+import de.spinscale.elasticsearch.service.suggest.SuggestBuildService;
+import de.spinscale.elasticsearch.service.suggest.SuggestMemoryService;
+import de.spinscale.elasticsearch.service.suggest.SuggestResultCache;
+import de.spinscale.elasticsearch.service.suggest.SuggestService;
+import de.spinscale.elasticsearch.service.suggest.SupersededRequests;
+import org.elasticsearch.common.inject.AbstractModule;
+
+
+public class SuggestModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(SuggestBuildService.class).asEagerSingleton();
+        bind(SuggestMemoryService.class).asEagerSingleton();
+        bind(SuggestResultCache.class).asEagerSingleton();
+        bind(PrefixExtensionCache.class).asEagerSingleton();
+        bind(SupersededRequests.class).asEagerSingleton();
+        bind(SuggestAdmissionService.class).asEagerSingleton();
+        bind(SuggestService.class).asEagerSingleton();
+    }
+
+}
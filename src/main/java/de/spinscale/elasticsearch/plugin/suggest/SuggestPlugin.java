@@ -1,15 +1,25 @@
 package de.spinscale.elasticsearch.plugin.suggest;
 
 import de.spinscale.elasticsearch.action.suggest.refresh.SuggestRefreshAction;
+import de.spinscale.elasticsearch.action.suggest.refresh.SuggestRefreshTasksAction;
 import de.spinscale.elasticsearch.action.suggest.refresh.TransportSuggestRefreshAction;
+import de.spinscale.elasticsearch.action.suggest.refresh.TransportSuggestRefreshTasksAction;
 import de.spinscale.elasticsearch.action.suggest.statistics.SuggestStatisticsAction;
 import de.spinscale.elasticsearch.action.suggest.statistics.TransportSuggestStatisticsAction;
+import de.spinscale.elasticsearch.action.suggest.suggest.MultiSuggestAction;
 import de.spinscale.elasticsearch.action.suggest.suggest.SuggestAction;
+import de.spinscale.elasticsearch.action.suggest.suggest.TransportMultiSuggestAction;
 import de.spinscale.elasticsearch.action.suggest.suggest.TransportSuggestAction;
 import de.spinscale.elasticsearch.module.suggest.ShardSuggestModule;
+import de.spinscale.elasticsearch.module.suggest.SuggestModule;
+import de.spinscale.elasticsearch.rest.action.suggest.RestMultiSuggestAction;
 import de.spinscale.elasticsearch.rest.action.suggest.RestRefreshSuggestAction;
+import de.spinscale.elasticsearch.rest.action.suggest.RestRefreshTasksAction;
 import de.spinscale.elasticsearch.rest.action.suggest.RestStatisticsAction;
 import de.spinscale.elasticsearch.rest.action.suggest.RestSuggestAction;
+import de.spinscale.elasticsearch.service.suggest.ShardSuggestService;
+import de.spinscale.elasticsearch.service.suggest.SuggestAdmissionService;
+import de.spinscale.elasticsearch.service.suggest.SuggestBuildService;
 import de.spinscale.elasticsearch.service.suggest.SuggestService;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.Version;
@@ -19,6 +29,7 @@ import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.CloseableIndexComponent;
 import org.elasticsearch.plugins.AbstractPlugin;
 import org.elasticsearch.rest.RestModule;
 
@@ -27,10 +38,12 @@ import java.util.Locale;
 
 public class SuggestPlugin extends AbstractPlugin {
 
+    private final Settings settings;
     private final boolean isClient;
 
     @Inject
     public SuggestPlugin(Settings settings) {
+        this.settings = settings;
         this.isClient = settings.getAsBoolean("node.client", false);
 
         // Check if the plugin is newer than elasticsearch
@@ -56,28 +69,58 @@ public class SuggestPlugin extends AbstractPlugin {
         return "Suggest Plugin";
     }
 
+    /**
+     * Defines the suggest thread pool, the shard operations of suggest requests run on
+     */
+    @Override
+    public Settings additionalSettings() {
+        return SuggestAdmissionService.threadPoolSettings(settings);
+    }
+
     public void onModule(RestModule restModule) {
         restModule.addRestAction(RestSuggestAction.class);
+        restModule.addRestAction(RestMultiSuggestAction.class);
         restModule.addRestAction(RestRefreshSuggestAction.class);
+        restModule.addRestAction(RestRefreshTasksAction.class);
         restModule.addRestAction(RestStatisticsAction.class);
     }
 
     public void onModule(ActionModule actionModule) {
         actionModule.registerAction(SuggestAction.INSTANCE, TransportSuggestAction.class);
+        actionModule.registerAction(MultiSuggestAction.INSTANCE, TransportMultiSuggestAction.class);
         actionModule.registerAction(SuggestRefreshAction.INSTANCE, TransportSuggestRefreshAction.class);
+        actionModule.registerAction(SuggestRefreshTasksAction.INSTANCE, TransportSuggestRefreshTasksAction.class);
         actionModule.registerAction(SuggestStatisticsAction.INSTANCE, TransportSuggestStatisticsAction.class);
     }
 
+    @Override
+    public Collection<Class<? extends Module>> modules() {
+        Collection<Class<? extends Module>> modules = Lists.newArrayList();
+
+        if (!isClient) {
+            modules.add(SuggestModule.class);
+        }
+        return modules;
+    }
+
     @SuppressWarnings("rawtypes")
     @Override public Collection<Class<? extends LifecycleComponent>> services() {
         Collection<Class<? extends LifecycleComponent>> services = Lists.newArrayList();
 
         if (!isClient) {
+            services.add(SuggestBuildService.class);
             services.add(SuggestService.class);
         }
         return services;
     }
 
+    @Override
+    public Collection<Class<? extends CloseableIndexComponent>> shardServices() {
+        Collection<Class<? extends CloseableIndexComponent>> services = Lists.newArrayList();
+        services.add(ShardSuggestService.class);
+        return services;
+    }
+
     @Override
     public Collection<Class<? extends Module>> shardModules() {
         Collection<Class<? extends Module>> modules = Lists.newArrayList();
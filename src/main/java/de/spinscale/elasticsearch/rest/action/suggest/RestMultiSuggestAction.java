@@ -0,0 +1,80 @@
+package de.spinscale.elasticsearch.rest.action.suggest;
+
+import de.spinscale.elasticsearch.action.suggest.suggest.MultiSuggestAction;
+import de.spinscale.elasticsearch.action.suggest.suggest.MultiSuggestRequest;
+import de.spinscale.elasticsearch.action.suggest.suggest.MultiSuggestResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.*;
+import org.elasticsearch.rest.action.support.RestToXContentListener;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.BAD_REQUEST;
+
+/**
+ * Executes several suggest requests against the same indices, the body contains the requests in the
+ * format of the suggest endpoint: <code>{ "requests": [ { "field": ..., "term": ... }, ... ] }</code>
+ */
+public class RestMultiSuggestAction extends BaseRestHandler {
+
+    @Inject
+    public RestMultiSuggestAction(Settings settings, Client client, RestController controller) {
+        super(settings, client);
+        controller.registerHandler(GET, "/{index}/__msuggest", this);
+        controller.registerHandler(GET, "/{index}/{type}/__msuggest", this);
+        controller.registerHandler(POST, "/{index}/__msuggest", this);
+        controller.registerHandler(POST, "/{index}/{type}/__msuggest", this);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void handleRequest(final RestRequest request, final RestChannel channel, Client client) {
+        final String[] indices = Strings.splitStringByCommaToArray(request.param("index"));
+
+        try {
+            Map<String, Object> parserMap;
+            if (request.hasContent()) {
+                XContentParser parser = XContentFactory.xContent(request.content()).createParser(request.content());
+                parserMap = parser.mapAndClose();
+            } else if (request.hasParam("source")) {
+                String source = request.param("source");
+                XContentParser parser = XContentFactory.xContent(source).createParser(source);
+                parserMap = parser.mapAndClose();
+            } else {
+                channel.sendResponse(new BytesRestResponse(BAD_REQUEST, "Please provide body data or source parameter"));
+                return;
+            }
+
+            if (!(parserMap.get("requests") instanceof List)) {
+                channel.sendResponse(new BytesRestResponse(BAD_REQUEST, "Please provide the suggest requests as [requests] array"));
+                return;
+            }
+
+            MultiSuggestRequest multiSuggestRequest = new MultiSuggestRequest(indices);
+            for (Object suggestRequest : (List<Object>) parserMap.get("requests")) {
+                if (!(suggestRequest instanceof Map)) {
+                    channel.sendResponse(new BytesRestResponse(BAD_REQUEST, "Every suggest request has to be an object"));
+                    return;
+                }
+                multiSuggestRequest.add(RestSuggestAction.parseSuggestRequest(indices, (Map<String, Object>) suggestRequest));
+            }
+
+            client.execute(MultiSuggestAction.INSTANCE, multiSuggestRequest, new RestToXContentListener<MultiSuggestResponse>(channel));
+        } catch (IOException e) {
+            try {
+                channel.sendResponse(new BytesRestResponse(channel, RestStatus.BAD_REQUEST, e));
+            } catch (IOException e1) {
+                logger.error("Failed to send failure response", e1);
+            }
+        }
+    }
+}
@@ -42,6 +42,10 @@ public class RestRefreshSuggestAction extends BaseRestHandler {
                 if (parserMap.containsKey("field")) {
                     suggestRefreshRequest.field(XContentMapValues.nodeStringValue(parserMap.get("field"), ""));
                 }
+                suggestRefreshRequest.force(XContentMapValues.nodeBooleanValue(parserMap.get("force"), false));
+            }
+            if (request.hasParam("force")) {
+                suggestRefreshRequest.force(request.paramAsBoolean("force", false));
             }
 
             client.execute(SuggestRefreshAction.INSTANCE, suggestRefreshRequest, new RestToXContentListener<SuggestRefreshResponse>(channel));
@@ -0,0 +1,53 @@
+package de.spinscale.elasticsearch.rest.action.suggest;
+
+import de.spinscale.elasticsearch.action.suggest.refresh.SuggestRefreshTasksAction;
+import de.spinscale.elasticsearch.action.suggest.refresh.SuggestRefreshTasksRequest;
+import de.spinscale.elasticsearch.action.suggest.refresh.SuggestRefreshTasksResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.support.RestToXContentListener;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+public class RestRefreshTasksAction extends BaseRestHandler {
+
+    @Inject
+    public RestRefreshTasksAction(Settings settings, Client client, RestController controller) {
+        super(settings, client);
+        controller.registerHandler(GET, "/__suggestRefreshTasks", this);
+        controller.registerHandler(GET, "/{index}/__suggestRefreshTasks", this);
+        controller.registerHandler(POST, "/__suggestRefreshTasks/_cancel", new CancelHandler(settings, client));
+        controller.registerHandler(POST, "/{index}/__suggestRefreshTasks/_cancel", new CancelHandler(settings, client));
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel, Client client) {
+        execute(request, channel, client, false);
+    }
+
+    private static void execute(RestRequest request, RestChannel channel, Client client, boolean cancel) {
+        SuggestRefreshTasksRequest refreshTasksRequest = new SuggestRefreshTasksRequest(Strings.splitStringByCommaToArray(request.param("index")));
+        refreshTasksRequest.nodeId(request.param("node"));
+        refreshTasksRequest.cancel(cancel);
+        client.execute(SuggestRefreshTasksAction.INSTANCE, refreshTasksRequest, new RestToXContentListener<SuggestRefreshTasksResponse>(channel));
+    }
+
+    private static class CancelHandler extends BaseRestHandler {
+
+        CancelHandler(Settings settings, Client client) {
+            super(settings, client);
+        }
+
+        @Override
+        public void handleRequest(final RestRequest request, final RestChannel channel, Client client) {
+            execute(request, channel, client, true);
+        }
+    }
+}
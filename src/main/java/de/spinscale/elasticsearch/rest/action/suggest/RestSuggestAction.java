@@ -7,6 +7,7 @@ import org.elasticsearch.client.Client;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
@@ -48,20 +49,10 @@ public class RestSuggestAction extends BaseRestHandler {
                 channel.sendResponse(new BytesRestResponse(BAD_REQUEST, "Please provide body data or source parameter"));
             }
 
-            SuggestRequest suggestRequest = new SuggestRequest(indices);
-            suggestRequest.field(XContentMapValues.nodeStringValue(parserMap.get("field"), ""));
-            suggestRequest.suggestType(XContentMapValues.nodeStringValue(parserMap.get("type"), ""));
-            if (parserMap.containsKey("analyzer")) {
-                suggestRequest.indexAnalyzer(XContentMapValues.nodeStringValue(parserMap.get("analyzer"), ""));
-                suggestRequest.queryAnalyzer(XContentMapValues.nodeStringValue(parserMap.get("analyzer"), ""));
-            } else {
-                suggestRequest.indexAnalyzer(XContentMapValues.nodeStringValue(parserMap.get("indexAnalyzer"), ""));
-                suggestRequest.queryAnalyzer(XContentMapValues.nodeStringValue(parserMap.get("queryAnalyzer"), ""));
+            SuggestRequest suggestRequest = parseSuggestRequest(indices, parserMap);
+            if (request.hasParam("timeout")) {
+                suggestRequest.timeout(request.paramAsTime("timeout", null));
             }
-            suggestRequest.term(XContentMapValues.nodeStringValue(parserMap.get("term"), ""));
-            suggestRequest.similarity(XContentMapValues.nodeFloatValue(parserMap.get("similarity"), 1.0f));
-            suggestRequest.size(XContentMapValues.nodeIntegerValue(parserMap.get("size"), 10));
-
             client.execute(SuggestAction.INSTANCE, suggestRequest, new RestToXContentListener<SuggestResponse>(channel));
         } catch (IOException e) {
             try {
@@ -71,4 +62,29 @@ public class RestSuggestAction extends BaseRestHandler {
             }
         }
     }
+
+    /**
+     * Creates a suggest request from its JSON representation, also used for the requests of a multi suggest request
+     */
+    static SuggestRequest parseSuggestRequest(String[] indices, Map<String, Object> parserMap) {
+        SuggestRequest suggestRequest = new SuggestRequest(indices);
+        suggestRequest.field(XContentMapValues.nodeStringValue(parserMap.get("field"), ""));
+        suggestRequest.suggestType(XContentMapValues.nodeStringValue(parserMap.get("type"), ""));
+        if (parserMap.containsKey("analyzer")) {
+            suggestRequest.indexAnalyzer(XContentMapValues.nodeStringValue(parserMap.get("analyzer"), ""));
+            suggestRequest.queryAnalyzer(XContentMapValues.nodeStringValue(parserMap.get("analyzer"), ""));
+        } else {
+            suggestRequest.indexAnalyzer(XContentMapValues.nodeStringValue(parserMap.get("indexAnalyzer"), ""));
+            suggestRequest.queryAnalyzer(XContentMapValues.nodeStringValue(parserMap.get("queryAnalyzer"), ""));
+        }
+        suggestRequest.term(XContentMapValues.nodeStringValue(parserMap.get("term"), ""));
+        suggestRequest.similarity(XContentMapValues.nodeFloatValue(parserMap.get("similarity"), 1.0f));
+        suggestRequest.similarityEngine(XContentMapValues.nodeStringValue(parserMap.get("similarityEngine"), "spellchecker"));
+        suggestRequest.size(XContentMapValues.nodeIntegerValue(parserMap.get("size"), 10));
+        suggestRequest.session(XContentMapValues.nodeStringValue(parserMap.get("session"), null));
+        if (parserMap.containsKey("timeout")) {
+            suggestRequest.timeout(TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(parserMap.get("timeout"), null), null));
+        }
+        return suggestRequest;
+    }
 }
@@ -2,7 +2,8 @@ package de.spinscale.elasticsearch.service.suggest;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.search.spell.HighFrequencyDictionary;
+import org.apache.lucene.search.spell.Dictionary;
+import org.apache.lucene.search.suggest.Lookup;
 import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
 import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
 import org.elasticsearch.ElasticsearchException;
@@ -14,14 +15,14 @@ import org.elasticsearch.index.analysis.NamedAnalyzer;
 import org.elasticsearch.index.mapper.FieldMapper;
 import org.elasticsearch.index.mapper.MapperService;
 
-public abstract class AbstractCacheLoaderSuggester<T> extends CacheLoader<ShardSuggestService.FieldType, T> {
+public abstract class AbstractCacheLoaderSuggester<T extends Lookup> extends CacheLoader<ShardSuggestService.FieldType, T> {
 
     private MapperService mapperService;
     private AnalysisService analysisService;
-    protected LoadingCache<String, HighFrequencyDictionary> dictCache;
+    protected LoadingCache<String, Dictionary> dictCache;
 
     public AbstractCacheLoaderSuggester(MapperService mapperService, AnalysisService analysisService,
-                                        LoadingCache<String, HighFrequencyDictionary> dictCache) {
+                                        LoadingCache<String, Dictionary> dictCache) {
         this.mapperService = mapperService;
         this.analysisService = analysisService;
         this.dictCache = dictCache;
@@ -29,6 +30,15 @@ public abstract class AbstractCacheLoaderSuggester<T> extends CacheLoader<ShardS
 
     @Override
     public T load(ShardSuggestService.FieldType fieldType) throws Exception {
+        T suggester = create(fieldType);
+        suggester.build(dictCache.getUnchecked(fieldType.field()));
+        return suggester;
+    }
+
+    /**
+     * Creates an empty suggester with the analyzers of the field type, which still needs to be built or loaded
+     */
+    public T create(ShardSuggestService.FieldType fieldType) {
         MapperService.SmartNameFieldMappers fieldMappers = mapperService.smartName(fieldType.field(), fieldType.types());
 
         Analyzer queryAnalyzer = null;
@@ -66,39 +76,35 @@ public abstract class AbstractCacheLoaderSuggester<T> extends CacheLoader<ShardS
     }
 
     public abstract T getSuggester(Analyzer indexAnalyzer, Analyzer queryAnalyzer,
-                                   ShardSuggestService.FieldType fieldType) throws Exception;
+                                   ShardSuggestService.FieldType fieldType);
 
 
     public static class CacheLoaderAnalyzingSuggester extends AbstractCacheLoaderSuggester<AnalyzingSuggester> {
 
-        public CacheLoaderAnalyzingSuggester(MapperService mapperService, AnalysisService analysisService, LoadingCache<String, HighFrequencyDictionary> dictCache) {
+        public CacheLoaderAnalyzingSuggester(MapperService mapperService, AnalysisService analysisService, LoadingCache<String, Dictionary> dictCache) {
             super(mapperService, analysisService, dictCache);
         }
 
         @Override
         public AnalyzingSuggester getSuggester(Analyzer indexAnalyzer, Analyzer queryAnalyzer,
-                                               ShardSuggestService.FieldType fieldType) throws Exception {
-            AnalyzingSuggester analyzingSuggester = new AnalyzingSuggester(indexAnalyzer, queryAnalyzer,
+                                               ShardSuggestService.FieldType fieldType) {
+            return new AnalyzingSuggester(indexAnalyzer, queryAnalyzer,
                     AnalyzingSuggester.EXACT_FIRST, 256, -1, fieldType.preservePositionIncrements());
-            analyzingSuggester.build(dictCache.getUnchecked(fieldType.field()));
-            return analyzingSuggester;
         }
     }
 
     public static class CacheLoaderFuzzySuggester extends AbstractCacheLoaderSuggester<FuzzySuggester> {
 
-        public CacheLoaderFuzzySuggester(MapperService mapperService, AnalysisService analysisService, LoadingCache<String, HighFrequencyDictionary> dictCache) {
+        public CacheLoaderFuzzySuggester(MapperService mapperService, AnalysisService analysisService, LoadingCache<String, Dictionary> dictCache) {
             super(mapperService, analysisService, dictCache);
         }
 
         @Override
         public FuzzySuggester getSuggester(Analyzer indexAnalyzer, Analyzer queryAnalyzer,
-                                               ShardSuggestService.FieldType fieldType) throws Exception {
-            FuzzySuggester fuzzySuggester = new FuzzySuggester(indexAnalyzer, queryAnalyzer, FuzzySuggester.EXACT_FIRST | FuzzySuggester.PRESERVE_SEP, 256, -1,
+                                               ShardSuggestService.FieldType fieldType) {
+            return new FuzzySuggester(indexAnalyzer, queryAnalyzer, FuzzySuggester.EXACT_FIRST | FuzzySuggester.PRESERVE_SEP, 256, -1,
                     fieldType.preservePositionIncrements(), FuzzySuggester.DEFAULT_MAX_EDITS, FuzzySuggester.DEFAULT_TRANSPOSITIONS,
                     FuzzySuggester.DEFAULT_NON_FUZZY_PREFIX, FuzzySuggester.DEFAULT_MIN_FUZZY_LENGTH, FuzzySuggester.DEFAULT_UNICODE_AWARE);
-            fuzzySuggester.build(dictCache.getUnchecked(fieldType.field()));
-            return fuzzySuggester;
         }
     }
 
@@ -0,0 +1,103 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.apache.lucene.search.spell.Dictionary;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefArray;
+import org.apache.lucene.util.Counter;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Set;
+
+/**
+ * A dictionary, which reads the terms and weights of another dictionary exactly once and can then be
+ * iterated as often as needed. This allows to build all suggesters of a field with one pass over the terms dictionary
+ */
+public class BufferedDictionary implements Dictionary {
+
+    private final Counter bytesUsed = Counter.newCounter();
+    private final BytesRefArray terms = new BytesRefArray(bytesUsed);
+    private long[] weights = new long[16];
+    private Comparator<BytesRef> comparator;
+
+    private BufferedDictionary() {}
+
+    public static BufferedDictionary buffer(Dictionary dictionary) throws IOException {
+        BufferedDictionary bufferedDictionary = new BufferedDictionary();
+        InputIterator iterator = dictionary.getEntryIterator();
+        bufferedDictionary.comparator = iterator.getComparator();
+
+        BytesRef term;
+        while ((term = iterator.next()) != null) {
+            bufferedDictionary.add(term, iterator.weight());
+        }
+
+        return bufferedDictionary;
+    }
+
+    private void add(BytesRef term, long weight) {
+        int ord = terms.append(term);
+        weights = ArrayUtil.grow(weights, ord + 1);
+        weights[ord] = weight;
+    }
+
+    public int size() {
+        return terms.size();
+    }
+
+    public long ramBytesUsed() {
+        return bytesUsed.get() + RamUsageEstimator.sizeOf(weights);
+    }
+
+    @Override
+    public InputIterator getEntryIterator() throws IOException {
+        return new BufferedInputIterator();
+    }
+
+    private class BufferedInputIterator implements InputIterator {
+
+        private final BytesRef spare = new BytesRef();
+        private int ord = -1;
+
+        @Override
+        public BytesRef next() throws IOException {
+            if (++ord >= terms.size()) {
+                return null;
+            }
+            return terms.get(spare, ord);
+        }
+
+        @Override
+        public long weight() {
+            return weights[ord];
+        }
+
+        @Override
+        public BytesRef payload() {
+            return null;
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return false;
+        }
+
+        @Override
+        public Set<BytesRef> contexts() {
+            return null;
+        }
+
+        @Override
+        public boolean hasContexts() {
+            return false;
+        }
+
+        @Override
+        public Comparator<BytesRef> getComparator() {
+            return comparator;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.Set;
+
+/**
+ * Prefixes of a field, for which a prefix lookup has returned nothing. Every term starting with such a prefix
+ * returns nothing as well, so its lookup can be skipped.
+ *
+ * Only valid for the reader the lookups have been built from. Only the shortest dead prefix is kept, extensions of it
+ * are never added, and the number of prefixes is bounded, further prefixes are not recorded once it is full.
+ */
+public class DeadPrefixes {
+
+    private final Set<String> prefixes = ConcurrentCollections.newConcurrentSet();
+    private final int maxSize;
+
+    public DeadPrefixes(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns true, if the term or one of its prefixes is known to return nothing
+     */
+    public boolean matches(String term) {
+        if (prefixes.isEmpty()) {
+            return false;
+        }
+        for (int length = 0; length <= term.length(); length++) {
+            if (prefixes.contains(term.substring(0, length))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void add(String prefix) {
+        if (prefixes.size() < maxSize && !matches(prefix)) {
+            prefixes.add(prefix);
+        }
+    }
+
+    public int size() {
+        return prefixes.size();
+    }
+}
@@ -0,0 +1,99 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CollectionUtil;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.collect.Lists;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Returns the best results of a lookup, whose values are weight buckets like the ones of the FST completion lookup,
+ * by the document frequency of their terms.
+ *
+ * A bucket holds terms of different document frequencies in alphabetical order, so the terms in the bucket of the
+ * last requested result are not the best ones of that bucket. The lookup is therefore widened until all terms of that
+ * bucket have been read, up to {@link #MAX_WIDENING} times the requested number of results, and the results are then
+ * weighted by the document frequency of their terms. Like the FST, an exact match of the key comes first.
+ */
+public class DocFreqLookup {
+
+    /**
+     * Bounds the number of terms read for a prefix, whose highest buckets hold many terms. Beyond it, the terms of
+     * the last bucket are taken in alphabetical order
+     */
+    static final int MAX_WIDENING = 32;
+
+    /**
+     * The order of the results: the exact match, then by document frequency, equal frequencies alphabetically
+     */
+    static Comparator<LookupResult> comparator(final CharSequence key) {
+        final String exactMatch = key.toString();
+        return new Comparator<LookupResult>() {
+            @Override
+            public int compare(LookupResult a, LookupResult b) {
+                boolean aExact = exactMatch.equals(a.key.toString());
+                boolean bExact = exactMatch.equals(b.key.toString());
+                if (aExact != bExact) {
+                    return aExact ? -1 : 1;
+                }
+                if (a.value != b.value) {
+                    return a.value > b.value ? -1 : 1;
+                }
+                return a.key.toString().compareTo(b.key.toString());
+            }
+        };
+    }
+
+    /**
+     * A lookup returning the terms starting with its key, ordered by bucket and alphabetically within a bucket
+     */
+    public interface BucketLookup {
+        List<LookupResult> lookup(int num) throws IOException;
+    }
+
+    /**
+     * Returns the num best results of the lookup, weighted by the document frequencies of the terms
+     */
+    public static List<LookupResult> lookup(BucketLookup lookup, @Nullable Terms terms, CharSequence key, int num) throws IOException {
+        List<LookupResult> results = lookup.lookup(num);
+        int requested = num;
+        while (results.size() >= requested && !lastBucketComplete(results, key, num) && requested < num * MAX_WIDENING) {
+            requested = Math.min(requested * 2, num * MAX_WIDENING);
+            results = lookup.lookup(requested);
+        }
+        return weighted(results, terms, key, num);
+    }
+
+    /**
+     * Whether all terms of the bucket of the num-th result have been read, because a lower bucket has been reached
+     */
+    private static boolean lastBucketComplete(List<LookupResult> results, CharSequence key, int num) {
+        // the exact match comes first independent of its bucket
+        String exactMatch = key.toString();
+        int first = !results.isEmpty() && exactMatch.equals(results.get(0).key.toString()) ? 1 : 0;
+        if (num <= first) {
+            return true;
+        }
+        return results.get(results.size() - 1).value < results.get(num - 1).value;
+    }
+
+    /**
+     * Replaces the buckets of the results by the document frequencies of their terms and returns the num best ones
+     */
+    private static List<LookupResult> weighted(List<LookupResult> results, @Nullable Terms terms, CharSequence key, int num) throws IOException {
+        List<LookupResult> weightedResults = Lists.newArrayListWithCapacity(results.size());
+        TermsEnum termsEnum = terms == null ? null : terms.iterator(null);
+        for (LookupResult result : results) {
+            long docFreq = termsEnum != null && termsEnum.seekExact(new BytesRef(result.key)) ? termsEnum.docFreq() : 0;
+            weightedResults.add(new LookupResult(result.key, docFreq));
+        }
+        CollectionUtil.timSort(weightedResults, comparator(key));
+        return weightedResults.size() > num ? weightedResults.subList(0, num) : weightedResults;
+    }
+}
@@ -0,0 +1,466 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.StringHelper;
+import org.elasticsearch.ElasticsearchIllegalStateException;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.collect.Lists;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A prefix lookup, which keeps its terms and weights in a local file and reads them through a memory mapped buffer,
+ * so that the operating system page cache holds the data instead of the java heap.
+ *
+ * The terms are written in sorted order, followed by the file pointers of all terms. The weights are divided into
+ * buckets the same way as {@link org.apache.lucene.search.suggest.fst.FSTCompletionLookup} does it, and the ordinals
+ * of the terms of every bucket are written in sorted order, so that a lookup returns the same suggestions as an
+ * FST lookup. A lookup searches the range of terms with the requested prefix, and then reads the terms of this range
+ * bucket by bucket, starting with the highest one, until enough terms have been found. The work of a lookup therefore
+ * does not grow with the number of terms sharing the prefix. The file is deleted, once the lookup is not referenced
+ * anymore, a stored lookup keeps a copy of it.
+ */
+public class OffHeapLookup extends Lookup {
+
+    static final String CODEC = "suggest_offheap_lookup";
+    static final int VERSION_START = 0;
+    static final int VERSION_BUCKETS = 1;
+    static final int VERSION_CURRENT = VERSION_BUCKETS;
+
+    /**
+     * The number of weight buckets, the default of the FST completion lookup
+     */
+    static final int BUCKETS = 10;
+
+    private static final String SUFFIX = ".offheap";
+    private static final AtomicLong fileCounter = new AtomicLong();
+
+    private final File location;
+    private final String name;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    private Directory directory;
+    private IndexInput input;
+    private long pointersStart;
+    private long bucketsStart;
+    private int[] bucketOffsets = new int[BUCKETS + 1];
+    private int count;
+
+    public OffHeapLookup(File location, String field) {
+        this.location = location;
+        this.name = Integer.toHexString(field.hashCode()) + "_" + fileCounter.incrementAndGet() + SUFFIX;
+    }
+
+    /**
+     * Deletes all files left over from a previous run
+     */
+    public static void clean(File location) {
+        File[] files = location.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void build(InputIterator iterator) throws IOException {
+        if (iterator.hasPayloads()) {
+            throw new IllegalArgumentException("this suggester doesn't support payloads");
+        }
+        if (iterator.hasContexts()) {
+            throw new IllegalArgumentException("this suggester doesn't support contexts");
+        }
+        directory = createDirectory();
+        long[] pointers = new long[16];
+        long[] weights = new long[16];
+        int terms = 0;
+
+        IndexOutput output = directory.createOutput(name, IOContext.DEFAULT);
+        boolean success = false;
+        try {
+            CodecUtil.writeHeader(output, CODEC, VERSION_CURRENT);
+            BytesRef previous = null;
+            BytesRef term;
+            while ((term = iterator.next()) != null) {
+                if (previous != null && previous.compareTo(term) >= 0) {
+                    throw new ElasticsearchIllegalStateException("Terms have to be unique and sorted to build an off heap lookup");
+                }
+                pointers = ArrayUtil.grow(pointers, terms + 1);
+                weights = ArrayUtil.grow(weights, terms + 1);
+                pointers[terms] = output.getFilePointer();
+                weights[terms] = iterator.weight();
+                terms++;
+                output.writeVInt(term.length);
+                output.writeBytes(term.bytes, term.offset, term.length);
+                output.writeVLong(iterator.weight());
+                previous = BytesRef.deepCopyOf(term);
+            }
+
+            long start = output.getFilePointer();
+            for (int i = 0; i < terms; i++) {
+                output.writeLong(pointers[i]);
+            }
+
+            int[] buckets = buckets(weights, terms);
+            long bucketsStart = output.getFilePointer();
+            int[] bucketSizes = new int[BUCKETS];
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                for (int ord = 0; ord < terms; ord++) {
+                    if (buckets[ord] == bucket) {
+                        output.writeInt(ord);
+                        bucketSizes[bucket]++;
+                    }
+                }
+            }
+            for (int bucketSize : bucketSizes) {
+                output.writeInt(bucketSize);
+            }
+
+            output.writeLong(start);
+            output.writeLong(bucketsStart);
+            output.writeInt(terms);
+            CodecUtil.writeFooter(output);
+            success = true;
+        } finally {
+            if (success) {
+                output.close();
+            } else {
+                IOUtils.closeWhileHandlingException(output);
+                close();
+            }
+        }
+        open();
+    }
+
+    private Directory createDirectory() throws IOException {
+        if (!location.exists() && !location.mkdirs()) {
+            throw new IOException("Could not create directory [" + location + "]");
+        }
+        return new MMapDirectory(location);
+    }
+
+    /**
+     * Maps the written file and reads the positions of its sections from the end of it
+     */
+    private void open() throws IOException {
+        boolean success = false;
+        try {
+            input = directory.openInput(name, IOContext.READ);
+            CodecUtil.checkHeader(input, CODEC, VERSION_CURRENT, VERSION_CURRENT);
+            input.seek(input.length() - CodecUtil.footerLength() - 20 - BUCKETS * 4);
+            int[] offsets = new int[BUCKETS + 1];
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                offsets[bucket + 1] = offsets[bucket] + input.readInt();
+            }
+            bucketOffsets = offsets;
+            pointersStart = input.readLong();
+            bucketsStart = input.readLong();
+            count = input.readInt();
+            success = true;
+        } finally {
+            if (!success) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Divides the weights into buckets of equal size like the FST completion lookup: the terms are ordered by weight
+     * and each term gets the bucket of its position, terms with the same weight get the bucket of the first of them
+     */
+    static int[] buckets(long[] weights, int count) {
+        long[] sortedWeights = Arrays.copyOf(weights, count);
+        Arrays.sort(sortedWeights);
+
+        int[] buckets = new int[count];
+        for (int ord = 0; ord < count; ord++) {
+            long line = lowerBound(sortedWeights, weights[ord]);
+            buckets[ord] = (int) (line * BUCKETS / count);
+        }
+        return buckets;
+    }
+
+    private static int lowerBound(long[] sorted, long value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public List<LookupResult> lookup(CharSequence key, Set<BytesRef> contexts, boolean onlyMorePopular, int num) {
+        if (contexts != null) {
+            throw new IllegalArgumentException("this suggester doesn't support contexts");
+        }
+        return lookup(key, position(key, null), num);
+    }
+
+    /**
+     * Returns the ordinals of the terms starting with the key. If the position of a prefix of the key is given,
+     * only the terms within it are searched
+     */
+    public Position position(CharSequence key, @Nullable Position within) {
+        BytesRef prefix = new BytesRef(key);
+        int from = within == null ? 0 : within.from;
+        int to = within == null ? count : within.to;
+
+        try {
+            IndexInput in = input.clone();
+            BytesRef term = new BytesRef();
+
+            // binary search for the first term, which is equal or greater than the prefix
+            int low = from;
+            int high = to - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                readTerm(in, mid, term);
+                if (term.compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            from = low;
+
+            // binary search for the first term after it, which does not start with the prefix
+            high = to - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                readTerm(in, mid, term);
+                if (StringHelper.startsWith(term, prefix)) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return new Position(from, low);
+        } catch (IOException e) {
+            throw new ElasticsearchIllegalStateException("Could not read off heap lookup [" + name + "]", e);
+        }
+    }
+
+    /**
+     * Returns the terms of the highest buckets within the position of the key, in sort order within a bucket. The value
+     * of a result is its bucket. If enough terms have been found, an exact match is moved or added to the front. Like
+     * {@link org.apache.lucene.search.suggest.fst.FSTCompletion#lookup(CharSequence, int)}, an empty key returns no terms
+     */
+    public List<LookupResult> lookup(CharSequence key, Position position, int num) {
+        List<LookupResult> results = Lists.newArrayList();
+        if (num <= 0 || key.length() == 0 || position.size() == 0) {
+            return results;
+        }
+
+        try {
+            IndexInput in = input.clone();
+            BytesRef term = new BytesRef();
+            BytesRef prefix = new BytesRef(key);
+
+            for (int bucket = BUCKETS - 1; bucket >= 0; bucket--) {
+                // the ordinals of a bucket are sorted, only those within the position are read
+                int start = bucketOffsets[bucket];
+                int end = bucketOffsets[bucket + 1];
+                for (int i = firstOrdinalIndex(in, start, end, position.from); i < end; i++) {
+                    in.seek(bucketsStart + i * 4L);
+                    int ord = in.readInt();
+                    if (ord >= position.to) {
+                        break;
+                    }
+                    readTerm(in, ord, term);
+                    results.add(new LookupResult(term.utf8ToString(), bucket));
+                    if (results.size() >= num) {
+                        moveExactMatchToFront(in, results, prefix, position, bucket, num);
+                        return results;
+                    }
+                }
+            }
+            return results;
+        } catch (IOException e) {
+            throw new ElasticsearchIllegalStateException("Could not read off heap lookup [" + name + "]", e);
+        }
+    }
+
+    /**
+     * Returns the index of the first ordinal of a bucket, which is equal or greater than the given ordinal
+     */
+    private int firstOrdinalIndex(IndexInput in, int start, int end, int ord) throws IOException {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            in.seek(bucketsStart + mid * 4L);
+            if (in.readInt() < ord) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The exact match is the first term of the position, if it has the length of the key. If it is in a lower bucket
+     * than the last collected term, it has not been collected and replaces the last result
+     */
+    private void moveExactMatchToFront(IndexInput in, List<LookupResult> results, BytesRef prefix, Position position,
+                                       int lastBucket, int num) throws IOException {
+        String key = prefix.utf8ToString();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).key.toString().equals(key)) {
+                results.add(0, results.remove(i));
+                return;
+            }
+        }
+
+        BytesRef term = new BytesRef();
+        readTerm(in, position.from, term);
+        if (!term.bytesEquals(prefix)) {
+            return;
+        }
+        for (int bucket = lastBucket - 1; bucket >= 0; bucket--) {
+            int start = bucketOffsets[bucket];
+            int end = bucketOffsets[bucket + 1];
+            int i = firstOrdinalIndex(in, start, end, position.from);
+            if (i < end) {
+                in.seek(bucketsStart + i * 4L);
+                if (in.readInt() == position.from) {
+                    while (results.size() >= num) {
+                        results.remove(results.size() - 1);
+                    }
+                    results.add(0, new LookupResult(key, bucket));
+                    return;
+                }
+            }
+        }
+    }
+
+    private void readTerm(IndexInput in, int ord, BytesRef term) throws IOException {
+        in.seek(pointersStart + ord * 8L);
+        in.seek(in.readLong());
+        int length = in.readVInt();
+        term.bytes = ArrayUtil.grow(term.bytes, length);
+        term.offset = 0;
+        term.length = length;
+        in.readBytes(term.bytes, 0, length);
+    }
+
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Copies the file of this lookup, as the file itself is deleted once the lookup is not referenced anymore
+     */
+    @Override
+    public boolean store(DataOutput output) throws IOException {
+        IndexInput in = input.clone();
+        in.seek(0);
+        output.writeVLong(in.length());
+        output.copyBytes(in, in.length());
+        return true;
+    }
+
+    /**
+     * Writes a stored copy into a new file of this lookup and maps it
+     */
+    @Override
+    public boolean load(DataInput input) throws IOException {
+        directory = createDirectory();
+        long length = input.readVLong();
+        IndexOutput output = directory.createOutput(name, IOContext.DEFAULT);
+        boolean success = false;
+        try {
+            output.copyBytes(input, length);
+            success = true;
+        } finally {
+            if (success) {
+                output.close();
+            } else {
+                IOUtils.closeWhileHandlingException(output);
+                close();
+            }
+        }
+        open();
+        return true;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return RamUsageEstimator.shallowSizeOf(this) + RamUsageEstimator.sizeOf(bucketOffsets);
+    }
+
+    /**
+     * The size of the memory mapped file
+     */
+    public long offHeapBytesUsed() {
+        IndexInput current = input;
+        return current == null ? 0 : current.length();
+    }
+
+    public boolean tryIncRef() {
+        int count;
+        while ((count = refCount.get()) > 0) {
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void decRef() {
+        if (refCount.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    private void close() {
+        IOUtils.closeWhileHandlingException(input, directory);
+        new File(location, name).delete();
+    }
+
+    /**
+     * The ordinals of the terms starting with a prefix, from inclusive, to exclusive
+     */
+    public static class Position {
+        private final int from;
+        private final int to;
+
+        Position(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public int size() {
+            return to - from;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import de.spinscale.elasticsearch.action.suggest.statistics.SuggestCacheStats;
+import de.spinscale.elasticsearch.action.suggest.suggest.SuggestRequest;
+import de.spinscale.elasticsearch.action.suggest.suggest.SuggestResponse;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.base.Objects;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.collect.ImmutableList;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the coordinating node, which answers suggest requests for extensions of a short prefix without asking
+ * the shards again.
+ *
+ * Requests for short prefixes fetch a deeper list of suggestions from every shard. If no shard had more suggestions
+ * than fetched, the merged list contains every suggestion of the prefix and is cached. A request for a term
+ * extending a cached prefix is answered by filtering that list, which keeps the order of a merge of the shards,
+ * as long as an exact match of the term is moved to the front.
+ *
+ * Only prefix suggestions without similarity are cached, and only for indices having
+ * {@code index.suggest.prefix_cache.enabled} set. Entries are dropped, when suggesters of one of their indices are
+ * rebuilt or refreshed on this node or refreshed through it, and expire after a short time otherwise, as suggesters
+ * may be rebuilt on other nodes.
+ */
+public class PrefixExtensionCache extends AbstractComponent {
+
+    private final Cache<Key, Entry> cache;
+    private final int depth;
+    private final int maxPrefixLength;
+    private final CounterMetric hits = new CounterMetric();
+    private final CounterMetric misses = new CounterMetric();
+
+    @Inject
+    public PrefixExtensionCache(Settings settings) {
+        super(settings);
+        int size = settings.getAsInt("suggest.prefix_cache.size", 1000);
+        TimeValue expire = settings.getAsTime("suggest.prefix_cache.expire", TimeValue.timeValueSeconds(10));
+        this.depth = settings.getAsInt("suggest.prefix_cache.depth", 50);
+        this.maxPrefixLength = settings.getAsInt("suggest.prefix_cache.max_prefix_length", 3);
+
+        if (size > 0 && depth > 0 && maxPrefixLength > 0) {
+            cache = CacheBuilder.newBuilder().maximumSize(size).expireAfterWrite(expire.millis(), TimeUnit.MILLISECONDS).build();
+        } else {
+            cache = null;
+        }
+        logger.debug("Using prefix extension cache with size [{}], depth [{}], max prefix length [{}], expire [{}]",
+                size, depth, maxPrefixLength, expire);
+    }
+
+    /**
+     * Returns true, if the suggestions of the request are prefix suggestions of indices using this cache
+     */
+    public boolean cacheable(SuggestRequest request, ClusterState clusterState, String... concreteIndices) {
+        if (cache == null || request.term() == null || request.similarity() < 1.0f
+                || "full".equals(request.suggestType()) || "fuzzy".equals(request.suggestType())) {
+            return false;
+        }
+        for (String index : concreteIndices) {
+            IndexMetaData indexMetaData = clusterState.metaData().index(index);
+            if (indexMetaData == null || !indexMetaData.settings().getAsBoolean("index.suggest.prefix_cache.enabled", false)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The number of suggestions to fetch from every shard for a cacheable request
+     */
+    public int fetchSize(SuggestRequest request) {
+        return request.term().length() <= maxPrefixLength ? Math.max(request.size(), depth) : request.size();
+    }
+
+    /**
+     * Returns the suggestions of the request filtered from the cached suggestions of the longest cached prefix of the term
+     */
+    @Nullable
+    public SuggestResponse get(SuggestRequest request, String[] concreteIndices) {
+        String term = request.term();
+        for (int length = Math.min(term.length(), maxPrefixLength); length > 0; length--) {
+            Entry entry = cache.getIfPresent(new Key(request, concreteIndices, term.substring(0, length)));
+            if (entry == null) {
+                continue;
+            }
+            hits.inc();
+
+            // like in a merge of the shards, an exact match of the term comes first
+            List<String> suggestions = Lists.newArrayList();
+            boolean exactMatch = false;
+            for (String suggestion : entry.suggestions) {
+                if (suggestion.equals(term)) {
+                    exactMatch = true;
+                } else if (suggestion.startsWith(term) && suggestions.size() < request.size()) {
+                    suggestions.add(suggestion);
+                }
+            }
+            if (exactMatch && request.size() > 0) {
+                suggestions.add(0, term);
+                if (suggestions.size() > request.size()) {
+                    suggestions.remove(suggestions.size() - 1);
+                }
+            }
+            return new SuggestResponse(suggestions, entry.totalShards, entry.totalShards, 0, null);
+        }
+        misses.inc();
+        return null;
+    }
+
+    /**
+     * Caches all suggestions of the term, the list must not have been cut by any shard
+     */
+    public void put(SuggestRequest request, String[] concreteIndices, List<String> suggestions, int totalShards) {
+        if (request.term().length() > 0 && request.term().length() <= maxPrefixLength) {
+            cache.put(new Key(request, concreteIndices, request.term()), new Entry(suggestions, totalShards));
+        }
+    }
+
+    /**
+     * Hits and misses of the cacheable requests coordinated by this node
+     */
+    public SuggestCacheStats stats() {
+        return new SuggestCacheStats(hits.count(), misses.count());
+    }
+
+    /**
+     * Removes all entries containing suggestions of the index
+     */
+    public void invalidate(String index) {
+        if (cache == null) {
+            return;
+        }
+        for (Iterator<Key> iterator = cache.asMap().keySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().indices.contains(index)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final List<String> suggestions;
+        private final int totalShards;
+
+        Entry(List<String> suggestions, int totalShards) {
+            this.suggestions = ImmutableList.copyOf(suggestions);
+            this.totalShards = totalShards;
+        }
+    }
+
+    private static class Key {
+
+        private final List<String> indices;
+        private final String field;
+        private final String prefix;
+
+        Key(SuggestRequest request, String[] concreteIndices, String prefix) {
+            String[] sortedIndices = concreteIndices.clone();
+            Arrays.sort(sortedIndices);
+            this.indices = Arrays.asList(sortedIndices);
+            this.field = request.field();
+            this.prefix = prefix;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return indices.equals(other.indices)
+                    && Objects.equal(field, other.field)
+                    && prefix.equals(other.prefix);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(indices, field, prefix);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.apache.lucene.search.spell.Dictionary;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.PriorityQueue;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The top results of the terms of a field for every prefix up to a maximum length, so that the short prefixes, which
+ * are the most expensive lookups on large FSTs, are answered without traversing the FST.
+ *
+ * The table is filled from the dictionary of the field, which is read once, so that its scan is throttled and
+ * cancelled like the builds of the other suggesters of the field. Like the FST lookup, an exact match of the prefix
+ * comes first, the other terms are ordered by their weight, the document frequency, equal weights alphabetically.
+ * Prefixes without any result are not stored.
+ */
+public class PrefixTable {
+
+    private final ImmutableMap<String, List<LookupResult>> results;
+    private final int maxLength;
+    private final int num;
+    private final long sizeInBytes;
+
+    private PrefixTable(ImmutableMap<String, List<LookupResult>> results, int maxLength, int num, long sizeInBytes) {
+        this.results = results;
+        this.maxLength = maxLength;
+        this.num = num;
+        this.sizeInBytes = sizeInBytes;
+    }
+
+    /**
+     * Collects the num best terms for every prefix of the terms of the dictionary, which is not longer than maxLength
+     */
+    public static PrefixTable build(Dictionary dictionary, int maxLength, int num) throws IOException {
+        Builder builder = new Builder(num);
+        // terms are sorted, so every prefix shows up in one run of terms
+        PrefixResults[] currentPrefixes = new PrefixResults[maxLength + 1];
+        InputIterator iterator = dictionary.getEntryIterator();
+        BytesRef term;
+        while ((term = iterator.next()) != null) {
+            String text = term.utf8ToString();
+            long weight = iterator.weight();
+            for (int length = 1; length <= Math.min(maxLength, text.length()); length++) {
+                if (Character.isHighSurrogate(text.charAt(length - 1))) {
+                    continue;
+                }
+                PrefixResults prefixResults = currentPrefixes[length];
+                if (prefixResults == null || !text.startsWith(prefixResults.prefix)) {
+                    if (prefixResults != null) {
+                        builder.add(prefixResults);
+                    }
+                    prefixResults = currentPrefixes[length] = new PrefixResults(text.substring(0, length), num);
+                }
+                prefixResults.add(text, weight);
+            }
+        }
+        for (PrefixResults prefixResults : currentPrefixes) {
+            if (prefixResults != null) {
+                builder.add(prefixResults);
+            }
+        }
+
+        return new PrefixTable(builder.results.build(), maxLength, num, builder.sizeInBytes);
+    }
+
+    private static long sizeOf(String value) {
+        return RamUsageEstimator.shallowSizeOf(value) + RamUsageEstimator.alignObjectSize(
+                RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + RamUsageEstimator.NUM_BYTES_CHAR * value.length());
+    }
+
+    /**
+     * Returns the results of the lookup for the key or null, if the key is longer than the prefixes of the table
+     * or more results are requested than the table holds
+     */
+    @Nullable
+    public List<LookupResult> lookup(CharSequence key, int num) {
+        if (key.length() == 0 || key.length() > maxLength || num > this.num) {
+            return null;
+        }
+        List<LookupResult> prefixResults = results.get(key.toString());
+        if (prefixResults == null) {
+            return Collections.emptyList();
+        }
+        return prefixResults.size() > num ? prefixResults.subList(0, num) : prefixResults;
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    public long ramBytesUsed() {
+        return sizeInBytes;
+    }
+
+    private static class Builder {
+
+        private final ImmutableMap.Builder<String, List<LookupResult>> results = ImmutableMap.builder();
+        private final int num;
+        private long sizeInBytes;
+
+        Builder(int num) {
+            this.num = num;
+        }
+
+        void add(PrefixResults prefixResults) {
+            LookupResult[] copy = prefixResults.results(num);
+            if (copy.length == 0) {
+                return;
+            }
+            results.put(prefixResults.prefix, Collections.unmodifiableList(Arrays.asList(copy)));
+            sizeInBytes += sizeOf(prefixResults.prefix) + RamUsageEstimator.shallowSizeOf(copy);
+            for (LookupResult result : copy) {
+                sizeInBytes += RamUsageEstimator.shallowSizeOf(result) + sizeOf(result.key.toString());
+            }
+        }
+    }
+
+    /**
+     * The exact match and the best other terms of a prefix, while the terms starting with the prefix are read
+     */
+    private static class PrefixResults {
+
+        private final String prefix;
+        private final PriorityQueue<LookupResult> queue;
+        private LookupResult exactMatch;
+
+        PrefixResults(String prefix, int num) {
+            this.prefix = prefix;
+            this.queue = new PriorityQueue<LookupResult>(num) {
+                @Override
+                protected boolean lessThan(LookupResult a, LookupResult b) {
+                    if (a.value != b.value) {
+                        return a.value < b.value;
+                    }
+                    return a.key.toString().compareTo(b.key.toString()) > 0;
+                }
+            };
+        }
+
+        void add(String term, long weight) {
+            LookupResult result = new LookupResult(term, weight);
+            if (term.length() == prefix.length()) {
+                exactMatch = result;
+            } else {
+                queue.insertWithOverflow(result);
+            }
+        }
+
+        LookupResult[] results(int num) {
+            int size = Math.min(num, queue.size() + (exactMatch == null ? 0 : 1));
+            LookupResult[] results = new LookupResult[size];
+            int start = 0;
+            if (exactMatch != null && size > 0) {
+                results[0] = exactMatch;
+                start = 1;
+            }
+            // the queue pops the worst term first
+            while (queue.size() > size - start) {
+                queue.pop();
+            }
+            for (int i = size - 1; i >= start; i--) {
+                results[i] = queue.pop();
+            }
+            return results;
+        }
+    }
+}
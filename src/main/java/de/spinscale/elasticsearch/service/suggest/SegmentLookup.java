@@ -0,0 +1,119 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.spell.HighFrequencyDictionary;
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.search.suggest.fst.FSTCompletionLookup;
+import org.apache.lucene.store.RateLimiter;
+import org.apache.lucene.util.CollectionUtil;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.collect.Maps;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * FST completion lookups of one field, one per segment of an index reader, keyed by the segment core.
+ *
+ * When the reader changes, only the lookups of new segments (flushed or merged ones) have to be built, the ones of
+ * all other segments are reused. The top results of every segment are merged at lookup time by the document
+ * frequencies of their terms, as the weight buckets of different segments cannot be compared.
+ */
+public class SegmentLookup {
+
+    private final String field;
+    private final ImmutableMap<Object, FSTCompletionLookup> lookups;
+    private final int segmentsBuilt;
+
+    private SegmentLookup(String field, ImmutableMap<Object, FSTCompletionLookup> lookups, int segmentsBuilt) {
+        this.field = field;
+        this.lookups = lookups;
+        this.segmentsBuilt = segmentsBuilt;
+    }
+
+    /**
+     * Creates the lookups for all segments of the reader, taking over the lookups of unchanged segments
+     * from the previous instance, if there is one
+     */
+    public static SegmentLookup build(IndexReader reader, final String field, SegmentLookup previous,
+                                      final SuggestBuildService buildService, @Nullable final RateLimiter rateLimiter) throws Exception {
+        ImmutableMap.Builder<Object, FSTCompletionLookup> builder = ImmutableMap.builder();
+        int segmentsBuilt = 0;
+
+        for (final AtomicReaderContext context : reader.leaves()) {
+            Object coreCacheKey = context.reader().getCoreCacheKey();
+            FSTCompletionLookup lookup = previous == null ? null : previous.lookups.get(coreCacheKey);
+            if (lookup == null) {
+                lookup = buildService.build(new Callable<FSTCompletionLookup>() {
+                    @Override
+                    public FSTCompletionLookup call() throws Exception {
+                        FSTCompletionLookup segmentLookup = new FSTCompletionLookup();
+                        segmentLookup.build(buildService.throttle(new HighFrequencyDictionary(context.reader(), field, 0.00001f), rateLimiter));
+                        return segmentLookup;
+                    }
+                });
+                segmentsBuilt++;
+            }
+            builder.put(coreCacheKey, lookup);
+        }
+
+        return new SegmentLookup(field, builder.build(), segmentsBuilt);
+    }
+
+    /**
+     * Returns the num best results of the segments of the reader. Every segment returns its best terms by their
+     * document frequency in the segment, the frequencies of terms existing in several segments are summed up
+     */
+    public List<LookupResult> lookup(IndexReader reader, final CharSequence key, int num) throws IOException {
+        Map<String, Long> weights = Maps.newHashMap();
+        for (AtomicReaderContext context : reader.leaves()) {
+            final FSTCompletionLookup lookup = lookups.get(context.reader().getCoreCacheKey());
+            if (lookup == null) {
+                continue;
+            }
+            DocFreqLookup.BucketLookup bucketLookup = new DocFreqLookup.BucketLookup() {
+                @Override
+                public List<LookupResult> lookup(int num) throws IOException {
+                    return lookup.lookup(key, true, num);
+                }
+            };
+            for (LookupResult result : DocFreqLookup.lookup(bucketLookup, context.reader().terms(field), key, num)) {
+                String term = result.key.toString();
+                Long weight = weights.get(term);
+                weights.put(term, weight == null ? result.value : weight + result.value);
+            }
+        }
+
+        List<LookupResult> results = Lists.newArrayListWithCapacity(weights.size());
+        for (Map.Entry<String, Long> entry : weights.entrySet()) {
+            results.add(new LookupResult(entry.getKey(), entry.getValue()));
+        }
+        CollectionUtil.timSort(results, DocFreqLookup.comparator(key));
+
+        return results.size() > num ? results.subList(0, num) : results;
+    }
+
+    public int segments() {
+        return lookups.size();
+    }
+
+    /**
+     * The number of segment lookups, which had to be built when creating this instance
+     */
+    public int segmentsBuilt() {
+        return segmentsBuilt;
+    }
+
+    public long ramBytesUsed() {
+        long sizeInBytes = 0;
+        for (FSTCompletionLookup lookup : lookups.values()) {
+            sizeInBytes += SuggesterSnapshot.ramBytesUsed(lookup);
+        }
+        return sizeInBytes;
+    }
+}
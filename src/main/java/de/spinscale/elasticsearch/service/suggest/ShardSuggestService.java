@@ -2,39 +2,54 @@ package de.spinscale.elasticsearch.service.suggest;
 
 import de.spinscale.elasticsearch.action.suggest.refresh.ShardSuggestRefreshRequest;
 import de.spinscale.elasticsearch.action.suggest.refresh.ShardSuggestRefreshResponse;
+import de.spinscale.elasticsearch.action.suggest.refresh.ShardSuggestRefreshTasksRequest;
+import de.spinscale.elasticsearch.action.suggest.refresh.ShardSuggestRefreshTasksResponse;
+import de.spinscale.elasticsearch.action.suggest.statistics.DeadPrefixStats;
 import de.spinscale.elasticsearch.action.suggest.statistics.FstStats;
 import de.spinscale.elasticsearch.action.suggest.statistics.ShardSuggestStatisticsResponse;
+import de.spinscale.elasticsearch.action.suggest.statistics.SuggestCacheStats;
+import de.spinscale.elasticsearch.action.suggest.statistics.SuggestBuildStats;
+import de.spinscale.elasticsearch.action.suggest.statistics.SuggestRequestStats;
 import de.spinscale.elasticsearch.action.suggest.suggest.ShardSuggestRequest;
 import de.spinscale.elasticsearch.action.suggest.suggest.ShardSuggestResponse;
-import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.search.spell.HighFrequencyDictionary;
-import org.apache.lucene.search.spell.SpellChecker;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.spell.DirectSpellChecker;
+import org.apache.lucene.search.spell.SuggestMode;
+import org.apache.lucene.search.spell.SuggestWord;
+import org.apache.lucene.search.suggest.Lookup;
 import org.apache.lucene.search.suggest.Lookup.LookupResult;
 import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
 import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
-import org.apache.lucene.search.suggest.fst.FSTCompletionLookup;
-import org.apache.lucene.store.RAMDirectory;
-import org.apache.lucene.util.Version;
+import org.apache.lucene.store.RateLimiter;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CollectionUtil;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalStateException;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.Strings;
-import org.elasticsearch.common.base.Function;
 import org.elasticsearch.common.base.Joiner;
 import org.elasticsearch.common.base.Objects;
-import org.elasticsearch.common.cache.CacheBuilder;
-import org.elasticsearch.common.cache.CacheLoader;
-import org.elasticsearch.common.cache.LoadingCache;
-import org.elasticsearch.common.collect.Collections2;
 import org.elasticsearch.common.collect.Lists;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.internal.ToStringBuilder;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.metrics.CounterMetric;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.util.concurrent.SettableFuture;
+import org.elasticsearch.common.util.concurrent.Uninterruptibles;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.CloseableIndexComponent;
 import org.elasticsearch.index.analysis.AnalysisService;
 import org.elasticsearch.index.engine.Engine;
 import org.elasticsearch.index.mapper.MapperService;
@@ -43,194 +58,632 @@ import org.elasticsearch.index.shard.AbstractIndexShardComponent;
 import org.elasticsearch.index.shard.IndexShardState;
 import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.index.shard.service.IndexShard;
+import org.elasticsearch.threadpool.ThreadPool;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class ShardSuggestService extends AbstractIndexShardComponent {
+public class ShardSuggestService extends AbstractIndexShardComponent implements CloseableIndexComponent {
 
     private final IndexShard indexShard;
+    private final AnalysisService analysisService;
+    private final MapperService mapperService;
+    private final SuggestBuildService buildService;
+    private final SuggestMemoryService memoryService;
+    private final SuggestResultCache resultCache;
+    private final PrefixExtensionCache prefixExtensionCache;
+    private final SupersededRequests supersededRequests;
+    private final SuggestAdmissionService admissionService;
+    private final CounterMetric cacheHits = new CounterMetric();
+    private final CounterMetric cacheMisses = new CounterMetric();
+    private final CounterMetric deadPrefixHits = new CounterMetric();
+    private final CounterMetric deadPrefixMisses = new CounterMetric();
+    private final CounterMetric cancelled = new CounterMetric();
+    private final CounterMetric coalesced = new CounterMetric();
+    private final CounterMetric rejected = new CounterMetric();
+    private final CounterMetric degraded = new CounterMetric();
+    private final CounterMetric partial = new CounterMetric();
+    private final CounterMetric built = new CounterMetric();
+    private final CounterMetric loaded = new CounterMetric();
+    private final ConcurrentMap<SuggestResultCache.Key, SettableFuture<ShardSuggestResponse>> inFlightLookups = ConcurrentCollections.newConcurrentMap();
+    private final TimeValue coalesceTimeout;
+    private final boolean segmentLookups;
+    private final boolean asyncBuilds;
+    // limits reading the terms of this shard in addition to the node wide limit, null if the index has no own limit
+    private final RateLimiter rateLimiter;
+    private final SuggesterStore store;
+    private final File offHeapLocation;
+    private final int prefixTableLength;
+    private final int prefixTableSize;
+    private final int deadPrefixesSize;
+    private final TypingSessions typingSessions;
+    private final SuggestAdmissionService.Priority priority;
+    private final ThreadPool threadPool;
+    private final SuggestService suggestService;
+    private final boolean refreshOnChange;
+    private final TimeValue refreshQuietPeriod;
+    private final TimeValue refreshMaxStaleness;
+    private final TimeValue refreshMinSpacing;
+    // state of the rebuild scheduled after the index reader has changed, guarded by the monitor of scheduledRefreshMutex
+    private final Object scheduledRefreshMutex = new Object();
+    private ScheduledFuture<?> scheduledRefresh;
+    private boolean refreshRunning;
+    private long firstChangeNanos;
+    private long lastChangeNanos;
+    private long lastRefreshNanos;
+    // stateless, reads the terms of the reader passed on every call
+    private final DirectSpellChecker directSpellChecker = new DirectSpellChecker();
 
     private final ReentrantLock lock = new ReentrantLock();
-    private IndexReader indexReader;
-    private final LoadingCache<String, FSTCompletionLookup> lookupCache;
-    private final LoadingCache<FieldType, AnalyzingSuggester> analyzingSuggesterCache;
-    private final LoadingCache<FieldType, FuzzySuggester> fuzzySuggesterCache;
-    private final LoadingCache<String, HighFrequencyDictionary> dictCache;
-    private final LoadingCache<String, SpellChecker> spellCheckerCache;
-    private final LoadingCache<String, RAMDirectory> ramDirectoryCache;
+    private volatile SuggesterSnapshot snapshot;
+    private volatile SuggestRefreshTask runningRefresh;
+    private volatile boolean closed;
 
     @Inject
     public ShardSuggestService(ShardId shardId, @IndexSettings Settings indexSettings, IndexShard indexShard,
-                               final AnalysisService analysisService, final MapperService mapperService) {
+                               final AnalysisService analysisService, final MapperService mapperService,
+                               SuggestBuildService buildService, SuggestMemoryService memoryService,
+                               SuggestResultCache resultCache, PrefixExtensionCache prefixExtensionCache,
+                               SupersededRequests supersededRequests, SuggestAdmissionService admissionService,
+                               SuggestService suggestService, NodeEnvironment nodeEnvironment, ThreadPool threadPool) {
         super(shardId, indexSettings);
         this.indexShard = indexShard;
+        this.analysisService = analysisService;
+        this.mapperService = mapperService;
+        this.buildService = buildService;
+        this.memoryService = memoryService;
+        this.resultCache = resultCache;
+        this.prefixExtensionCache = prefixExtensionCache;
+        this.supersededRequests = supersededRequests;
+        this.admissionService = admissionService;
+        this.threadPool = threadPool;
+        this.suggestService = suggestService;
+        memoryService.indexLimit(shardId.index().name(), indexSettings.getAsBytesSize("index.suggest.memory.limit", null));
+        this.segmentLookups = getAsBoolean(indexSettings, "suggest.fst.per_segment", false);
+        this.asyncBuilds = getAsBoolean(indexSettings, "suggest.build.async", false);
+        // the node setting of the same name is the node wide limit, applied by the build service
+        ByteSizeValue maxBytesPerSec = indexSettings.getAsBytesSize("index.suggest.build.max_bytes_per_sec", null);
+        this.rateLimiter = maxBytesPerSec != null && maxBytesPerSec.bytes() > 0 ? new RateLimiter.SimpleRateLimiter(maxBytesPerSec.mbFrac()) : null;
+
+        if (getAsBoolean(indexSettings, "suggest.store", true) && nodeEnvironment.hasNodeFile()) {
+            File location = new File(nodeEnvironment.shardLocations(shardId)[0], "suggest");
+            this.store = new SuggesterStore(logger, location);
+        } else {
+            this.store = null;
+        }
 
-        ramDirectoryCache = CacheBuilder.newBuilder().build(
-                new CacheLoader<String, RAMDirectory>() {
-                    @Override
-                    public RAMDirectory load(String field) throws Exception {
-                        return new RAMDirectory();
-                    }
-                }
-        );
-
-        dictCache = CacheBuilder.newBuilder().build(
-                new CacheLoader<String, HighFrequencyDictionary>() {
-                    @Override
-                    public HighFrequencyDictionary load(String field) throws Exception {
-                        return new HighFrequencyDictionary(createOrGetIndexReader(), field, 0.00001f);
-                    }
-                }
-        );
+        if (getAsBoolean(indexSettings, "suggest.fst.off_heap", false) && nodeEnvironment.hasNodeFile()) {
+            this.offHeapLocation = new File(nodeEnvironment.shardLocations(shardId)[0], "suggest_off_heap");
+            OffHeapLookup.clean(offHeapLocation);
+        } else {
+            this.offHeapLocation = null;
+        }
 
-        spellCheckerCache = CacheBuilder.newBuilder().build(
-                new CacheLoader<String, SpellChecker>() {
-                    @Override
-                    public SpellChecker load(String field) throws Exception {
-                        SpellChecker spellChecker = new SpellChecker(ramDirectoryCache.get(field));
-                        IndexWriterConfig indexWriterConfig = new IndexWriterConfig(Version.LUCENE_44, new WhitespaceAnalyzer(Version.LUCENE_44));
-                        spellChecker.indexDictionary(dictCache.getUnchecked(field), indexWriterConfig, false);
-                        return spellChecker;
-                    }
-                }
-        );
+        this.coalesceTimeout = getAsTime(indexSettings, "suggest.coalesce.timeout", TimeValue.timeValueMillis(100));
+        this.prefixTableLength = getAsInt(indexSettings, "suggest.fst.prefix_table.length", 2);
+        this.prefixTableSize = getAsInt(indexSettings, "suggest.fst.prefix_table.size", 10);
+        this.deadPrefixesSize = getAsInt(indexSettings, "suggest.fst.dead_prefixes.size", 1000);
+
+        int sessions = getAsInt(indexSettings, "suggest.session.size", 1000);
+        TimeValue sessionExpire = indexSettings.getAsTime("index.suggest.session.expire",
+                indexSettings.getAsTime("suggest.session.expire", TimeValue.timeValueSeconds(30)));
+        this.typingSessions = sessions > 0 ? new TypingSessions(sessions, sessionExpire) : null;
+        this.priority = SuggestAdmissionService.Priority.fromString(indexSettings.get("index.suggest.priority",
+                indexSettings.get("suggest.priority", "normal")));
+
+        this.refreshOnChange = getAsBoolean(indexSettings, "suggest.refresh.on_change", false);
+        this.refreshQuietPeriod = getAsTime(indexSettings, "suggest.refresh.quiet_period", TimeValue.timeValueSeconds(1));
+        this.refreshMaxStaleness = getAsTime(indexSettings, "suggest.refresh.max_staleness", TimeValue.timeValueSeconds(30));
+        this.refreshMinSpacing = getAsTime(indexSettings, "suggest.refresh.min_spacing", TimeValue.timeValueSeconds(5));
+        if (refreshOnChange) {
+            logger.debug("Refreshing suggesters on change with quiet period [{}], max staleness [{}], min spacing [{}]",
+                    refreshQuietPeriod, refreshMaxStaleness, refreshMinSpacing);
+        }
+    }
 
-        lookupCache = CacheBuilder.newBuilder().build(
-                new CacheLoader<String, FSTCompletionLookup>() {
-                    @Override
-                    public FSTCompletionLookup load(String field) throws Exception {
-                        FSTCompletionLookup lookup = new FSTCompletionLookup();
-                        lookup.build(dictCache.getUnchecked(field));
-                        return lookup;
-                    }
-                }
-        );
+    /**
+     * Settings given when creating an index are prefixed with "index.", the node settings are used as fallback
+     */
+    private static boolean getAsBoolean(Settings indexSettings, String setting, boolean defaultValue) {
+        return indexSettings.getAsBoolean("index." + setting, indexSettings.getAsBoolean(setting, defaultValue));
+    }
 
-        analyzingSuggesterCache = CacheBuilder.newBuilder().build(
-                new AbstractCacheLoaderSuggester.CacheLoaderAnalyzingSuggester(mapperService, analysisService, dictCache));
+    private static int getAsInt(Settings indexSettings, String setting, int defaultValue) {
+        return indexSettings.getAsInt("index." + setting, indexSettings.getAsInt(setting, defaultValue));
+    }
 
-        fuzzySuggesterCache = CacheBuilder.newBuilder().build(
-                new AbstractCacheLoaderSuggester.CacheLoaderFuzzySuggester(mapperService, analysisService, dictCache));
+    private static TimeValue getAsTime(Settings indexSettings, String setting, TimeValue defaultValue) {
+        return indexSettings.getAsTime("index." + setting, indexSettings.getAsTime(setting, defaultValue));
     }
 
     public ShardSuggestRefreshResponse refresh(ShardSuggestRefreshRequest shardSuggestRefreshRequest) {
         String field = shardSuggestRefreshRequest.field();
-        if (!Strings.hasLength(field)) {
-            update();
-        } else {
-            resetIndexReader();
+        boolean rebuilt = rebuild(Strings.hasLength(field) ? field : null, shardSuggestRefreshRequest.force());
+        if (!rebuilt) {
+            // this node may have cached suggestions of other copies, which have been rebuilt
+            prefixExtensionCache.invalidate(shardId.index().name());
+        }
+        return new ShardSuggestRefreshResponse(shardId.index().name(), shardId.id(), rebuilt);
+    }
 
-            HighFrequencyDictionary dict = dictCache.getIfPresent(field);
-            if (dict != null) dictCache.refresh(field);
+    public void shutDown() {
+        synchronized (scheduledRefreshMutex) {
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+                scheduledRefresh = null;
+            }
+        }
+        // a running refresh holds the lock until it has finished
+        cancelBuilds("shard closed");
+        lock.lock();
+        try {
+            closed = true;
+            SuggesterSnapshot current = snapshot;
+            snapshot = null;
+            if (current != null) {
+                // builds started in the background hold their own reference
+                current.cancel("shard closed");
+                current.decRef();
+            }
+        } finally {
+            lock.unlock();
+        }
+        resultCache.invalidate(shardId);
+    }
 
-            RAMDirectory ramDirectory = ramDirectoryCache.getIfPresent(field);
-            if (ramDirectory != null) {
-                ramDirectory.close();
-                ramDirectoryCache.invalidate(field);
+    /**
+     * Stops the running refresh and all builds of the current suggesters of this shard, which is about to be closed.
+     * Builds stop at the next term they read and release their memory and temporary files, further builds are refused
+     */
+    public void cancelBuilds(String reason) {
+        closed = true;
+        SuggestRefreshTask task = runningRefresh;
+        if (task != null) {
+            task.cancel(reason);
+        }
+        SuggesterSnapshot current = snapshot;
+        if (current != null) {
+            current.cancel(reason);
+        }
+    }
+
+    /**
+     * Called when the shard is removed from this node, no matter if the index is closed, deleted or the shard is relocated
+     */
+    @Override
+    public void close() {
+        shutDown();
+    }
+
+    /**
+     * Rebuilds all suggesters, if the index reader has changed since they have been built. Returns true, if the
+     * suggesters have been rebuilt
+     */
+    public boolean update() {
+        return rebuild(null, false);
+    }
+
+    /**
+     * Called when a new index reader of the shard has been opened by a refresh or after a merge. If refreshing on
+     * change is enabled, a rebuild is scheduled once no further change has happened for the quiet period, but not
+     * later than the max staleness after the first change, and not earlier than the min spacing after the last
+     * rebuild. The rebuild then starts in the window of this copy within the min spacing, queued behind the other
+     * refreshes of this node. Shards, which have not been queried yet, have nothing to rebuild
+     */
+    public void readerChanged() {
+        if (!refreshOnChange || closed || snapshot == null) {
+            return;
+        }
+        synchronized (scheduledRefreshMutex) {
+            long now = System.nanoTime();
+            if (firstChangeNanos == 0) {
+                firstChangeNanos = now;
+            }
+            lastChangeNanos = now;
+            if (scheduledRefresh == null && !refreshRunning) {
+                scheduleRefresh(now);
             }
+        }
+    }
 
-            SpellChecker spellChecker = spellCheckerCache.getIfPresent(field);
-            if (spellChecker != null) {
-                spellCheckerCache.refresh(field);
-                try {
-                    spellChecker.close();
-                } catch (IOException e) {
-                    logger.error("Could not close spellchecker in indexshard [{}] for field [{}]", e, indexShard, field);
+    // has to be called holding the monitor of scheduledRefreshMutex
+    private void scheduleRefresh(long now) {
+        long due = Math.min(lastChangeNanos + refreshQuietPeriod.nanos(), firstChangeNanos + refreshMaxStaleness.nanos());
+        if (lastRefreshNanos != 0) {
+            due = Math.max(due, lastRefreshNanos + refreshMinSpacing.nanos());
+        }
+        TimeValue delay = TimeValue.timeValueNanos(Math.max(0, due - now));
+        try {
+            // only hands the rebuild over to the suggest service, which runs it on a thread of its own
+            scheduledRefresh = threadPool.schedule(delay, ThreadPool.Names.SAME, new Runnable() {
+                @Override
+                public void run() {
+                    refreshIfDue();
                 }
-            }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Could not schedule suggest refresh, node is shutting down");
+            scheduledRefresh = null;
+        }
+    }
 
-            FSTCompletionLookup lookup = lookupCache.getIfPresent(field);
-            if (lookup != null) lookupCache.refresh(field);
+    private void refreshIfDue() {
+        synchronized (scheduledRefreshMutex) {
+            scheduledRefresh = null;
+            if (closed || firstChangeNanos == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            // further changes have extended the quiet period meanwhile
+            if (now - lastChangeNanos < refreshQuietPeriod.nanos() && now - firstChangeNanos < refreshMaxStaleness.nanos()) {
+                scheduleRefresh(now);
+                return;
+            }
+            // changes during the rebuild do not schedule another one before it is done
+            refreshRunning = true;
+            firstChangeNanos = 0;
+        }
 
-            for (FieldType fieldType : analyzingSuggesterCache.asMap().keySet()) {
-                if (fieldType.field().equals(shardSuggestRefreshRequest.field())) {
-                    analyzingSuggesterCache.refresh(fieldType);
-                }
+        boolean scheduled = suggestService.scheduleChangedShardRefresh(shardId, refreshMinSpacing, new Runnable() {
+            @Override
+            public void run() {
+                refreshChanged();
             }
+        });
+        if (!scheduled) {
+            refreshDone();
+        }
+    }
 
-            for (FieldType fieldType : fuzzySuggesterCache.asMap().keySet()) {
-                if (fieldType.field().equals(shardSuggestRefreshRequest.field())) {
-                    fuzzySuggesterCache.refresh(fieldType);
-                }
+    private void refreshChanged() {
+        try {
+            if (!closed) {
+                rebuild(null, false);
             }
+        } catch (Exception e) {
+            logger.warn("Could not refresh suggesters after the index reader has changed", e);
+        } finally {
+            refreshDone();
         }
+    }
 
-        return new ShardSuggestRefreshResponse(shardId.index().name(), shardId.id());
+    private void refreshDone() {
+        synchronized (scheduledRefreshMutex) {
+            refreshRunning = false;
+            lastRefreshNanos = System.nanoTime();
+            if (!closed && firstChangeNanos != 0) {
+                scheduleRefresh(lastRefreshNanos);
+            }
+        }
     }
 
-    public void shutDown() {
-        resetIndexReader();
-        dictCache.invalidateAll();
-        for (Map.Entry<String, SpellChecker> entry : spellCheckerCache.asMap().entrySet()) {
+    /**
+     * Builds a new snapshot from the current index reader on the suggest build pool and swaps it in, so that
+     * queries never see a half refreshed state. The old snapshot is released, after all running lookups are done.
+     * Unless forced, nothing is rebuilt, if the reader still has the same segments as the one of the current
+     * snapshot. Returns true, if the suggesters have been rebuilt
+     */
+    private boolean rebuild(String field, boolean force) {
+        lock.lock();
+        try {
+            SuggesterSnapshot previous = snapshot;
+            if (previous == null || closed || indexShard.state() != IndexShardState.STARTED) {
+                return false;
+            }
+
+            SuggesterSnapshot fresh = createSnapshot();
+            if (!force && fresh.sameReader(previous)) {
+                logger.trace("Not rebuilding suggesters, the index reader has not changed");
+                fresh.decRef();
+                return false;
+            }
+            SuggestRefreshTask task = new SuggestRefreshTask(shardId, field);
+            runningRefresh = task;
+            if (closed) {
+                // closed after the check above, but before the task could be seen
+                task.cancel("shard closed");
+            }
             try {
-                ramDirectoryCache.getUnchecked(entry.getKey()).close();
-                entry.getValue().close();
-            } catch (IOException e) {
-                logger.error("Could not close spellchecker in indexshard [{}] for field [{}]", e, indexShard, entry.getKey());
+                fresh.warmUp(previous, field, task);
+            } catch (RuntimeException e) {
+                fresh.decRef();
+                if (task.cancelled()) {
+                    logger.info("Suggest refresh has been cancelled: {}, keeping the previous suggesters", task.cancelReason());
+                    return false;
+                }
+                throw e;
+            } finally {
+                runningRefresh = null;
+            }
+
+            snapshot = fresh;
+            previous.decRef();
+            resultCache.invalidate(shardId);
+            prefixExtensionCache.invalidate(shardId.index().name());
+            if (typingSessions != null) {
+                typingSessions.clear();
+            }
+            if (field == null) {
+                fresh.cleanStored();
             }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the progress of the running refresh of this shard, if there is one and it matches the request, and
+     * cancels it, if requested. A cancelled refresh keeps the previous suggesters
+     */
+    public ShardSuggestRefreshTasksResponse refreshTasks(ShardSuggestRefreshTasksRequest request, String nodeId) {
+        SuggestRefreshTask task = runningRefresh;
+        if (task == null || (request.nodeId() != null && !request.nodeId().equals(nodeId))) {
+            return new ShardSuggestRefreshTasksResponse(shardId.index().name(), shardId.id(), null);
+        }
+        if (request.cancel()) {
+            task.cancel("cancelled by request");
         }
-        spellCheckerCache.invalidateAll();
-        ramDirectoryCache.invalidateAll();
-        lookupCache.invalidateAll();
-        analyzingSuggesterCache.invalidateAll();
-        fuzzySuggesterCache.invalidateAll();
+        return new ShardSuggestRefreshTasksResponse(shardId.index().name(), shardId.id(), task.status(nodeId));
     }
 
-    public void update() {
-        resetIndexReader();
+    /**
+     * Creates the first snapshot from the suggesters stored on disk, if they have been built from the current
+     * index reader. Does nothing if the shard has already been queried
+     */
+    public void loadStoredSuggesters() {
+        if (store == null || snapshot != null || closed || !store.hasStoredLookups()) {
+            return;
+        }
+
+        // make sure, that documents replayed from the translog are visible before comparing readers
+        indexShard.refresh(new Engine.Refresh("suggest").force(true));
 
-        for (String field : dictCache.asMap().keySet()) {
-            dictCache.refresh(field);
+        SuggesterSnapshot fresh = createSnapshot();
+        try {
+            int loadedLookups = fresh.loadStored();
+            if (loadedLookups == 0) {
+                fresh.decRef();
+                return;
+            }
+            loaded.inc(loadedLookups);
+        } catch (RuntimeException e) {
+            fresh.decRef();
+            throw e;
         }
 
+        lock.lock();
         try {
-            for (String field : spellCheckerCache.asMap().keySet()) {
-                SpellChecker oldSpellchecker = spellCheckerCache.getUnchecked(field);
-                RAMDirectory oldRamDirectory = ramDirectoryCache.getUnchecked(field);
-                ramDirectoryCache.refresh(field);
-                spellCheckerCache.refresh(field);
-                oldRamDirectory.close();
-                oldSpellchecker.close();
+            if (snapshot == null && !closed) {
+                snapshot = fresh;
+                return;
             }
-        } catch (IOException e ) {
-            logger.error("Error refreshing spell checker cache [{}]", e, shardId);
+        } finally {
+            lock.unlock();
         }
+        fresh.decRef();
+    }
 
-        for (String field : lookupCache.asMap().keySet()) {
-            lookupCache.refresh(field);
+    public ShardSuggestResponse suggest(ShardSuggestRequest shardSuggestRequest) {
+        if (supersededRequests.superseded(shardSuggestRequest)) {
+            return supersededResponse();
+        }
+        if (shardSuggestRequest.expired()) {
+            // a response instead of a failure, so that the operation is not retried on another copy
+            return ShardSuggestResponse.timedOut(shardId.index().name(), shardId.id());
         }
+        if (shardSuggestRequest.timeout() != null) {
+            return suggestWithinTimeout(shardSuggestRequest);
+        }
+        return suggestOrWait(shardSuggestRequest);
+    }
+
+    /**
+     * Looks up on a thread of the generic pool and waits for the remaining time of the timeout. If the lookup
+     * takes longer, for example because a suggester has to be built, a timed out response is returned. The lookup
+     * keeps running, so that its result is cached for the next request. The calling thread belongs to the bounded
+     * suggest pool already, so looking up on that pool could wait for threads, which are all waiting themselves
+     */
+    private ShardSuggestResponse suggestWithinTimeout(final ShardSuggestRequest shardSuggestRequest) {
+        final SettableFuture<ShardSuggestResponse> future = SettableFuture.create();
+        threadPool.generic().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.set(suggestOrWait(shardSuggestRequest));
+                } catch (Throwable e) {
+                    future.setException(e);
+                }
+            }
+        });
+
+        long remainingNanos = shardSuggestRequest.timeout().nanos() - shardSuggestRequest.elapsedNanos();
+        try {
+            return Uninterruptibles.getUninterruptibly(future, Math.max(remainingNanos, 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return ShardSuggestResponse.timedOut(shardId.index().name(), shardId.id());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ElasticsearchException("Error getting suggestions", e.getCause());
+        }
+    }
+
+    private ShardSuggestResponse suggestOrWait(ShardSuggestRequest shardSuggestRequest) {
+        boolean degraded = admit(shardSuggestRequest);
+        long start = System.nanoTime();
+        SuggesterSnapshot current = acquireSnapshot();
+        try {
+            ShardSuggestResponse response = resultCache.get(shardId, current.generation(), shardSuggestRequest);
+            if (response != null) {
+                cacheHits.inc();
+                return response;
+            }
+
+            cacheMisses.inc();
+            // identical requests arriving while the lookup is running wait for its result instead of looking up again
+            SuggestResultCache.Key key = new SuggestResultCache.Key(shardId, current.generation(), shardSuggestRequest);
+            SettableFuture<ShardSuggestResponse> future = SettableFuture.create();
+            SettableFuture<ShardSuggestResponse> inFlight = degraded ? inFlightLookups.get(key) : inFlightLookups.putIfAbsent(key, future);
+            if (inFlight != null) {
+                // waiting blocks a thread of the bounded suggest pool, so it gives up after a while and looks up by itself
+                try {
+                    response = Uninterruptibles.getUninterruptibly(inFlight, coalesceTimeout.millis(), TimeUnit.MILLISECONDS);
+                    if (!response.superseded()) {
+                        coalesced.inc();
+                        return response;
+                    }
+                } catch (ExecutionException e) {
+                    logger.trace("Identical suggest request has failed, looking up again", e);
+                } catch (TimeoutException e) {
+                    logger.trace("Identical suggest request has not finished within [{}], looking up again", coalesceTimeout);
+                }
+                // the other request has failed, is too slow or has been superseded, so this one has to look up by itself
+                return lookup(current, shardSuggestRequest, degraded);
+            }
+            if (degraded) {
+                // degraded results are neither shared nor cached
+                return lookup(current, shardSuggestRequest, true);
+            }
 
-        for (FieldType fieldType : analyzingSuggesterCache.asMap().keySet()) {
-            analyzingSuggesterCache.refresh(fieldType);
+            try {
+                response = lookup(current, shardSuggestRequest, false);
+                future.set(response);
+                return response;
+            } catch (RuntimeException e) {
+                future.setException(e);
+                throw e;
+            } catch (Error e) {
+                future.setException(e);
+                throw e;
+            } finally {
+                inFlightLookups.remove(key, future);
+            }
+        } finally {
+            current.decRef();
+            admissionService.took(System.nanoTime() - start);
         }
+    }
 
-        for (FieldType fieldType : fuzzySuggesterCache.asMap().keySet()) {
-            fuzzySuggesterCache.refresh(fieldType);
+    /**
+     * Returns true, if the operation is degraded, so that no similar terms are looked up. Throws an exception,
+     * if the suggest pool is too busy for the priority of the index
+     */
+    private boolean admit(ShardSuggestRequest shardSuggestRequest) {
+        SuggestAdmissionService.Admission admission;
+        try {
+            admission = admissionService.admit(shardId.index().name(), priority);
+        } catch (EsRejectedExecutionException e) {
+            rejected.inc();
+            throw e;
+        }
+        if (admission == SuggestAdmissionService.Admission.DEGRADE && shardSuggestRequest.similarity() < 1.0f) {
+            degraded.inc();
+            return true;
         }
+        return false;
     }
 
-    public ShardSuggestResponse suggest(ShardSuggestRequest shardSuggestRequest) {
-        List<String> suggestions;
+    /**
+     * With asynchronous builds, suggesters not built yet are built in the background and the operation returns
+     * partial suggestions right away: none, if the suggester of the request is missing, or no similar terms, if
+     * only the spellchecker is missing. Partial suggestions are not cached
+     */
+    private ShardSuggestResponse lookup(SuggesterSnapshot current, ShardSuggestRequest shardSuggestRequest, boolean degraded) {
         try {
-            suggestions = Lists.newArrayList(getSuggestions(shardSuggestRequest));
+            boolean similar = shardSuggestRequest.similarity() < 1.0f && !degraded
+                    && !"full".equals(shardSuggestRequest.suggestType()) && !"fuzzy".equals(shardSuggestRequest.suggestType());
+            boolean spellCheckerMissing = similar && asyncBuilds && !"direct".equals(shardSuggestRequest.similarityEngine())
+                    && current.spellCheckerIfBuilt(shardSuggestRequest.field()) == null;
+
+            List<LookupResult> lookupResults = getSuggestions(current, shardSuggestRequest);
+            List<LookupResult> similarResults = Collections.emptyList();
+            if (lookupResults != null && similar && !spellCheckerMissing && lookupResults.size() < shardSuggestRequest.size()) {
+                // similar suggestions are only returned, if there are not enough suggestions starting with the term.
+                // Looking them up is expensive, so check for a newer request first
+                if (supersededRequests.superseded(shardSuggestRequest)) {
+                    return supersededResponse();
+                }
+                similarResults = getSimilarSuggestions(current, shardSuggestRequest);
+            }
+            boolean partialResults = lookupResults == null || (spellCheckerMissing && lookupResults.size() < shardSuggestRequest.size());
+            if (lookupResults == null) {
+                lookupResults = Lists.newArrayList();
+            }
+            if (partialResults) {
+                partial.inc();
+            }
+
+            // the suggestions are weighted by their document frequency and selected in the order the coordinating
+            // node merges them in: the exact match, the suggestions starting with the term, the similar ones
+            Comparator<LookupResult> comparator = DocFreqLookup.comparator(shardSuggestRequest.term());
+            CollectionUtil.timSort(lookupResults, comparator);
+            CollectionUtil.timSort(similarResults, comparator);
+            int similarStart = Math.min(lookupResults.size(), shardSuggestRequest.size());
+            int size = Math.min(similarStart + similarResults.size(), shardSuggestRequest.size());
+            List<String> suggestions = Lists.newArrayListWithCapacity(size);
+            long[] weights = new long[size];
+            for (int i = 0; i < size; i++) {
+                LookupResult lookupResult = i < similarStart ? lookupResults.get(i) : similarResults.get(i - similarStart);
+                suggestions.add(lookupResult.key.toString());
+                weights[i] = lookupResult.value;
+            }
+
+            ShardSuggestResponse response = new ShardSuggestResponse(shardId.index().name(), shardId.id(), suggestions, weights, similarStart, partialResults);
+            if (!degraded && !partialResults) {
+                resultCache.put(shardId, current.generation(), shardSuggestRequest, response);
+            }
+            return response;
         } catch (IOException e) {
             throw new ElasticsearchException("Error getting suggestions", e);
         }
-        return new ShardSuggestResponse(shardId.index().name(), shardId.id(), suggestions);
     }
 
-    private Collection<String> getSimilarSuggestions(ShardSuggestRequest shardSuggestRequest) {
+    /**
+     * Returns the empty response of a shard operation, which has been skipped, as a newer request of the same session
+     * has arrived meanwhile. It is not a failure, so the coordinating node does not retry it on another copy
+     */
+    private ShardSuggestResponse supersededResponse() {
+        cancelled.inc();
+        return ShardSuggestResponse.superseded(shardId.index().name(), shardId.id());
+    }
+
+    /**
+     * Returns the terms similar to the term of the request, weighted by their document frequency
+     */
+    private List<LookupResult> getSimilarSuggestions(SuggesterSnapshot current, ShardSuggestRequest shardSuggestRequest) {
         String field = shardSuggestRequest.field();
         String term = shardSuggestRequest.term();
         Integer limit = shardSuggestRequest.size();
         Float similarity = shardSuggestRequest.similarity();
 
         try {
-            String[] suggestSimilar = spellCheckerCache.getUnchecked(field).suggestSimilar(term, limit, similarity);
-            return Arrays.asList(suggestSimilar);
+            List<LookupResult> suggestions = Lists.newArrayList();
+            if ("direct".equals(shardSuggestRequest.similarityEngine())) {
+                SuggestWord[] suggestWords = directSpellChecker.suggestSimilar(new Term(field, term), limit, current.reader(),
+                        SuggestMode.SUGGEST_WHEN_NOT_IN_INDEX, similarity);
+                for (SuggestWord suggestWord : suggestWords) {
+                    suggestions.add(new LookupResult(suggestWord.string, suggestWord.freq));
+                }
+            } else {
+                Terms terms = MultiFields.getTerms(current.reader(), field);
+                TermsEnum termsEnum = terms == null ? null : terms.iterator(null);
+                for (String suggestion : current.spellChecker(field).suggestSimilar(term, limit, similarity)) {
+                    long docFreq = termsEnum != null && termsEnum.seekExact(new BytesRef(suggestion)) ? termsEnum.docFreq() : 0;
+                    suggestions.add(new LookupResult(suggestion, docFreq));
+                }
+            }
+            return suggestions;
         } catch (IOException e) {
             logger.error("Error getting spellchecker suggestions for shard [{}] field [{}] term [{}] limit [{}] similarity [{}]", e, shardId, field, term, limit, similarity);
         }
@@ -238,104 +691,181 @@ public class ShardSuggestService extends AbstractIndexShardComponent {
         return Collections.emptyList();
     }
 
-    private Collection<String> getSuggestions(ShardSuggestRequest shardSuggestRequest) throws IOException {
+    /**
+     * Returns the suggestions of the suggester of the request, without similar terms. Returns null, if
+     * the suggester of the request is still being built
+     */
+    @Nullable
+    private List<LookupResult> getSuggestions(SuggesterSnapshot current, ShardSuggestRequest shardSuggestRequest) throws IOException {
         List<LookupResult> lookupResults = Lists.newArrayList();
         if ("full".equals(shardSuggestRequest.suggestType())) {
-            AnalyzingSuggester analyzingSuggester = analyzingSuggesterCache.getUnchecked(new FieldType(shardSuggestRequest));
+            FieldType fieldType = new FieldType(shardSuggestRequest);
+            AnalyzingSuggester analyzingSuggester = asyncBuilds ? current.analyzingSuggesterIfBuilt(fieldType) : current.analyzingSuggester(fieldType);
+            if (analyzingSuggester == null) {
+                return null;
+            }
             lookupResults.addAll(analyzingSuggester.lookup(shardSuggestRequest.term(), false, shardSuggestRequest.size()));
         } else if ("fuzzy".equals(shardSuggestRequest.suggestType())) {
-            lookupResults.addAll(fuzzySuggesterCache.getUnchecked(new FieldType(shardSuggestRequest))
-                    .lookup(shardSuggestRequest.term(), false, shardSuggestRequest.size()));
+            FieldType fieldType = new FieldType(shardSuggestRequest);
+            FuzzySuggester fuzzySuggester = asyncBuilds ? current.fuzzySuggesterIfBuilt(fieldType) : current.fuzzySuggester(fieldType);
+            if (fuzzySuggester == null) {
+                return null;
+            }
+            lookupResults.addAll(fuzzySuggester.lookup(shardSuggestRequest.term(), false, shardSuggestRequest.size()));
 
         } else {
-            lookupResults.addAll(lookupCache.getUnchecked(shardSuggestRequest.field())
-                    .lookup(shardSuggestRequest.term(), true, shardSuggestRequest.size() + 1));
-            Collection<String> suggestions = Collections2.transform(lookupResults, new LookupResultToStringFunction());
-
-            float similarity = shardSuggestRequest.similarity();
-            if (similarity < 1.0f && suggestions.size() < shardSuggestRequest.size()) {
-                suggestions = Lists.newArrayList(suggestions);
-                suggestions.addAll(getSimilarSuggestions(shardSuggestRequest));
+            DeadPrefixes deadPrefixes = current.deadPrefixes(new FieldType(shardSuggestRequest.field()));
+            if (deadPrefixes != null && deadPrefixes.matches(shardSuggestRequest.term())) {
+                deadPrefixHits.inc();
+            } else {
+                List<LookupResult> prefixResults = getPrefixSuggestions(current, shardSuggestRequest);
+                if (prefixResults == null) {
+                    return null;
+                }
+                lookupResults.addAll(prefixResults);
+                if (deadPrefixes != null) {
+                    deadPrefixMisses.inc();
+                    if (lookupResults.isEmpty()) {
+                        deadPrefixes.add(shardSuggestRequest.term());
+                    }
+                }
             }
-
-            return suggestions;
         }
 
-        return Collections2.transform(lookupResults, new LookupResultToStringFunction());
+        return lookupResults;
     }
 
-    private class LookupResultToStringFunction implements Function<LookupResult, String> {
-        @Override
-        public String apply(LookupResult result) {
-            return result.key.toString();
+    @Nullable
+    private List<LookupResult> getPrefixSuggestions(SuggesterSnapshot current, ShardSuggestRequest shardSuggestRequest) throws IOException {
+        String field = shardSuggestRequest.field();
+        final String term = shardSuggestRequest.term();
+        int num = shardSuggestRequest.size() + 1;
+        if (segmentLookups) {
+            SegmentLookup segmentLookup = asyncBuilds ? current.segmentLookupIfBuilt(field) : current.segmentLookup(field);
+            return segmentLookup == null ? null : segmentLookup.lookup(current.reader(), term, num);
         }
-    }
 
-    public void resetIndexReader() {
-        IndexReader currentIndexReader = null;
-        if (indexShard.state() == IndexShardState.STARTED) {
-            try (Engine.Searcher currentIndexSearcher = indexShard.acquireSearcher( "suggest" )) {
-                currentIndexReader = currentIndexSearcher.reader();
-            }
+        String session = shardSuggestRequest.session();
+        TypingSessions.State state = session == null || typingSessions == null ? null
+                : typingSessions.resume(session, field, current.generation(), term);
+        if (state != null && state.complete()) {
+            List<LookupResult> allResults = state.filter(term);
+            typingSessions.update(session, field, new TypingSessions.State(current.generation(), term, null, allResults));
+            return allResults.size() > num ? allResults.subList(0, num) : allResults;
         }
 
-        // if this index reader is not used in the current index searcher, we need to decrease the old refcount
-        if (indexReader != null && indexReader.getRefCount() > 0 && !indexReader.equals(currentIndexReader)) {
-            try {
-                indexReader.decRef();
-            } catch (IOException e) {
-                logger.error("Error decreasing indexreader ref count [{}] of shard [{}]", e, indexReader.getRefCount(), shardId);
+        OffHeapLookup.Position position = null;
+        List<LookupResult> results = null;
+        if (state == null || state.position() == null) {
+            PrefixTable prefixTable = asyncBuilds ? current.prefixTableIfBuilt(field) : current.prefixTable(field);
+            results = prefixTable == null ? null : prefixTable.lookup(term, num);
+        }
+        if (results == null) {
+            final Lookup lookup = asyncBuilds ? current.lookupIfBuilt(field) : current.lookup(field);
+            if (lookup == null) {
+                return null;
+            }
+            DocFreqLookup.BucketLookup bucketLookup;
+            if (lookup instanceof OffHeapLookup) {
+                // only the terms of the previous prefix of the session have to be searched
+                final OffHeapLookup offHeapLookup = (OffHeapLookup) lookup;
+                final OffHeapLookup.Position termPosition = offHeapLookup.position(term, state == null ? null : state.position());
+                position = termPosition;
+                bucketLookup = new DocFreqLookup.BucketLookup() {
+                    @Override
+                    public List<LookupResult> lookup(int num) {
+                        return offHeapLookup.lookup(term, termPosition, num);
+                    }
+                };
+            } else {
+                bucketLookup = new DocFreqLookup.BucketLookup() {
+                    @Override
+                    public List<LookupResult> lookup(int num) throws IOException {
+                        return lookup.lookup(term, null, true, num);
+                    }
+                };
             }
+            results = DocFreqLookup.lookup(bucketLookup, MultiFields.getTerms(current.reader(), field), term, num);
         }
 
-        indexReader = null;
+        if (session != null && typingSessions != null) {
+            // fewer results than requested are all results of the term
+            List<LookupResult> allResults = results.size() < num ? results : null;
+            typingSessions.update(session, field, new TypingSessions.State(current.generation(), term, position, allResults));
+        }
+        return results;
     }
 
     public ShardSuggestStatisticsResponse getStatistics() {
         ShardSuggestStatisticsResponse shardSuggestStatisticsResponse = new ShardSuggestStatisticsResponse(shardId());
-
-        for (FieldType fieldType : analyzingSuggesterCache.asMap().keySet()) {
-            long sizeInBytes = analyzingSuggesterCache.getIfPresent(fieldType).ramBytesUsed();
-            FstStats.FstIndexShardStats fstIndexShardStats = new FstStats.FstIndexShardStats(shardId, "analyzingsuggester", fieldType, sizeInBytes);
-            shardSuggestStatisticsResponse.getFstIndexShardStats().add(fstIndexShardStats);
+        shardSuggestStatisticsResponse.setCacheStats(new SuggestCacheStats(cacheHits.count(), cacheMisses.count()));
+        shardSuggestStatisticsResponse.setDeadPrefixStats(new DeadPrefixStats(deadPrefixHits.count(), deadPrefixMisses.count()));
+        shardSuggestStatisticsResponse.setRequestStats(new SuggestRequestStats(cancelled.count(), coalesced.count(), rejected.count(), degraded.count(), partial.count()));
+        shardSuggestStatisticsResponse.setBuildStats(new SuggestBuildStats(built.count(), loaded.count()));
+
+        SuggesterSnapshot current = snapshot;
+        if (current == null || !current.tryIncRef()) {
+            return shardSuggestStatisticsResponse;
         }
 
-        for (FieldType fieldType : fuzzySuggesterCache.asMap().keySet()) {
-            long sizeInBytes = fuzzySuggesterCache.getIfPresent(fieldType).ramBytesUsed();
-            FstStats.FstIndexShardStats fstIndexShardStats = new FstStats.FstIndexShardStats(shardId, "fuzzysuggester", fieldType, sizeInBytes);
-            shardSuggestStatisticsResponse.getFstIndexShardStats().add(fstIndexShardStats);
+        try {
+            for (Map.Entry<String, Lookup> entry : current.lookups().entrySet()) {
+                Lookup lookup = entry.getValue();
+                long offHeapSizeInBytes = lookup instanceof OffHeapLookup ? ((OffHeapLookup) lookup).offHeapBytesUsed() : 0;
+                PrefixTable prefixTable = current.prefixTables().get(entry.getKey());
+                long prefixTableSizeInBytes = prefixTable == null ? 0 : prefixTable.ramBytesUsed();
+                FstStats.FstIndexShardStats fstIndexShardStats = new FstStats.FstIndexShardStats(shardId, "fst", new FieldType(entry.getKey()),
+                        SuggesterSnapshot.ramBytesUsed(lookup), offHeapSizeInBytes, prefixTableSizeInBytes);
+                shardSuggestStatisticsResponse.getFstIndexShardStats().add(fstIndexShardStats);
+            }
+
+            for (Map.Entry<FieldType, AnalyzingSuggester> entry : current.analyzingSuggesters().entrySet()) {
+                long sizeInBytes = entry.getValue().ramBytesUsed();
+                FstStats.FstIndexShardStats fstIndexShardStats = new FstStats.FstIndexShardStats(shardId, "analyzingsuggester", entry.getKey(), sizeInBytes);
+                shardSuggestStatisticsResponse.getFstIndexShardStats().add(fstIndexShardStats);
+            }
+
+            for (Map.Entry<FieldType, FuzzySuggester> entry : current.fuzzySuggesters().entrySet()) {
+                long sizeInBytes = entry.getValue().ramBytesUsed();
+                FstStats.FstIndexShardStats fstIndexShardStats = new FstStats.FstIndexShardStats(shardId, "fuzzysuggester", entry.getKey(), sizeInBytes);
+                shardSuggestStatisticsResponse.getFstIndexShardStats().add(fstIndexShardStats);
+            }
+        } finally {
+            current.decRef();
         }
 
         return shardSuggestStatisticsResponse;
     }
 
-    // this does not look thread safe and nice...
-    private IndexReader createOrGetIndexReader() {
-        try {
-            if (indexReader == null) {
+    /**
+     * Returns the current snapshot with an increased reference count, the caller has to call decRef() after
+     * it has finished. The first snapshot is created lazily, when the shard is queried the first time
+     */
+    private SuggesterSnapshot acquireSnapshot() {
+        while (true) {
+            SuggesterSnapshot current = snapshot;
+            if (current == null) {
                 lock.lock();
-                if (indexReader == null) {
-                    try (Engine.Searcher indexSearcher = indexShard.acquireSearcher( "suggest" )) {
-                        indexReader = indexSearcher.reader();
-                        // logger.info("1 shard {} : ref count {}", shardId, indexReader.getRefCount());
+                try {
+                    if (closed) {
+                        throw new ElasticsearchIllegalStateException("Suggest service of shard " + shardId + " is closed");
                     }
-
-                    // If an indexreader closes, we have to refresh all our data structures!
-                    indexReader.addReaderClosedListener(new IndexReader.ReaderClosedListener() {
-                        @Override
-                        public void onClose(IndexReader reader) {
-                            update();
-                        }
-                    });
+                    if (snapshot == null) {
+                        snapshot = createSnapshot();
+                    }
+                } finally {
+                    lock.unlock();
                 }
-            }
-        } finally {
-            if (lock.isLocked()) {
-                lock.unlock();
+            } else if (current.tryIncRef()) {
+                return current;
             }
         }
+    }
 
-        return indexReader;
+    private SuggesterSnapshot createSnapshot() {
+        Engine.Searcher searcher = indexShard.acquireSearcher("suggest");
+        return new SuggesterSnapshot(logger, searcher, buildService, rateLimiter, memoryService, built, shardId, store, offHeapLocation,
+                prefixTableLength, prefixTableSize, deadPrefixesSize, mapperService, analysisService, indexSettings);
     }
 
     public static class FieldType implements Streamable, Serializable, ToXContent {
@@ -348,6 +878,10 @@ public class ShardSuggestService extends AbstractIndexShardComponent {
 
         public FieldType() {}
 
+        public FieldType(String field) {
+            this.field = field;
+        }
+
         public FieldType(ShardSuggestRequest shardSuggestRequest) {
             this.field = shardSuggestRequest.field();
             this.types = Arrays.asList(shardSuggestRequest.types());
@@ -0,0 +1,142 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.SizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for shard suggest operations, which run on their own suggest thread pool, so that they do not
+ * delay searches and lazy builds of suggesters do not block search threads.
+ *
+ * Before a shard operation starts, the fill level of the queue of the pool and the average duration of recent shard
+ * operations are checked. Depending on the priority of the index, operations are rejected or degraded, which means
+ * that no similar terms are looked up, once thresholds are exceeded:
+ *
+ * <ul>
+ *   <li>low: rejected, if the queue is filled to <code>suggest.admission.degrade_queue_ratio</code> or the average
+ *   duration exceeds <code>suggest.admission.max_latency</code></li>
+ *   <li>normal: rejected, if the queue is filled to <code>suggest.admission.reject_queue_ratio</code>, degraded
+ *   if the low priority operations are rejected</li>
+ *   <li>high: degraded, if normal priority operations are rejected, only rejected by the pool itself</li>
+ * </ul>
+ */
+public class SuggestAdmissionService extends AbstractComponent {
+
+    public static final String THREAD_POOL = "suggest";
+
+    // weight of a new duration in the moving average
+    private static final double ALPHA = 0.2;
+    // the average is ignored, if no operation has finished for this time, so that rejected operations cannot keep it high
+    private static final long AVERAGE_EXPIRE_NANOS = TimeValue.timeValueSeconds(1).nanos();
+
+    public static enum Priority {
+        LOW, NORMAL, HIGH;
+
+        public static Priority fromString(String priority) {
+            try {
+                return valueOf(priority.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ElasticsearchIllegalArgumentException("Unknown suggest priority [" + priority + "]");
+            }
+        }
+    }
+
+    public static enum Admission {
+        ACCEPT, DEGRADE
+    }
+
+    private final ThreadPool threadPool;
+    private final double degradeQueueRatio;
+    private final double rejectQueueRatio;
+    private final TimeValue maxLatency;
+    private final AtomicLong averageNanos = new AtomicLong();
+    private volatile long lastTookAt;
+
+    @Inject
+    public SuggestAdmissionService(Settings settings, ThreadPool threadPool) {
+        super(settings);
+        this.threadPool = threadPool;
+        this.degradeQueueRatio = settings.getAsDouble("suggest.admission.degrade_queue_ratio", 0.5);
+        this.rejectQueueRatio = settings.getAsDouble("suggest.admission.reject_queue_ratio", 0.8);
+        this.maxLatency = settings.getAsTime("suggest.admission.max_latency", TimeValue.timeValueMillis(200));
+        logger.debug("Using suggest admission with degrade queue ratio [{}], reject queue ratio [{}], max latency [{}]",
+                degradeQueueRatio, rejectQueueRatio, maxLatency);
+    }
+
+    /**
+     * The defaults of the suggest thread pool, which can be overwritten with the usual thread pool settings
+     */
+    public static Settings threadPoolSettings(Settings settings) {
+        int size = settings.getAsInt("threadpool." + THREAD_POOL + ".size", EsExecutors.boundedNumberOfProcessors(settings));
+        return ImmutableSettings.settingsBuilder()
+                .put("threadpool." + THREAD_POOL + ".type", settings.get("threadpool." + THREAD_POOL + ".type", "fixed"))
+                .put("threadpool." + THREAD_POOL + ".size", size)
+                .put("threadpool." + THREAD_POOL + ".queue_size", settings.get("threadpool." + THREAD_POOL + ".queue_size", "1000"))
+                .build();
+    }
+
+    /**
+     * Decides, if a shard operation of an index with the priority may run, throws an {@link EsRejectedExecutionException} if not
+     */
+    public Admission admit(String index, Priority priority) {
+        double queueRatio = queueRatio();
+        if (priority == Priority.HIGH) {
+            return queueRatio >= rejectQueueRatio ? Admission.DEGRADE : Admission.ACCEPT;
+        }
+
+        boolean slow = System.nanoTime() - lastTookAt < AVERAGE_EXPIRE_NANOS && averageNanos.get() > maxLatency.nanos();
+        boolean overloaded = queueRatio >= degradeQueueRatio || slow;
+        if (priority == Priority.LOW && overloaded) {
+            throw new EsRejectedExecutionException("Rejected suggest operation of low priority index [" + index + "], suggest pool is overloaded");
+        }
+        if (queueRatio >= rejectQueueRatio) {
+            throw new EsRejectedExecutionException("Rejected suggest operation of index [" + index + "], suggest queue is almost full");
+        }
+        return overloaded ? Admission.DEGRADE : Admission.ACCEPT;
+    }
+
+    /**
+     * Adds the duration of a finished shard operation to the moving average. Durations are capped at twice the
+     * maximum latency, so that a single lazy build of a suggester does not shed the operations following it
+     */
+    public void took(long nanos) {
+        nanos = Math.min(nanos, 2 * maxLatency.nanos());
+        long now = System.nanoTime();
+        boolean expired = now - lastTookAt >= AVERAGE_EXPIRE_NANOS;
+        lastTookAt = now;
+        while (true) {
+            long average = averageNanos.get();
+            // the first duration after a pause does not count as slow on its own
+            long updated = expired || average == 0 ? Math.min(nanos, maxLatency.nanos()) : (long) (average + ALPHA * (nanos - average));
+            if (averageNanos.compareAndSet(average, updated)) {
+                return;
+            }
+        }
+    }
+
+    private double queueRatio() {
+        Executor executor = threadPool.executor(THREAD_POOL);
+        ThreadPool.Info info = threadPool.info(THREAD_POOL);
+        if (!(executor instanceof ThreadPoolExecutor) || info == null) {
+            return 0;
+        }
+        SizeValue queueSize = info.getQueueSize();
+        if (queueSize == null || queueSize.singles() <= 0) {
+            // unbounded queues are not shed
+            return 0;
+        }
+        return (double) ((ThreadPoolExecutor) executor).getQueue().size() / queueSize.singles();
+    }
+}
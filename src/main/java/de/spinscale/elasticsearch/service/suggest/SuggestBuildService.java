@@ -0,0 +1,158 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.apache.lucene.search.spell.Dictionary;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.store.RateLimiter;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node wide resources for building suggest structures: the size capped suggest_build thread pool used for refreshing,
+ * a limit of concurrently running builds (including the ones triggered lazily by queries) and a rate limit
+ * for reading terms dictionaries
+ */
+public class SuggestBuildService extends AbstractLifecycleComponent<SuggestBuildService> {
+
+    private final int poolSize;
+    private final int concurrentBuilds;
+    private final ByteSizeValue maxBytesPerSec;
+    private final Semaphore buildPermits;
+    private final RateLimiter rateLimiter;
+    private volatile ExecutorService executor;
+
+    @Inject
+    public SuggestBuildService(Settings settings) {
+        super(settings);
+        int defaultPoolSize = Math.max(1, Math.min(4, EsExecutors.boundedNumberOfProcessors(settings) / 2));
+        poolSize = settings.getAsInt("suggest.build.pool_size", defaultPoolSize);
+        concurrentBuilds = settings.getAsInt("suggest.build.concurrent_builds", poolSize);
+        maxBytesPerSec = settings.getAsBytesSize("suggest.build.max_bytes_per_sec", new ByteSizeValue(20, ByteSizeUnit.MB));
+
+        buildPermits = new Semaphore(concurrentBuilds, true);
+        rateLimiter = maxBytesPerSec.bytes() > 0 ? new RateLimiter.SimpleRateLimiter(maxBytesPerSec.mbFrac()) : null;
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+        executor = EsExecutors.newScaling(1, poolSize, 5, TimeUnit.MINUTES, EsExecutors.daemonThreadFactory(settings, "suggest_build"));
+        logger.debug("Suggest build pool started with size [{}], concurrent builds [{}], max_bytes_per_sec [{}]",
+                poolSize, concurrentBuilds, maxBytesPerSec);
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {}
+
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    /**
+     * Runs the build on the calling thread, as soon as one of the node wide build permits is available
+     */
+    public <T> T build(Callable<T> build) throws Exception {
+        buildPermits.acquire();
+        try {
+            return build.call();
+        } finally {
+            buildPermits.release();
+        }
+    }
+
+    /**
+     * Wraps the dictionary, so that reading its terms exceeds neither the node wide rate nor the rate of the index
+     * of the dictionary, if the index has one
+     */
+    public Dictionary throttle(Dictionary dictionary, @Nullable RateLimiter indexRateLimiter) {
+        return throttled(throttled(dictionary, rateLimiter), indexRateLimiter);
+    }
+
+    private static Dictionary throttled(final Dictionary dictionary, @Nullable final RateLimiter rateLimiter) {
+        if (rateLimiter == null) {
+            return dictionary;
+        }
+
+        return new Dictionary() {
+            @Override
+            public InputIterator getEntryIterator() throws IOException {
+                return new ThrottledInputIterator(dictionary.getEntryIterator(), rateLimiter);
+            }
+        };
+    }
+
+    private static class ThrottledInputIterator implements InputIterator {
+
+        private final InputIterator delegate;
+        private final RateLimiter rateLimiter;
+        private long bytesSinceLastPause;
+
+        ThrottledInputIterator(InputIterator delegate, RateLimiter rateLimiter) {
+            this.delegate = delegate;
+            this.rateLimiter = rateLimiter;
+        }
+
+        @Override
+        public BytesRef next() throws IOException {
+            BytesRef term = delegate.next();
+            if (term != null) {
+                bytesSinceLastPause += term.length;
+                if (bytesSinceLastPause > rateLimiter.getMinPauseCheckBytes()) {
+                    rateLimiter.pause(bytesSinceLastPause);
+                    bytesSinceLastPause = 0;
+                }
+            }
+            return term;
+        }
+
+        @Override
+        public long weight() {
+            return delegate.weight();
+        }
+
+        @Override
+        public BytesRef payload() {
+            return delegate.payload();
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return delegate.hasPayloads();
+        }
+
+        @Override
+        public Set<BytesRef> contexts() {
+            return delegate.contexts();
+        }
+
+        @Override
+        public boolean hasContexts() {
+            return delegate.hasContexts();
+        }
+
+        @Override
+        public Comparator<BytesRef> getComparator() {
+            return delegate.getComparator();
+        }
+    }
+}
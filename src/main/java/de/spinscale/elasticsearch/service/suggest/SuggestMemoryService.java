@@ -0,0 +1,238 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.collect.Maps;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.RatioValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Node wide accounting of the heap used by suggest structures of all shards.
+ *
+ * Before a structure is built, its estimated size is reserved. If the reservation exceeds the quota of the index
+ * or the limit of the node, the least recently used structures are evicted, of the same index only, if the quota
+ * of the index is exceeded. If not enough can be evicted, the build is refused with a {@link CircuitBreakingException}.
+ * After the build, the reservation is replaced by the actual size of the structure.
+ *
+ * Structures taken over by a newer snapshot of the same shard are accounted only once, they are released when the
+ * last snapshot using them is closed. Evicting a structure removes it from every snapshot using it.
+ */
+public class SuggestMemoryService extends AbstractComponent {
+
+    private final ByteSizeValue limit;
+    private final RatioValue indexLimitRatio;
+
+    private final Map<Object, Account> accounts = Maps.newIdentityHashMap();
+    private final List<Account> reservations = Lists.newArrayList();
+    private final Map<String, Long> indexUsed = Maps.newHashMap();
+    private final Map<String, Long> indexLimits = ConcurrentCollections.newConcurrentMap();
+    private long used;
+    private long evictions;
+    private long refusals;
+
+    @Inject
+    public SuggestMemoryService(Settings settings) {
+        super(settings);
+        this.limit = settings.getAsMemory("suggest.memory.limit", "20%");
+        this.indexLimitRatio = RatioValue.parseRatioValue(settings.get("suggest.memory.index_limit", "50%"));
+        logger.debug("Using suggest memory limit [{}], index limit [{}]", limit, indexLimitRatio);
+    }
+
+    public long limitInBytes() {
+        return limit.bytes();
+    }
+
+    public long indexLimitInBytes(String index) {
+        Long indexLimit = indexLimits.get(index);
+        return indexLimit == null ? (long) (limit.bytes() * indexLimitRatio.getAsRatio()) : indexLimit;
+    }
+
+    /**
+     * Sets a quota for a single index instead of the default ratio of the node limit, or removes it if null
+     */
+    public void indexLimit(String index, @Nullable ByteSizeValue indexLimit) {
+        if (indexLimit == null) {
+            indexLimits.remove(index);
+        } else {
+            indexLimits.put(index, indexLimit.bytes());
+        }
+    }
+
+    public synchronized long usedInBytes() {
+        return used;
+    }
+
+    public synchronized long usedInBytes(String index) {
+        Long indexBytes = indexUsed.get(index);
+        return indexBytes == null ? 0 : indexBytes;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized long refusals() {
+        return refusals;
+    }
+
+    /**
+     * Reserves the estimated size of a structure to be built, evicting least recently used structures if needed.
+     * Structures, which are not evictable, are only released, when the last snapshot using them is closed
+     */
+    public synchronized Account reserve(String index, String description, long estimatedBytes, boolean evictable) throws CircuitBreakingException {
+        long indexLimit = indexLimitInBytes(index);
+        if (estimatedBytes > indexLimit) {
+            refuse(index, description, estimatedBytes, "index limit", indexLimit);
+        }
+        while (usedInBytes(index) + estimatedBytes > indexLimit) {
+            if (!evictLeastRecentlyUsed(index)) {
+                refuse(index, description, estimatedBytes, "index limit", indexLimit);
+            }
+        }
+        while (used + estimatedBytes > limit.bytes()) {
+            if (!evictLeastRecentlyUsed(null)) {
+                refuse(index, description, estimatedBytes, "limit", limit.bytes());
+            }
+        }
+
+        Account account = new Account(index, description, evictable);
+        reservations.add(account);
+        add(account, estimatedBytes);
+        return account;
+    }
+
+    /**
+     * Replaces the reservation with the actual size of the built structure. The evictor removes the structure
+     * from the snapshot, which has built it. Returns the account of the structure
+     */
+    public synchronized Account built(Account account, Object structure, long bytes, Runnable evictor) {
+        reservations.remove(account);
+        add(account, bytes - account.bytes);
+
+        Account existing = accounts.get(structure);
+        if (existing != null) {
+            // the structure is accounted already
+            add(account, -account.bytes);
+            existing.owners.add(evictor);
+            return existing;
+        }
+
+        account.owners.add(evictor);
+        account.touch();
+        accounts.put(structure, account);
+        return account;
+    }
+
+    /**
+     * Releases a reservation, whose build has failed
+     */
+    public synchronized void cancel(Account account) {
+        if (reservations.remove(account)) {
+            add(account, -account.bytes);
+        }
+    }
+
+    /**
+     * Accounts a structure, which has not been built by reserving its size first, like a structure taken over
+     * from a previous snapshot or loaded from disk. Returns the account, which may be shared with other snapshots
+     */
+    public synchronized Account share(String index, String description, Object structure, long bytes, boolean evictable, Runnable evictor) {
+        Account account = accounts.get(structure);
+        if (account == null) {
+            account = new Account(index, description, evictable);
+            add(account, bytes);
+            accounts.put(structure, account);
+        }
+        account.owners.add(evictor);
+        account.touch();
+        return account;
+    }
+
+    /**
+     * Called by a snapshot, when it does not use the structure anymore
+     */
+    public synchronized void release(Object structure, Runnable evictor) {
+        Account account = accounts.get(structure);
+        if (account != null && account.owners.remove(evictor) && account.owners.isEmpty()) {
+            accounts.remove(structure);
+            add(account, -account.bytes);
+        }
+    }
+
+    private boolean evictLeastRecentlyUsed(String index) {
+        Map.Entry<Object, Account> leastRecentlyUsed = null;
+        for (Map.Entry<Object, Account> entry : accounts.entrySet()) {
+            Account account = entry.getValue();
+            if (!account.evictable || (index != null && !index.equals(account.index))) {
+                continue;
+            }
+            if (leastRecentlyUsed == null || account.lastAccess < leastRecentlyUsed.getValue().lastAccess) {
+                leastRecentlyUsed = entry;
+            }
+        }
+
+        if (leastRecentlyUsed == null) {
+            return false;
+        }
+
+        Account account = leastRecentlyUsed.getValue();
+        accounts.remove(leastRecentlyUsed.getKey());
+        add(account, -account.bytes);
+        evictions++;
+        logger.debug("Evicting [{}] of index [{}] using [{}]", account.description, account.index, new ByteSizeValue(account.bytes));
+        for (Runnable evictor : account.owners) {
+            evictor.run();
+        }
+        return true;
+    }
+
+    private void refuse(String index, String description, long estimatedBytes, String limitName, long limitBytes) {
+        refusals++;
+        throw new CircuitBreakingException("Building [" + description + "] of index [" + index + "] would need ["
+                + new ByteSizeValue(estimatedBytes) + "], which exceeds the suggest memory " + limitName + " of ["
+                + new ByteSizeValue(limitBytes) + "], used [" + new ByteSizeValue(used) + "]");
+    }
+
+    private void add(Account account, long bytes) {
+        account.bytes += bytes;
+        used += bytes;
+        Long indexBytes = indexUsed.get(account.index);
+        long newIndexBytes = (indexBytes == null ? 0 : indexBytes) + bytes;
+        if (newIndexBytes == 0) {
+            indexUsed.remove(account.index);
+        } else {
+            indexUsed.put(account.index, newIndexBytes);
+        }
+    }
+
+    public static class Account {
+
+        private final String index;
+        private final String description;
+        private final boolean evictable;
+        private final List<Runnable> owners = Lists.newArrayList();
+        private long bytes;
+        private volatile long lastAccess;
+
+        Account(String index, String description, boolean evictable) {
+            this.index = index;
+            this.description = description;
+            this.evictable = evictable;
+        }
+
+        /**
+         * Marks the structure as used, called on every lookup, so it does not lock
+         */
+        public void touch() {
+            lastAccess = System.nanoTime();
+        }
+    }
+}
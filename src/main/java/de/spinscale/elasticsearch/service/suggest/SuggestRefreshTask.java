@@ -0,0 +1,197 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import de.spinscale.elasticsearch.action.suggest.refresh.RefreshTaskStatus;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A running rebuild of the suggesters of a shard, which keeps the progress of scanning the terms of every field and
+ * of building every suggester.
+ *
+ * A rebuild can be cancelled: the builds check the flag before they start and for every term they read, and fail
+ * with the reason of the cancellation, so that the rebuild is aborted and the previous suggesters keep serving.
+ */
+public class SuggestRefreshTask {
+
+    public static enum Phase {
+        SCANNING, BUILDING, DONE;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final ShardId shardId;
+    private final String field;
+    private final long startTime = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final List<Build> builds = new CopyOnWriteArrayList<Build>();
+    private volatile Phase phase = Phase.SCANNING;
+    private volatile String cancelReason;
+
+    public SuggestRefreshTask(ShardId shardId, @Nullable String field) {
+        this.shardId = shardId;
+        this.field = field;
+    }
+
+    public ShardId shardId() {
+        return shardId;
+    }
+
+    void phase(Phase phase) {
+        this.phase = phase;
+    }
+
+    /**
+     * Registers the build of a structure, or the scan of the terms of a field, if the type is null
+     */
+    Build startBuild(@Nullable String type, ShardSuggestService.FieldType fieldType) {
+        ensureNotCancelled();
+        Build build = new Build(type, fieldType);
+        builds.add(build);
+        return build;
+    }
+
+    /**
+     * Makes the builds of this task fail at their next check, the first reason given is kept
+     */
+    public void cancel(String reason) {
+        if (cancelReason == null) {
+            cancelReason = reason;
+        }
+    }
+
+    public boolean cancelled() {
+        return cancelReason != null;
+    }
+
+    @Nullable
+    public String cancelReason() {
+        return cancelReason;
+    }
+
+    void ensureNotCancelled() {
+        String reason = cancelReason;
+        if (reason != null) {
+            throw new ElasticsearchException("Suggest refresh of shard " + shardId + " has been cancelled: " + reason);
+        }
+    }
+
+    public RefreshTaskStatus status(String nodeId) {
+        List<RefreshTaskStatus.BuildStatus> buildStatuses = Lists.newArrayListWithCapacity(builds.size());
+        for (Build build : builds) {
+            buildStatuses.add(build.status());
+        }
+        return new RefreshTaskStatus(nodeId, shardId.index().name(), shardId.id(), field, phase.toString(), startTime,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), cancelled(), buildStatuses);
+    }
+
+    public class Build {
+
+        // the bytes of a buffered weight
+        private static final int WEIGHT_BYTES = 8;
+
+        private final String type;
+        private final ShardSuggestService.FieldType fieldType;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong termsProcessed = new AtomicLong();
+        private final AtomicLong bytesAllocated = new AtomicLong();
+        private volatile long tookNanos = -1;
+
+        Build(String type, ShardSuggestService.FieldType fieldType) {
+            this.type = type;
+            this.fieldType = fieldType;
+        }
+
+        void bytesAllocated(long bytes) {
+            bytesAllocated.set(bytes);
+        }
+
+        void done(long bytes) {
+            bytesAllocated.set(bytes);
+            tookNanos = System.nanoTime() - startNanos;
+        }
+
+        /**
+         * Counts the terms read from the iterator and checks for every term, if the task has been cancelled. While
+         * scanning, the bytes of the terms read are counted as well
+         */
+        InputIterator track(InputIterator iterator) {
+            return new TrackingInputIterator(iterator);
+        }
+
+        RefreshTaskStatus.BuildStatus status() {
+            long took = tookNanos;
+            Phase buildPhase = took >= 0 ? Phase.DONE : type == null ? Phase.SCANNING : Phase.BUILDING;
+            long elapsed = took >= 0 ? took : System.nanoTime() - startNanos;
+            return new RefreshTaskStatus.BuildStatus(type == null ? "terms" : type, fieldType, buildPhase.toString(),
+                    termsProcessed.get(), bytesAllocated.get(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+
+        private class TrackingInputIterator implements InputIterator {
+
+            private final InputIterator delegate;
+
+            TrackingInputIterator(InputIterator delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public BytesRef next() throws IOException {
+                ensureNotCancelled();
+                BytesRef term = delegate.next();
+                if (term != null) {
+                    termsProcessed.incrementAndGet();
+                    if (type == null) {
+                        bytesAllocated.addAndGet(term.length + WEIGHT_BYTES);
+                    }
+                }
+                return term;
+            }
+
+            @Override
+            public long weight() {
+                return delegate.weight();
+            }
+
+            @Override
+            public BytesRef payload() {
+                return delegate.payload();
+            }
+
+            @Override
+            public boolean hasPayloads() {
+                return delegate.hasPayloads();
+            }
+
+            @Override
+            public Set<BytesRef> contexts() {
+                return delegate.contexts();
+            }
+
+            @Override
+            public boolean hasContexts() {
+                return delegate.hasContexts();
+            }
+
+            @Override
+            public Comparator<BytesRef> getComparator() {
+                return delegate.getComparator();
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import de.spinscale.elasticsearch.action.suggest.suggest.ShardSuggestRequest;
+import de.spinscale.elasticsearch.action.suggest.suggest.ShardSuggestResponse;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.base.Objects;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node wide cache of shard suggest results, bounded by the number of entries.
+ *
+ * Every entry is keyed by the generation of the suggester snapshot it has been computed from, so results of
+ * outdated suggesters are never returned. When a shard swaps in a new snapshot, all entries of the shard are removed.
+ */
+public class SuggestResultCache extends AbstractComponent {
+
+    private final Cache<Key, ShardSuggestResponse> cache;
+
+    @Inject
+    public SuggestResultCache(Settings settings) {
+        super(settings);
+        int size = settings.getAsInt("suggest.cache.size", 10000);
+        TimeValue expire = settings.getAsTime("suggest.cache.expire", null);
+
+        if (size > 0) {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(size);
+            if (expire != null) {
+                builder.expireAfterAccess(expire.millis(), TimeUnit.MILLISECONDS);
+            }
+            cache = builder.build();
+        } else {
+            cache = null;
+        }
+        logger.debug("Using suggest result cache with size [{}], expire [{}]", size, expire);
+    }
+
+    @Nullable
+    public ShardSuggestResponse get(ShardId shardId, long generation, ShardSuggestRequest request) {
+        return cache == null ? null : cache.getIfPresent(new Key(shardId, generation, request));
+    }
+
+    public void put(ShardId shardId, long generation, ShardSuggestRequest request, ShardSuggestResponse response) {
+        if (cache != null) {
+            cache.put(new Key(shardId, generation, request), response);
+        }
+    }
+
+    /**
+     * Removes all entries of the shard, called when its suggesters have been rebuilt or the shard is closed
+     */
+    public void invalidate(ShardId shardId) {
+        if (cache == null) {
+            return;
+        }
+        for (Iterator<Key> iterator = cache.asMap().keySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().shardId.equals(shardId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Identifies the result of a shard request computed from a snapshot, requests of different sessions with
+     * the same parameters share the same key
+     */
+    static class Key {
+
+        private final ShardId shardId;
+        private final long generation;
+        private final ShardSuggestService.FieldType fieldType;
+        private final String suggestType;
+        private final String term;
+        private final int size;
+        private final float similarity;
+        private final String similarityEngine;
+
+        Key(ShardId shardId, long generation, ShardSuggestRequest request) {
+            this.shardId = shardId;
+            this.generation = generation;
+            this.fieldType = new ShardSuggestService.FieldType(request);
+            this.suggestType = request.suggestType();
+            this.term = request.term();
+            this.size = request.size();
+            this.similarity = request.similarity();
+            this.similarityEngine = request.similarityEngine();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return generation == other.generation
+                    && size == other.size
+                    && similarity == other.similarity
+                    && shardId.equals(other.shardId)
+                    && fieldType.equals(other.fieldType)
+                    && Objects.equal(suggestType, other.suggestType)
+                    && Objects.equal(term, other.term)
+                    && Objects.equal(similarityEngine, other.similarityEngine);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(shardId, generation, fieldType, suggestType, term, size, similarity, similarityEngine);
+        }
+    }
+}
@@ -1,44 +1,81 @@
 package de.spinscale.elasticsearch.service.suggest;
 
-import de.spinscale.elasticsearch.action.suggest.refresh.SuggestRefreshRequest;
-import de.spinscale.elasticsearch.action.suggest.refresh.TransportSuggestRefreshAction;
+import org.apache.lucene.util.CollectionUtil;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.cluster.ClusterService;
-import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.routing.IndexRoutingTable;
+import org.elasticsearch.cluster.routing.IndexShardRoutingTable;
+import org.elasticsearch.cluster.routing.ShardRouting;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.StopWatch;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.collect.Maps;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
-import org.elasticsearch.common.component.Lifecycle;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Injector;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.index.shard.IndexShardState;
 import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.index.shard.service.IndexShard;
 import org.elasticsearch.indices.IndicesLifecycle;
 import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.indices.warmer.IndicesWarmer;
+import org.elasticsearch.threadpool.ThreadPool;
 
-import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Refreshes the suggesters of the shards of this node every <code>suggest.refresh_interval</code>, and takes care
+ * of loading stored suggesters and scheduling rebuilds after index changes.
+ *
+ * Every node schedules the refreshes of its own shards, instead of the master refreshing all shards of the cluster
+ * at once. The refresh interval is split into a window per copy of a shard, ordered by the ids of the nodes holding
+ * the copies, so that two copies of a shard are never rebuilt at the same time, as long as a rebuild fits into its
+ * window. Refreshes start at a random point in the first half of their window and at most
+ * <code>suggest.refresh.concurrent_shards</code> shards are rebuilt at the same time on a node. Refreshes due while
+ * all permits are taken are queued instead of waiting on a thread, and started in order whenever a refresh is done.
+ * Rebuilds after index changes start in the window of their copy as well and share the queue and its permits.
+ */
 public class SuggestService extends AbstractLifecycleComponent<SuggestService> {
 
     private final TimeValue suggestRefreshInterval;
     private final boolean suggestRefreshDisabled;
-    private volatile Thread suggestUpdaterThread;
+    private final int concurrentShardRefreshes;
+    private final Semaphore shardRefreshPermits;
+    private final Queue<Runnable> queuedShardRefreshes = ConcurrentCollections.newQueue();
+    private final Set<ShardId> pendingShardRefreshes = ConcurrentCollections.newConcurrentSet();
+    private volatile ScheduledFuture<?> refreshRound;
     private volatile boolean closed;
-    private final TransportSuggestRefreshAction suggestRefreshAction;
     private final ClusterService clusterService;
     private final IndicesService indicesService;
+    private final SuggestBuildService suggestBuildService;
+    private final IndicesWarmer indicesWarmer;
+    private final ThreadPool threadPool;
 
-    @Inject public SuggestService(Settings settings, TransportSuggestRefreshAction suggestRefreshAction,
-            ClusterService clusterService, IndicesService indicesService) {
+    @Inject public SuggestService(Settings settings, ClusterService clusterService, IndicesService indicesService,
+            SuggestBuildService suggestBuildService, IndicesWarmer indicesWarmer, ThreadPool threadPool) {
         super(settings);
-        this.suggestRefreshAction = suggestRefreshAction;
         this.clusterService = clusterService;
         this.indicesService = indicesService;
+        this.suggestBuildService = suggestBuildService;
+        this.indicesWarmer = indicesWarmer;
+        this.threadPool = threadPool;
         suggestRefreshDisabled = settings.getAsBoolean("suggest.refresh_disabled", false);
         suggestRefreshInterval = settings.getAsTime("suggest.refresh_interval", TimeValue.timeValueMinutes(10));
+        concurrentShardRefreshes = settings.getAsInt("suggest.refresh.concurrent_shards", 1);
+        shardRefreshPermits = new Semaphore(Math.max(1, concurrentShardRefreshes));
     }
 
     @Override
@@ -46,76 +83,295 @@ public class SuggestService extends AbstractLifecycleComponent<SuggestService> {
         if (suggestRefreshDisabled) {
             logger.info("Suggest component started with out refreshing automatically");
         } else {
-            suggestUpdaterThread = EsExecutors.daemonThreadFactory(settings, "suggest_updater").newThread(new SuggestUpdaterThread());
-            suggestUpdaterThread.start();
-            logger.info("Suggest component started with refresh interval [{}]", suggestRefreshInterval);
+            scheduleRefreshRound();
+            logger.info("Suggest component started with refresh interval [{}], refreshing [{}] shards concurrently",
+                    suggestRefreshInterval, concurrentShardRefreshes);
         }
 
-        // When the instance is shut down or the index is deleted
+        // load the suggesters stored on disk, when a shard has been started on this node, and stop building
+        // suggesters of shards leaving this node right away instead of after all their builds have finished
         indicesService.indicesLifecycle().addListener(new IndicesLifecycle.Listener() {
             @Override
-            public void beforeIndexClosed(IndexService indexService) {
-                for (Iterator<IndexShard> shardServiceIterator = indexService.iterator(); shardServiceIterator.hasNext(); ) {
-                    IndexShard indexShard  = shardServiceIterator.next();
-                    ShardSuggestService suggestShardService = indexService.shardInjectorSafe(indexShard.shardId().id()).getInstance(ShardSuggestService.class);
-                    suggestShardService.shutDown();
+            public void afterIndexShardStarted(final IndexShard indexShard) {
+                suggestBuildService.executor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        ShardId shardId = indexShard.shardId();
+                        try {
+                            ShardSuggestService shardSuggestService = shardSuggestService(shardId);
+                            if (shardSuggestService != null) {
+                                shardSuggestService.loadStoredSuggesters();
+                            }
+                        } catch (Exception e) {
+                            logger.warn("Could not load stored suggesters of shard [{}]", e, shardId);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void indexShardStateChanged(IndexShard indexShard, @Nullable IndexShardState previousState, IndexShardState currentState, @Nullable String reason) {
+                if (currentState == IndexShardState.RELOCATED) {
+                    cancelBuilds(indexShard.shardId(), "shard relocated");
                 }
             }
-        });
 
-        // when the shard is deleted (or moved to another cluster instance)
-        // using this in the above case fails, because i cannot get the indexService anymore at beforeIndexShardClosed()
-        indicesService.indicesLifecycle().addListener(new IndicesLifecycle.Listener() {
             @Override
             public void beforeIndexShardClosed(ShardId shardId, @Nullable IndexShard indexShard) {
-                IndexService indexService = indicesService.indexService(shardId.index().name());
-                if (indexService != null) {
-                    ShardSuggestService suggestShardService = indexService.shardInjectorSafe(shardId.id()).getInstance(ShardSuggestService.class);
-                    suggestShardService.shutDown();
+                cancelBuilds(shardId, "shard closed");
+            }
+        });
+
+        // a new top level reader is opened after every refresh, which includes the segments written by merges
+        indicesWarmer.addListener(new IndicesWarmer.Listener() {
+            @Override
+            public TerminationHandle warm(IndexShard indexShard, IndexMetaData indexMetaData, IndicesWarmer.WarmerContext context, ThreadPool threadPool) {
+                return TerminationHandle.NO_WAIT;
+            }
+
+            @Override
+            public TerminationHandle warmTop(IndexShard indexShard, IndexMetaData indexMetaData, IndicesWarmer.WarmerContext context, ThreadPool threadPool) {
+                try {
+                    ShardSuggestService shardSuggestService = shardSuggestService(indexShard.shardId());
+                    if (shardSuggestService != null) {
+                        shardSuggestService.readerChanged();
+                    }
+                } catch (Exception e) {
+                    logger.debug("Could not schedule suggest refresh of shard [{}]", e, indexShard.shardId());
                 }
+                return TerminationHandle.NO_WAIT;
             }
         });
     }
 
-    @Override
-    protected void doClose() throws ElasticsearchException {
+    private ShardSuggestService shardSuggestService(ShardId shardId) {
+        IndexService indexService = indicesService.indexService(shardId.index().name());
+        if (indexService == null) {
+            return null;
+        }
+        Injector shardInjector = indexService.shardInjector(shardId.id());
+        return shardInjector == null ? null : shardInjector.getInstance(ShardSuggestService.class);
+    }
+
+    private void cancelBuilds(ShardId shardId, String reason) {
+        try {
+            ShardSuggestService shardSuggestService = shardSuggestService(shardId);
+            if (shardSuggestService != null) {
+                shardSuggestService.cancelBuilds(reason);
+            }
+        } catch (Exception e) {
+            logger.debug("Could not cancel suggester builds of shard [{}]", e, shardId);
+        }
+    }
+
+    private void scheduleRefreshRound() {
         if (closed) {
             return;
         }
-        closed = true;
+        try {
+            refreshRound = threadPool.schedule(suggestRefreshInterval, ThreadPool.Names.GENERIC, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        scheduleShardRefreshes();
+                    } catch (Exception e) {
+                        logger.warn("Could not schedule suggest refreshes, next round in [{}]", e, suggestRefreshInterval);
+                    } finally {
+                        scheduleRefreshRound();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Could not schedule suggest refreshes, node is shutting down");
+        }
+    }
 
-        if (suggestUpdaterThread != null) {
-            suggestUpdaterThread.interrupt();
+    /**
+     * Schedules the refresh of every started shard of this node in its window of the coming refresh interval,
+     * unless the refresh of the previous round is still pending
+     */
+    private void scheduleShardRefreshes() {
+        long now = System.currentTimeMillis();
+        int scheduled = 0;
+        for (Map.Entry<ShardId, Long> shardRefresh : nextShardRefreshes(now).entrySet()) {
+            final ShardId shardId = shardRefresh.getKey();
+            if (!pendingShardRefreshes.add(shardId)) {
+                continue;
+            }
+            try {
+                threadPool.schedule(TimeValue.timeValueMillis(shardRefresh.getValue() - now), ThreadPool.Names.SAME, new Runnable() {
+                    @Override
+                    public void run() {
+                        queueShardRefresh(new Runnable() {
+                            @Override
+                            public void run() {
+                                refreshShard(shardId);
+                            }
+                        });
+                    }
+                });
+                scheduled++;
+            } catch (RejectedExecutionException e) {
+                pendingShardRefreshes.remove(shardId);
+            }
         }
-        logger.info("Suggest component stopped");
+        logger.debug("Scheduled suggest refreshes of [{}] shards, next round in [{}]", scheduled, suggestRefreshInterval);
     }
 
-    @Override
-    protected void doStop() throws ElasticsearchException {}
+    /**
+     * Runs the rebuild of a shard after its index has changed at the next start of the window of this copy within the
+     * given period, so that the copies of a shard are not rebuilt at the same time, and queues it behind the refreshes
+     * of this node. Returns false, if the node is shutting down and the rebuild will not run
+     */
+    public boolean scheduleChangedShardRefresh(ShardId shardId, TimeValue period, final Runnable refresh) {
+        if (closed) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long delay = 0;
+        if (period.millis() > 0) {
+            ClusterState clusterState = clusterService.state();
+            delay = shardRefreshStart(clusterState, shardId, clusterState.nodes().localNodeId(), now, period.millis()) - now;
+        }
+        try {
+            threadPool.schedule(TimeValue.timeValueMillis(delay), ThreadPool.Names.SAME, new Runnable() {
+                @Override
+                public void run() {
+                    queueShardRefresh(refresh);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.debug("Could not schedule suggest refresh of shard [{}], node is shutting down", shardId);
+            return false;
+        }
+    }
+
+    private void queueShardRefresh(Runnable refresh) {
+        queuedShardRefreshes.add(refresh);
+        startQueuedShardRefreshes();
+    }
 
-    public class SuggestUpdaterThread implements Runnable {
-        @Override
-        public void run() {
-            while (!closed) {
-                DiscoveryNode node = clusterService.localNode();
-                boolean isClusterStarted = clusterService.lifecycleState().equals(Lifecycle.State.STARTED);
-
-                if (isClusterStarted && node != null && node.isMasterNode()) {
-                    StopWatch sw = new StopWatch().start();
-                    suggestRefreshAction.execute(new SuggestRefreshRequest()).actionGet();
-                    logger.info("Suggest update took [{}], next update in [{}]", sw.stop().totalTime(), suggestRefreshInterval);
-                } else {
-                    if (node != null) {
-                        logger.debug("[{}]/[{}] is not master node, not triggering update", node.getId(), node.getName());
+    /**
+     * Starts queued refreshes as long as permits are left. A refresh queued while all permits are taken is started by
+     * the refresh releasing the next permit, as that one looks at the queue after releasing it
+     */
+    private void startQueuedShardRefreshes() {
+        while (!queuedShardRefreshes.isEmpty() && shardRefreshPermits.tryAcquire()) {
+            final Runnable refresh = queuedShardRefreshes.poll();
+            if (refresh == null) {
+                shardRefreshPermits.release();
+                continue;
+            }
+            try {
+                // not on the suggest build pool, as the rebuild waits for the builds it runs there
+                threadPool.generic().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (!closed) {
+                                refresh.run();
+                            }
+                        } finally {
+                            shardRefreshPermits.release();
+                            startQueuedShardRefreshes();
+                        }
                     }
+                });
+            } catch (RejectedExecutionException e) {
+                shardRefreshPermits.release();
+                logger.debug("Could not start suggest refresh, node is shutting down");
+                return;
+            }
+        }
+    }
+
+    public TimeValue refreshInterval() {
+        return suggestRefreshInterval;
+    }
+
+    /**
+     * Returns the time in milliseconds since the epoch, a refresh of every started shard of this node would start at,
+     * if it was scheduled now. Copies of shards held by other nodes are refreshed by those nodes
+     */
+    public Map<ShardId, Long> nextShardRefreshes() {
+        return nextShardRefreshes(System.currentTimeMillis());
+    }
+
+    private Map<ShardId, Long> nextShardRefreshes(long now) {
+        ClusterState clusterState = clusterService.state();
+        String localNodeId = clusterState.nodes().localNodeId();
+        Map<ShardId, Long> shardRefreshes = Maps.newHashMap();
+        for (IndexService indexService : indicesService) {
+            for (IndexShard indexShard : indexService) {
+                if (indexShard.state() == IndexShardState.STARTED) {
+                    shardRefreshes.put(indexShard.shardId(), shardRefreshStart(clusterState, indexShard.shardId(), localNodeId, now,
+                            suggestRefreshInterval.millis()));
                 }
+            }
+        }
+        return shardRefreshes;
+    }
 
-                try {
-                    Thread.sleep(suggestRefreshInterval.millis());
-                } catch (InterruptedException e1) {
-                    continue;
+    /**
+     * The next start of the window of this copy of the shard within the interval plus a random jitter. Windows are
+     * aligned to the wall clock, so that they line up on all nodes
+     */
+    private long shardRefreshStart(ClusterState clusterState, ShardId shardId, String localNodeId, long now, long intervalMillis) {
+        int copies = 1;
+        int copy = 0;
+        IndexRoutingTable indexRoutingTable = clusterState.routingTable().index(shardId.index().name());
+        IndexShardRoutingTable shardRoutingTable = indexRoutingTable == null ? null : indexRoutingTable.shard(shardId.id());
+        if (shardRoutingTable != null) {
+            List<String> nodeIds = Lists.newArrayList();
+            for (ShardRouting shardRouting : shardRoutingTable.activeShards()) {
+                nodeIds.add(shardRouting.currentNodeId());
+            }
+            CollectionUtil.timSort(nodeIds);
+            copies = Math.max(1, nodeIds.size());
+            copy = Math.max(0, nodeIds.indexOf(localNodeId));
+        }
+
+        long interval = Math.max(1, intervalMillis);
+        long window = Math.max(1, interval / copies);
+        long start = now - now % interval + copy * window + ThreadLocalRandom.current().nextLong(Math.max(1, window / 2));
+        if (start <= now) {
+            start += interval;
+        }
+        return start;
+    }
+
+    private void refreshShard(ShardId shardId) {
+        try {
+            ShardSuggestService shardSuggestService = shardSuggestService(shardId);
+            if (shardSuggestService != null) {
+                StopWatch sw = new StopWatch().start();
+                if (shardSuggestService.update()) {
+                    logger.debug("Suggest refresh of shard [{}] took [{}]", shardId, sw.stop().totalTime());
                 }
             }
+        } catch (Exception e) {
+            logger.warn("Suggest refresh of shard [{}] failed", e, shardId);
+        } finally {
+            pendingShardRefreshes.remove(shardId);
         }
     }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queuedShardRefreshes.clear();
+
+        ScheduledFuture<?> round = refreshRound;
+        if (round != null) {
+            round.cancel(false);
+        }
+        logger.info("Suggest component stopped");
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {}
 }
@@ -0,0 +1,1142 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.spell.Dictionary;
+import org.apache.lucene.search.spell.HighFrequencyDictionary;
+import org.apache.lucene.search.spell.SpellChecker;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
+import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.search.suggest.fst.FSTCompletionLookup;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.store.RateLimiter;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalStateException;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheLoader;
+import org.elasticsearch.common.cache.LoadingCache;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.collect.Maps;
+import org.elasticsearch.common.collect.Sets;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.util.concurrent.UncheckedExecutionException;
+import org.elasticsearch.index.analysis.AnalysisService;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds every suggest structure of a shard, that has been built from one index reader generation.
+ *
+ * A snapshot is never refreshed in place. Structures of keys not queried before are loaded lazily against the
+ * reader of the snapshot, a refresh creates a new snapshot, warms it up and swaps it in. The snapshot is reference
+ * counted, the searcher and the spellcheckers are released, when the last lookup using this snapshot has finished.
+ *
+ * If a store is configured, every FST, analyzing and fuzzy suggester is written to disk after it has been built.
+ * If an off heap location is configured, the lookups of the fst type are kept in memory mapped files there instead
+ * of FSTs on the heap. These lookups are reference counted as well, as they are shared between snapshots.
+ * Every lookup of the fst type gets a {@link PrefixTable} holding the results of its short prefixes.
+ *
+ * Every structure is accounted in the node wide {@link SuggestMemoryService}. Before a structure is built, its size
+ * is estimated from the size of the same structure in the previous snapshot or from the number of terms of the field.
+ * Evicted structures are removed from this snapshot and are built again, when they are queried the next time.
+ *
+ * Besides the blocking accessors, every structure can be requested without waiting for its build. If it has not been
+ * built yet, its build is started on the suggest build pool, holding a reference to this snapshot until it has finished.
+ *
+ * Warming up reports its progress to a {@link SuggestRefreshTask}. The builds of a structure run on one thread of the
+ * build pool, which knows the build it runs, so that the buffered terms read by the build are counted for it.
+ *
+ * Once its shard is closed, a snapshot can be cancelled. Its running builds fail at the next term they read and
+ * release their memory reservation and temporary files, builds not started yet are refused.
+ */
+public class SuggesterSnapshot {
+
+    private static final String FST = "fst";
+    // the type of stored off heap lookups, which are accounted as FST lookups
+    private static final String OFF_HEAP = "off_heap";
+    private static final String ANALYZING = "analyzing";
+    private static final String FUZZY = "fuzzy";
+    private static final String SEGMENT = "segment";
+    private static final String SPELLCHECKER = "spellchecker";
+    private static final String PREFIX_TABLE = "prefix_table";
+    private static final String BUFFER = "buffer";
+    private static final AtomicLong generations = new AtomicLong();
+    private static final ThreadLocal<SuggestRefreshTask.Build> currentBuild = new ThreadLocal<SuggestRefreshTask.Build>();
+
+    private final ESLogger logger;
+    private final Engine.Searcher searcher;
+    private final SuggestBuildService buildService;
+    private final RateLimiter rateLimiter;
+    private final SuggestMemoryService memoryService;
+    private final CounterMetric builtCounter;
+    private final ShardId shardId;
+    private final SuggesterStore store;
+    private final File offHeapLocation;
+    private final int prefixTableLength;
+    private final int deadPrefixesSize;
+    private final ConcurrentMap<ShardSuggestService.FieldType, DeadPrefixes> deadPrefixes = ConcurrentCollections.newConcurrentMap();
+    private final String tag;
+    private final String readerTag;
+    private final String analysisDigest;
+    private final long readerVersion;
+    private final long generation = generations.incrementAndGet();
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final ConcurrentMap<List<Object>, AccountedStructure> accountedStructures = ConcurrentCollections.newConcurrentMap();
+    private final Set<List<Object>> backgroundBuilds = ConcurrentCollections.newConcurrentSet();
+    private volatile Map<List<Object>, Long> previousSizes = ImmutableMap.of();
+    private volatile String cancelReason;
+
+    private final LoadingCache<String, Dictionary> dictCache;
+    private final LoadingCache<String, Lookup> lookupCache;
+    private final LoadingCache<String, PrefixTable> prefixTableCache;
+    private final LoadingCache<String, SegmentLookup> segmentLookupCache;
+    private final LoadingCache<ShardSuggestService.FieldType, AnalyzingSuggester> analyzingSuggesterCache;
+    private final LoadingCache<ShardSuggestService.FieldType, FuzzySuggester> fuzzySuggesterCache;
+    private final LoadingCache<String, SpellChecker> spellCheckerCache;
+    private final LoadingCache<String, RAMDirectory> ramDirectoryCache;
+    private final AbstractCacheLoaderSuggester.CacheLoaderAnalyzingSuggester analyzingSuggesterLoader;
+    private final AbstractCacheLoaderSuggester.CacheLoaderFuzzySuggester fuzzySuggesterLoader;
+
+    public SuggesterSnapshot(ESLogger logger, final Engine.Searcher searcher, final SuggestBuildService buildService,
+                             @Nullable final RateLimiter rateLimiter, SuggestMemoryService memoryService, CounterMetric built, ShardId shardId, @Nullable SuggesterStore store,
+                             @Nullable final File offHeapLocation, final int prefixTableLength, final int prefixTableSize,
+                             int deadPrefixesSize, MapperService mapperService, AnalysisService analysisService, Settings indexSettings) {
+        this.logger = logger;
+        this.searcher = searcher;
+        this.buildService = buildService;
+        this.rateLimiter = rateLimiter;
+        this.memoryService = memoryService;
+        this.builtCounter = built;
+        this.shardId = shardId;
+        this.store = store;
+        this.offHeapLocation = offHeapLocation;
+        this.prefixTableLength = prefixTableLength;
+        this.deadPrefixesSize = deadPrefixesSize;
+        this.readerTag = SuggesterStore.tag(searcher.reader());
+        this.readerVersion = searcher.reader() instanceof DirectoryReader ? ((DirectoryReader) searcher.reader()).getVersion() : -1;
+        this.tag = store == null ? null : readerTag;
+        this.analysisDigest = analysisDigest(indexSettings);
+
+        ramDirectoryCache = CacheBuilder.newBuilder().build(
+                new CacheLoader<String, RAMDirectory>() {
+                    @Override
+                    public RAMDirectory load(String field) throws Exception {
+                        return new RAMDirectory();
+                    }
+                }
+        );
+
+        dictCache = CacheBuilder.newBuilder().build(
+                new CacheLoader<String, Dictionary>() {
+                    @Override
+                    public Dictionary load(String field) throws Exception {
+                        return tracking(null, buildService.throttle(new HighFrequencyDictionary(searcher.reader(), field, 0.00001f), rateLimiter));
+                    }
+                }
+        );
+
+        spellCheckerCache = CacheBuilder.newBuilder().build(new BuildPermitCacheLoader<String, SpellChecker>(buildService,
+                new AccountingCacheLoader<String, SpellChecker>(SPELLCHECKER, new CacheLoader<String, SpellChecker>() {
+                    @Override
+                    public SpellChecker load(String field) throws Exception {
+                        RAMDirectory ramDirectory = ramDirectoryCache.get(field);
+                        SpellChecker spellChecker = new SpellChecker(ramDirectory);
+                        IndexWriterConfig indexWriterConfig = new IndexWriterConfig(Version.LUCENE_44, new WhitespaceAnalyzer(Version.LUCENE_44));
+                        try {
+                            spellChecker.indexDictionary(dictCache.getUnchecked(field), indexWriterConfig, false);
+                        } catch (Exception e) {
+                            // drop the partially written index, it is started from scratch on the next build
+                            ramDirectoryCache.invalidate(field);
+                            IOUtils.closeWhileHandlingException(spellChecker, ramDirectory);
+                            throw e;
+                        }
+                        return spellChecker;
+                    }
+                })
+        ));
+
+        lookupCache = CacheBuilder.newBuilder().build(new BuildPermitCacheLoader<String, Lookup>(buildService,
+                new AccountingCacheLoader<String, Lookup>(FST, new CacheLoader<String, Lookup>() {
+                    @Override
+                    public Lookup load(String field) throws Exception {
+                        if (offHeapLocation != null) {
+                            OffHeapLookup lookup = new OffHeapLookup(offHeapLocation, field);
+                            lookup.build(dictCache.getUnchecked(field));
+                            persist(OFF_HEAP, fieldKey(field), lookup);
+                            return lookup;
+                        }
+
+                        FSTCompletionLookup lookup = new FSTCompletionLookup();
+                        lookup.build(dictCache.getUnchecked(field));
+                        persist(FST, fieldKey(field), lookup);
+                        return lookup;
+                    }
+                })
+        ));
+
+        // the lookup is built with its own permit, before the permit for the table is taken. The table reads the
+        // terms of the field like the lookup, from the buffered terms while warming up
+        prefixTableCache = CacheBuilder.newBuilder().build(
+                new AccountingCacheLoader<String, PrefixTable>(PREFIX_TABLE, new CacheLoader<String, PrefixTable>() {
+                    @Override
+                    public PrefixTable load(final String field) throws Exception {
+                        lookup(field);
+                        return buildService.build(new Callable<PrefixTable>() {
+                            @Override
+                            public PrefixTable call() throws Exception {
+                                // one more result than requested is looked up, see ShardSuggestService
+                                return PrefixTable.build(dictCache.getUnchecked(field), prefixTableLength, prefixTableSize + 1);
+                            }
+                        });
+                    }
+                })
+        );
+
+        // segment lookups take a build permit per segment
+        segmentLookupCache = CacheBuilder.newBuilder().build(
+                new AccountingCacheLoader<String, SegmentLookup>(SEGMENT, new CacheLoader<String, SegmentLookup>() {
+                    @Override
+                    public SegmentLookup load(String field) throws Exception {
+                        return SegmentLookup.build(searcher.reader(), field, null, buildService, rateLimiter);
+                    }
+                })
+        );
+
+        analyzingSuggesterLoader = new AbstractCacheLoaderSuggester.CacheLoaderAnalyzingSuggester(mapperService, analysisService, dictCache);
+        analyzingSuggesterCache = CacheBuilder.newBuilder().build(new BuildPermitCacheLoader<ShardSuggestService.FieldType, AnalyzingSuggester>(buildService,
+                new AccountingCacheLoader<ShardSuggestService.FieldType, AnalyzingSuggester>(ANALYZING,
+                        new PersistingCacheLoader<AnalyzingSuggester>(ANALYZING, analyzingSuggesterLoader))));
+
+        fuzzySuggesterLoader = new AbstractCacheLoaderSuggester.CacheLoaderFuzzySuggester(mapperService, analysisService, dictCache);
+        fuzzySuggesterCache = CacheBuilder.newBuilder().build(new BuildPermitCacheLoader<ShardSuggestService.FieldType, FuzzySuggester>(buildService,
+                new AccountingCacheLoader<ShardSuggestService.FieldType, FuzzySuggester>(FUZZY,
+                        new PersistingCacheLoader<FuzzySuggester>(FUZZY, fuzzySuggesterLoader))));
+    }
+
+    public IndexReader reader() {
+        return searcher.reader();
+    }
+
+    /**
+     * Returns true, if both snapshots have been created from the same segments with the same deletions, so that
+     * building the structures of one snapshot from the reader of the other one would not change them
+     */
+    public boolean sameReader(SuggesterSnapshot other) {
+        return readerTag != null && readerTag.equals(other.readerTag) && readerVersion == other.readerVersion;
+    }
+
+    /**
+     * A node wide unique number of this snapshot, newer snapshots have higher numbers
+     */
+    public long generation() {
+        return generation;
+    }
+
+    public Lookup lookup(String field) {
+        return get(FST, lookupCache, field);
+    }
+
+    @Nullable
+    public Lookup lookupIfBuilt(String field) {
+        return getIfBuilt(FST, lookupCache, field);
+    }
+
+    public Map<String, Lookup> lookups() {
+        return lookupCache.asMap();
+    }
+
+    /**
+     * Returns the prefix table of the lookup of the field or null, if prefix tables are disabled or the table
+     * does not fit into the memory budget, in which case the lookup has to be used
+     */
+    @Nullable
+    public PrefixTable prefixTable(String field) {
+        if (prefixTableLength <= 0) {
+            return null;
+        }
+        try {
+            return get(PREFIX_TABLE, prefixTableCache, field);
+        } catch (CircuitBreakingException e) {
+            logger.debug("Not building prefix table for [{}]: {}", field, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Like {@link #prefixTable(String)}, but returns null instead of waiting for the table to be built. The build of
+     * the table is only started, once the lookup of the field has been built
+     */
+    @Nullable
+    public PrefixTable prefixTableIfBuilt(String field) {
+        if (prefixTableLength <= 0 || lookupCache.getIfPresent(field) == null) {
+            return null;
+        }
+        return getIfBuilt(PREFIX_TABLE, prefixTableCache, field);
+    }
+
+    public Map<String, PrefixTable> prefixTables() {
+        return prefixTableCache.asMap();
+    }
+
+    /**
+     * Returns the prefixes known to return nothing for this reader or null, if they are not recorded.
+     * They are not taken over by the next snapshot
+     */
+    @Nullable
+    public DeadPrefixes deadPrefixes(ShardSuggestService.FieldType fieldType) {
+        if (deadPrefixesSize <= 0) {
+            return null;
+        }
+        DeadPrefixes fieldDeadPrefixes = deadPrefixes.get(fieldType);
+        if (fieldDeadPrefixes == null) {
+            DeadPrefixes existing = deadPrefixes.putIfAbsent(fieldType, fieldDeadPrefixes = new DeadPrefixes(deadPrefixesSize));
+            if (existing != null) {
+                fieldDeadPrefixes = existing;
+            }
+        }
+        return fieldDeadPrefixes;
+    }
+
+    public SegmentLookup segmentLookup(String field) {
+        return get(SEGMENT, segmentLookupCache, field);
+    }
+
+    @Nullable
+    public SegmentLookup segmentLookupIfBuilt(String field) {
+        return getIfBuilt(SEGMENT, segmentLookupCache, field);
+    }
+
+    public AnalyzingSuggester analyzingSuggester(ShardSuggestService.FieldType fieldType) {
+        return get(ANALYZING, analyzingSuggesterCache, fieldType);
+    }
+
+    @Nullable
+    public AnalyzingSuggester analyzingSuggesterIfBuilt(ShardSuggestService.FieldType fieldType) {
+        return getIfBuilt(ANALYZING, analyzingSuggesterCache, fieldType);
+    }
+
+    public FuzzySuggester fuzzySuggester(ShardSuggestService.FieldType fieldType) {
+        return get(FUZZY, fuzzySuggesterCache, fieldType);
+    }
+
+    @Nullable
+    public FuzzySuggester fuzzySuggesterIfBuilt(ShardSuggestService.FieldType fieldType) {
+        return getIfBuilt(FUZZY, fuzzySuggesterCache, fieldType);
+    }
+
+    public SpellChecker spellChecker(String field) {
+        return get(SPELLCHECKER, spellCheckerCache, field);
+    }
+
+    @Nullable
+    public SpellChecker spellCheckerIfBuilt(String field) {
+        return getIfBuilt(SPELLCHECKER, spellCheckerCache, field);
+    }
+
+    /**
+     * Returns the structure from the cache, building it if needed, and marks it as recently used.
+     * Exceptions of the build, like a refused build, are rethrown unwrapped
+     */
+    private <K, V> V get(String type, LoadingCache<K, V> cache, K key) {
+        V structure;
+        try {
+            structure = cache.getUnchecked(key);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof ElasticsearchException) {
+                throw (ElasticsearchException) e.getCause();
+            }
+            throw e;
+        }
+        touch(type, key);
+        return structure;
+    }
+
+    /**
+     * Returns the structure, if it has been built already. Otherwise its build is started on the suggest build pool,
+     * unless it is running already, and null is returned without waiting for it
+     */
+    @Nullable
+    private <K, V> V getIfBuilt(final String type, final LoadingCache<K, V> cache, final K key) {
+        V structure = cache.getIfPresent(key);
+        if (structure != null) {
+            touch(type, key);
+            return structure;
+        }
+
+        final List<Object> buildKey = accountingKey(type, key);
+        if (!backgroundBuilds.add(buildKey)) {
+            return null;
+        }
+        if (!tryIncRef()) {
+            backgroundBuilds.remove(buildKey);
+            return null;
+        }
+        try {
+            buildService.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        get(type, cache, key);
+                    } catch (Exception e) {
+                        logger.debug("Could not build [{}] suggester for [{}] in the background", e, type, key);
+                    } finally {
+                        backgroundBuilds.remove(buildKey);
+                        decRef();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Not building [{}] suggester for [{}] in the background: {}", type, key, e.getMessage());
+            backgroundBuilds.remove(buildKey);
+            decRef();
+        }
+        return null;
+    }
+
+    private void touch(String type, Object key) {
+        AccountedStructure accountedStructure = accountedStructures.get(accountingKey(type, key));
+        if (accountedStructure != null) {
+            accountedStructure.account.touch();
+        }
+    }
+
+    public Map<ShardSuggestService.FieldType, AnalyzingSuggester> analyzingSuggesters() {
+        return analyzingSuggesterCache.asMap();
+    }
+
+    public Map<ShardSuggestService.FieldType, FuzzySuggester> fuzzySuggesters() {
+        return fuzzySuggesterCache.asMap();
+    }
+
+    /**
+     * Builds all structures, which have been used in the previous snapshot, against the reader of this snapshot.
+     * If a field is specified, only the structures of this field are rebuilt, all others are taken over from the
+     * previous snapshot. Spellcheckers are always rebuilt, as they are closed together with their snapshot.
+     *
+     * The terms of every field are scanned once in parallel on the suggest build pool, afterwards all structures
+     * are built in parallel from the buffered terms. The calling thread waits until everything is built.
+     * The buffered terms are reserved at the memory service until the builds are done, fields exceeding the limits
+     * are not buffered.
+     */
+    public void warmUp(SuggesterSnapshot previous, String field, final SuggestRefreshTask task) {
+        Set<String> fields = Sets.newHashSet();
+        List<Callable<Object>> buildTasks = Lists.newArrayList();
+
+        Map<List<Object>, Long> sizes = Maps.newHashMap();
+        for (Map.Entry<List<Object>, AccountedStructure> entry : previous.accountedStructures.entrySet()) {
+            sizes.put(entry.getKey(), entry.getValue().sizeInBytes());
+        }
+        previousSizes = sizes;
+
+        for (Map.Entry<String, Lookup> entry : previous.lookupCache.asMap().entrySet()) {
+            final String lookupField = entry.getKey();
+            if (field == null || field.equals(lookupField)) {
+                fields.add(lookupField);
+                final boolean prefixTable = previous.prefixTableCache.asMap().containsKey(lookupField);
+                buildTasks.add(tracked(task, FST, lookupField, new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        Lookup lookup = warm(FST, lookupCache, lookupField);
+                        if (lookup != null && prefixTable) {
+                            warm(PREFIX_TABLE, prefixTableCache, lookupField);
+                        }
+                        return lookup;
+                    }
+                }));
+            } else {
+                takeOver(FST, lookupCache, lookupField, retain(entry.getValue()));
+                PrefixTable prefixTable = previous.prefixTableCache.asMap().get(lookupField);
+                if (prefixTable != null) {
+                    takeOver(PREFIX_TABLE, prefixTableCache, lookupField, prefixTable);
+                }
+            }
+        }
+
+        // segment lookups read their terms per segment and only for new segments, they do not need the buffered terms
+        for (final Map.Entry<String, SegmentLookup> entry : previous.segmentLookupCache.asMap().entrySet()) {
+            final String segmentLookupField = entry.getKey();
+            if (field == null || field.equals(segmentLookupField)) {
+                buildTasks.add(tracked(task, SEGMENT, segmentLookupField, new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        SuggestMemoryService.Account account;
+                        try {
+                            account = reserve(SEGMENT, segmentLookupField);
+                        } catch (CircuitBreakingException e) {
+                            logger.warn("Not building segment lookups of field [{}]: {}", segmentLookupField, e.getMessage());
+                            return null;
+                        }
+
+                        SegmentLookup segmentLookup;
+                        try {
+                            segmentLookup = SegmentLookup.build(searcher.reader(), segmentLookupField, entry.getValue(), buildService, rateLimiter);
+                        } catch (Exception e) {
+                            memoryService.cancel(account);
+                            throw e;
+                        }
+                        logger.debug("Built [{}] of [{}] segment lookups for field [{}]", segmentLookup.segmentsBuilt(), segmentLookup.segments(), segmentLookupField);
+                        segmentLookupCache.put(segmentLookupField, segmentLookup);
+                        built(SEGMENT, segmentLookupField, segmentLookup, account);
+                        return segmentLookup;
+                    }
+                }));
+            } else {
+                takeOver(SEGMENT, segmentLookupCache, segmentLookupField, entry.getValue());
+            }
+        }
+
+        for (Map.Entry<ShardSuggestService.FieldType, AnalyzingSuggester> entry : previous.analyzingSuggesters().entrySet()) {
+            final ShardSuggestService.FieldType fieldType = entry.getKey();
+            if (field == null || field.equals(fieldType.field())) {
+                fields.add(fieldType.field());
+                buildTasks.add(tracked(task, ANALYZING, fieldType, new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return warm(ANALYZING, analyzingSuggesterCache, fieldType);
+                    }
+                }));
+            } else {
+                takeOver(ANALYZING, analyzingSuggesterCache, fieldType, entry.getValue());
+            }
+        }
+
+        for (Map.Entry<ShardSuggestService.FieldType, FuzzySuggester> entry : previous.fuzzySuggesters().entrySet()) {
+            final ShardSuggestService.FieldType fieldType = entry.getKey();
+            if (field == null || field.equals(fieldType.field())) {
+                fields.add(fieldType.field());
+                buildTasks.add(tracked(task, FUZZY, fieldType, new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return warm(FUZZY, fuzzySuggesterCache, fieldType);
+                    }
+                }));
+            } else {
+                takeOver(FUZZY, fuzzySuggesterCache, fieldType, entry.getValue());
+            }
+        }
+
+        for (final String spellCheckerField : previous.spellCheckerCache.asMap().keySet()) {
+            fields.add(spellCheckerField);
+            buildTasks.add(tracked(task, SPELLCHECKER, spellCheckerField, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return warm(SPELLCHECKER, spellCheckerCache, spellCheckerField);
+                }
+            }));
+        }
+
+        final List<SuggestMemoryService.Account> bufferAccounts = Collections.synchronizedList(Lists.<SuggestMemoryService.Account>newArrayList());
+        List<Callable<Object>> scanTasks = Lists.newArrayList();
+        for (final String fieldToScan : fields) {
+            scanTasks.add(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    // fields, whose buffered terms do not fit into the memory limits, are read again by every build
+                    SuggestMemoryService.Account account;
+                    try {
+                        account = reserve(BUFFER, fieldToScan);
+                    } catch (CircuitBreakingException e) {
+                        logger.debug("Not buffering terms of field [{}]: {}", fieldToScan, e.getMessage());
+                        return null;
+                    }
+                    bufferAccounts.add(account);
+
+                    SuggestRefreshTask.Build build = task.startBuild(null, new ShardSuggestService.FieldType(fieldToScan));
+                    Dictionary dictionary = tracking(build, buildService.throttle(new HighFrequencyDictionary(searcher.reader(), fieldToScan, 0.00001f), rateLimiter));
+                    try {
+                        BufferedDictionary bufferedDictionary = BufferedDictionary.buffer(dictionary);
+                        build.done(bufferedDictionary.ramBytesUsed());
+                        dictCache.put(fieldToScan, tracking(null, bufferedDictionary));
+                    } catch (IOException e) {
+                        throw new ElasticsearchException("Could not read terms of field [" + fieldToScan + "]", e);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            runOnBuildPool(scanTasks);
+            task.phase(SuggestRefreshTask.Phase.BUILDING);
+            runOnBuildPool(buildTasks);
+        } finally {
+            // the buffered terms are only needed while building
+            dictCache.invalidateAll();
+            for (SuggestMemoryService.Account account : bufferAccounts) {
+                memoryService.cancel(account);
+            }
+        }
+    }
+
+    /**
+     * Registers the build of a structure at the task and makes it the build of the running thread, while it runs
+     */
+    private Callable<Object> tracked(final SuggestRefreshTask task, final String type, final Object key, final Callable<Object> callable) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                ShardSuggestService.FieldType fieldType = key instanceof ShardSuggestService.FieldType ?
+                        (ShardSuggestService.FieldType) key : new ShardSuggestService.FieldType((String) key);
+                SuggestRefreshTask.Build build = task.startBuild(type, fieldType);
+                build.bytesAllocated(estimate(type, key));
+                currentBuild.set(build);
+                try {
+                    Object structure = callable.call();
+                    AccountedStructure accountedStructure = accountedStructures.get(accountingKey(type, key));
+                    build.done(accountedStructure == null ? 0 : accountedStructure.sizeInBytes());
+                    return structure;
+                } finally {
+                    currentBuild.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * Counts the terms read from the dictionary for the build, or for the build of the reading thread, if none is
+     * given. Reading fails, once this snapshot has been cancelled
+     */
+    private Dictionary tracking(@Nullable final SuggestRefreshTask.Build build, final Dictionary dictionary) {
+        return new Dictionary() {
+            @Override
+            public InputIterator getEntryIterator() throws IOException {
+                SuggestRefreshTask.Build trackedBuild = build == null ? currentBuild.get() : build;
+                InputIterator iterator = new CancellableInputIterator(dictionary.getEntryIterator());
+                return trackedBuild == null ? iterator : trackedBuild.track(iterator);
+            }
+        };
+    }
+
+    /**
+     * Makes the running builds of this snapshot fail at the next term they read, and refuses further builds
+     */
+    public void cancel(String reason) {
+        if (cancelReason == null) {
+            cancelReason = reason;
+        }
+    }
+
+    private void ensureNotCancelled() {
+        String reason = cancelReason;
+        if (reason != null) {
+            throw new ElasticsearchException("Suggesters of shard " + shardId + " have been cancelled: " + reason);
+        }
+    }
+
+    /**
+     * Builds a structure while warming up. Structures, which do not fit into the memory budget anymore, are skipped
+     * instead of failing the whole refresh, they are built lazily on their next use, if there is enough memory then
+     */
+    private <K, V> V warm(String type, LoadingCache<K, V> cache, K key) {
+        try {
+            return get(type, cache, key);
+        } catch (CircuitBreakingException e) {
+            logger.warn("Not building [{}] suggester for [{}]: {}", type, key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void runOnBuildPool(List<Callable<Object>> tasks) {
+        List<Future<Object>> futures = Lists.newArrayListWithCapacity(tasks.size());
+        try {
+            for (Callable<Object> task : tasks) {
+                futures.add(buildService.executor().submit(task));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("Interrupted while building suggesters", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ElasticsearchException) {
+                throw (ElasticsearchException) e.getCause();
+            }
+            throw new ElasticsearchException("Could not build suggesters", e.getCause());
+        } finally {
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Fills this snapshot with the lookups stored for the reader of this snapshot, so they do not need to be built again.
+     * Stored lookups of other readers are deleted. Returns the number of loaded lookups
+     */
+    public int loadStored() {
+        if (store == null || tag == null) {
+            return 0;
+        }
+
+        int loaded = 0;
+        for (SuggesterStore.StoredLookup storedLookup : store.list(tag)) {
+            try {
+                StreamInput key = storedLookup.key().streamInput();
+                if (FST.equals(storedLookup.type())) {
+                    if (offHeapLocation != null) {
+                        // stored before switching to off heap lookups, these are rebuilt on first use
+                        continue;
+                    }
+                    FSTCompletionLookup lookup = new FSTCompletionLookup();
+                    storedLookup.load(lookup);
+                    takeOver(FST, lookupCache, key.readString(), (Lookup) lookup);
+                } else if (OFF_HEAP.equals(storedLookup.type())) {
+                    if (offHeapLocation == null) {
+                        // stored before switching back to heap lookups, these are rebuilt on first use
+                        continue;
+                    }
+                    String field = key.readString();
+                    OffHeapLookup lookup = new OffHeapLookup(offHeapLocation, field);
+                    try {
+                        storedLookup.load(lookup);
+                    } catch (IOException e) {
+                        // deletes the copy, if the checksum of the stored file does not match
+                        lookup.decRef();
+                        throw e;
+                    }
+                    takeOver(FST, lookupCache, field, (Lookup) lookup);
+                } else if (ANALYZING.equals(storedLookup.type())) {
+                    ShardSuggestService.FieldType fieldType = readFieldType(key);
+                    if (!analysisDigest.equals(key.readString())) {
+                        // built with analyzers, which have been redefined since
+                        storedLookup.delete();
+                        continue;
+                    }
+                    AnalyzingSuggester suggester = analyzingSuggesterLoader.create(fieldType);
+                    storedLookup.load(suggester);
+                    takeOver(ANALYZING, analyzingSuggesterCache, fieldType, suggester);
+                } else if (FUZZY.equals(storedLookup.type())) {
+                    ShardSuggestService.FieldType fieldType = readFieldType(key);
+                    if (!analysisDigest.equals(key.readString())) {
+                        storedLookup.delete();
+                        continue;
+                    }
+                    FuzzySuggester suggester = fuzzySuggesterLoader.create(fieldType);
+                    storedLookup.load(suggester);
+                    takeOver(FUZZY, fuzzySuggesterCache, fieldType, suggester);
+                } else {
+                    continue;
+                }
+                loaded++;
+            } catch (Exception e) {
+                logger.warn("Could not load stored [{}] suggester, deleting it", e, storedLookup.type());
+                storedLookup.delete();
+            }
+        }
+        logger.debug("Loaded [{}] stored suggesters", loaded);
+        return loaded;
+    }
+
+    /**
+     * Deletes all stored lookups, which do not belong to the reader of this snapshot
+     */
+    public void cleanStored() {
+        if (store != null && tag != null) {
+            store.clean(tag);
+        }
+    }
+
+    private void persist(String type, BytesReference key, Lookup lookup) {
+        if (store != null && tag != null) {
+            store.store(tag, type, key, lookup);
+        }
+    }
+
+    private static BytesReference fieldKey(String field) throws IOException {
+        BytesStreamOutput out = new BytesStreamOutput();
+        out.writeString(field);
+        return out.bytes();
+    }
+
+    /**
+     * The key of analyzing and fuzzy suggesters contains the analyzer names of the field type and a digest of the
+     * analysis settings of the index, as the analyzers of a closed index can be redefined
+     */
+    private BytesReference fieldTypeKey(ShardSuggestService.FieldType fieldType) throws IOException {
+        BytesStreamOutput out = new BytesStreamOutput();
+        fieldType.writeTo(out);
+        out.writeString(analysisDigest);
+        return out.bytes();
+    }
+
+    private static String analysisDigest(Settings indexSettings) {
+        Map<String, String> analysisSettings = new TreeMap<String, String>(indexSettings.getByPrefix("index.analysis.").getAsMap());
+        BytesStreamOutput out = new BytesStreamOutput();
+        try {
+            out.writeVInt(analysisSettings.size());
+            for (Map.Entry<String, String> entry : analysisSettings.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeString(entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new ElasticsearchIllegalStateException("Could not write analysis settings", e);
+        }
+        return SuggesterStore.digest(out.bytes());
+    }
+
+    private static ShardSuggestService.FieldType readFieldType(StreamInput in) throws IOException {
+        ShardSuggestService.FieldType fieldType = new ShardSuggestService.FieldType();
+        fieldType.readFrom(in);
+        return fieldType;
+    }
+
+    private SuggestMemoryService.Account reserve(String type, Object key) {
+        String description = type + " suggester for [" + key + "] of shard " + shardId;
+        return memoryService.reserve(shardId.index().name(), description, estimate(type, key), evictable(type));
+    }
+
+    private void built(String type, Object key, Object structure, SuggestMemoryService.Account reservation) {
+        // prefix tables are built along with the lookup of their field, which is counted already
+        if (!PREFIX_TABLE.equals(type)) {
+            builtCounter.inc();
+        }
+        AccountedStructure accountedStructure = new AccountedStructure(type, key, structure);
+        accountedStructure.account = memoryService.built(reservation, structure, accountedStructure.sizeInBytes(), accountedStructure);
+        accountedStructures.put(accountingKey(type, key), accountedStructure);
+    }
+
+    /**
+     * Puts a structure, which has not been built by this snapshot, into the cache and accounts it
+     */
+    private <K, V> void takeOver(String type, LoadingCache<K, V> cache, K key, V structure) {
+        cache.put(key, structure);
+        AccountedStructure accountedStructure = new AccountedStructure(type, key, structure);
+        String description = type + " suggester for [" + key + "] of shard " + shardId;
+        accountedStructure.account = memoryService.share(shardId.index().name(), description, structure,
+                accountedStructure.sizeInBytes(), evictable(type), accountedStructure);
+        accountedStructures.put(accountingKey(type, key), accountedStructure);
+    }
+
+    /**
+     * Off heap lookups and spellcheckers may be used by running queries, they are only released with their snapshot
+     */
+    private boolean evictable(String type) {
+        return !SPELLCHECKER.equals(type) && !(FST.equals(type) && offHeapLocation != null);
+    }
+
+    /**
+     * Uses the size of the structure in the previous snapshot, falls back to a rough size per term of the field
+     */
+    private long estimate(String type, Object key) {
+        Long previousSize = previousSizes.get(accountingKey(type, key));
+        if (previousSize != null) {
+            return previousSize;
+        }
+
+        String field = key instanceof ShardSuggestService.FieldType ? ((ShardSuggestService.FieldType) key).field() : (String) key;
+        long terms = 0;
+        try {
+            for (AtomicReaderContext context : searcher.reader().leaves()) {
+                Terms fieldTerms = context.reader().terms(field);
+                if (fieldTerms != null && fieldTerms.size() > 0) {
+                    terms += fieldTerms.size();
+                }
+            }
+        } catch (IOException e) {
+            throw new ElasticsearchException("Could not read terms of field [" + field + "]", e);
+        }
+        return terms * estimatedBytesPerTerm(type);
+    }
+
+    private long estimatedBytesPerTerm(String type) {
+        if (FST.equals(type)) {
+            return offHeapLocation == null ? 16 : 0;
+        } else if (SEGMENT.equals(type)) {
+            return 16;
+        } else if (PREFIX_TABLE.equals(type)) {
+            // only short prefixes are stored, their number grows much slower than the number of terms
+            return 1;
+        } else if (BUFFER.equals(type)) {
+            // the bytes of the term, its offset and its weight
+            return 32;
+        } else if (SPELLCHECKER.equals(type)) {
+            // the n-gram index contains several grams per term
+            return 256;
+        }
+        // analyzed and surface forms
+        return 48;
+    }
+
+    /**
+     * An FST completion lookup built from a field without terms has no FST and fails to compute its size
+     */
+    static long ramBytesUsed(Lookup lookup) {
+        try {
+            if (lookup instanceof FSTCompletionLookup && lookup.getCount() == 0) {
+                return 0;
+            }
+        } catch (IOException e) {
+            throw new ElasticsearchException("Could not count terms of lookup", e);
+        }
+        return lookup.ramBytesUsed();
+    }
+
+    private static List<Object> accountingKey(String type, Object key) {
+        return Arrays.asList(type, key);
+    }
+
+    /**
+     * Off heap lookups taken over from a previous snapshot need another reference, so that their file is kept
+     * until both snapshots are closed
+     */
+    private static Lookup retain(Lookup lookup) {
+        if (lookup instanceof OffHeapLookup && !((OffHeapLookup) lookup).tryIncRef()) {
+            throw new ElasticsearchIllegalStateException("Off heap lookup has already been closed");
+        }
+        return lookup;
+    }
+
+    public boolean tryIncRef() {
+        int count;
+        while ((count = refCount.get()) > 0) {
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void decRef() {
+        if (refCount.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    private void close() {
+        for (Map.Entry<String, SpellChecker> entry : spellCheckerCache.asMap().entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                logger.error("Could not close spellchecker for field [{}]", e, entry.getKey());
+            }
+        }
+        for (RAMDirectory ramDirectory : ramDirectoryCache.asMap().values()) {
+            ramDirectory.close();
+        }
+        for (Lookup lookup : lookupCache.asMap().values()) {
+            if (lookup instanceof OffHeapLookup) {
+                ((OffHeapLookup) lookup).decRef();
+            }
+        }
+        for (AccountedStructure accountedStructure : accountedStructures.values()) {
+            memoryService.release(accountedStructure.structure, accountedStructure);
+        }
+        accountedStructures.clear();
+
+        spellCheckerCache.invalidateAll();
+        ramDirectoryCache.invalidateAll();
+        dictCache.invalidateAll();
+        lookupCache.invalidateAll();
+        prefixTableCache.invalidateAll();
+        segmentLookupCache.invalidateAll();
+        analyzingSuggesterCache.invalidateAll();
+        fuzzySuggesterCache.invalidateAll();
+        searcher.close();
+    }
+
+    /**
+     * Stores every suggester after it has been built
+     */
+    private class PersistingCacheLoader<V extends Lookup> extends CacheLoader<ShardSuggestService.FieldType, V> {
+
+        private final String type;
+        private final CacheLoader<ShardSuggestService.FieldType, V> delegate;
+
+        PersistingCacheLoader(String type, CacheLoader<ShardSuggestService.FieldType, V> delegate) {
+            this.type = type;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public V load(ShardSuggestService.FieldType fieldType) throws Exception {
+            V suggester = delegate.load(fieldType);
+            persist(type, fieldTypeKey(fieldType), suggester);
+            return suggester;
+        }
+    }
+
+    /**
+     * Reserves the estimated size of a structure in the memory budget before building it
+     */
+    private class AccountingCacheLoader<K, V> extends CacheLoader<K, V> {
+
+        private final String type;
+        private final CacheLoader<K, V> delegate;
+
+        AccountingCacheLoader(String type, CacheLoader<K, V> delegate) {
+            this.type = type;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public V load(K key) throws Exception {
+            ensureNotCancelled();
+            SuggestMemoryService.Account reservation = reserve(type, key);
+            V structure;
+            try {
+                structure = delegate.load(key);
+            } catch (Exception e) {
+                memoryService.cancel(reservation);
+                throw e;
+            }
+            built(type, key, structure, reservation);
+            return structure;
+        }
+    }
+
+    /**
+     * A structure of this snapshot, which is accounted in the memory budget. Evicting it removes it from this snapshot
+     */
+    private class AccountedStructure implements Runnable {
+
+        private final String type;
+        private final Object key;
+        private final Object structure;
+        private volatile SuggestMemoryService.Account account;
+
+        AccountedStructure(String type, Object key, Object structure) {
+            this.type = type;
+            this.key = key;
+            this.structure = structure;
+        }
+
+        long sizeInBytes() {
+            if (structure instanceof Lookup) {
+                return ramBytesUsed((Lookup) structure);
+            } else if (structure instanceof SegmentLookup) {
+                return ((SegmentLookup) structure).ramBytesUsed();
+            } else if (structure instanceof PrefixTable) {
+                return ((PrefixTable) structure).ramBytesUsed();
+            } else if (SPELLCHECKER.equals(type)) {
+                return ramDirectoryCache.getUnchecked((String) key).ramBytesUsed();
+            }
+            return 0;
+        }
+
+        @Override
+        public void run() {
+            accountedStructures.remove(accountingKey(type, key), this);
+            // the structure may have been replaced already
+            if (FST.equals(type)) {
+                lookupCache.asMap().remove(key, structure);
+            } else if (PREFIX_TABLE.equals(type)) {
+                prefixTableCache.asMap().remove(key, structure);
+            } else if (SEGMENT.equals(type)) {
+                segmentLookupCache.asMap().remove(key, structure);
+            } else if (ANALYZING.equals(type)) {
+                analyzingSuggesterCache.asMap().remove(key, structure);
+            } else if (FUZZY.equals(type)) {
+                fuzzySuggesterCache.asMap().remove(key, structure);
+            }
+        }
+    }
+
+    /**
+     * Checks for every term read, if this snapshot has been cancelled
+     */
+    private class CancellableInputIterator implements InputIterator {
+
+        private final InputIterator delegate;
+
+        CancellableInputIterator(InputIterator delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public BytesRef next() throws IOException {
+            ensureNotCancelled();
+            return delegate.next();
+        }
+
+        @Override
+        public long weight() {
+            return delegate.weight();
+        }
+
+        @Override
+        public BytesRef payload() {
+            return delegate.payload();
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return delegate.hasPayloads();
+        }
+
+        @Override
+        public Set<BytesRef> contexts() {
+            return delegate.contexts();
+        }
+
+        @Override
+        public boolean hasContexts() {
+            return delegate.hasContexts();
+        }
+
+        @Override
+        public Comparator<BytesRef> getComparator() {
+            return delegate.getComparator();
+        }
+    }
+
+    /**
+     * Makes sure, that a structure is only built, when a build permit of this node is available
+     */
+    private static class BuildPermitCacheLoader<K, V> extends CacheLoader<K, V> {
+
+        private final SuggestBuildService buildService;
+        private final CacheLoader<K, V> delegate;
+
+        BuildPermitCacheLoader(SuggestBuildService buildService, CacheLoader<K, V> delegate) {
+            this.buildService = buildService;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public V load(final K key) throws Exception {
+            return buildService.build(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    return delegate.load(key);
+                }
+            });
+        }
+    }
+}
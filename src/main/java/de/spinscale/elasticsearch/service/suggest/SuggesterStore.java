@@ -0,0 +1,264 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.SimpleFSDirectory;
+import org.apache.lucene.util.IOUtils;
+import org.elasticsearch.ElasticsearchIllegalStateException;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.lucene.SegmentReaderUtils;
+import org.elasticsearch.common.logging.ESLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes built lookups next to the data of a shard and reads them back, so that they do not need to be rebuilt
+ * after a node restart.
+ *
+ * Every file starts with a versioned codec header, followed by the tag of the index reader the lookup was built from,
+ * the type and the serialized key of the lookup, the data written by {@link Lookup#store} and a checksum footer.
+ * The tag consists of the names, deletion generations and document counts of all segments of the reader, stored
+ * lookups are only used if the tag of the current reader is the same. Files are named after the type and a digest of
+ * the key of the lookup.
+ */
+public class SuggesterStore {
+
+    static final String CODEC = "suggest_lookup";
+    static final int VERSION_START = 0;
+    static final int VERSION_CURRENT = VERSION_START;
+
+    private static final String SUFFIX = ".lookup";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final AtomicLong tempCounter = new AtomicLong();
+
+    private final ESLogger logger;
+    private final File location;
+
+    public SuggesterStore(ESLogger logger, File location) {
+        this.logger = logger;
+        this.location = location;
+    }
+
+    /**
+     * Returns the tag of the reader, or null if the reader does not consist of segment readers only
+     */
+    public static String tag(IndexReader reader) {
+        StringBuilder tag = new StringBuilder();
+        for (AtomicReaderContext context : reader.leaves()) {
+            SegmentReader segmentReader = SegmentReaderUtils.segmentReaderOrNull(context.reader());
+            if (segmentReader == null) {
+                return null;
+            }
+            if (tag.length() > 0) {
+                tag.append(',');
+            }
+            tag.append(segmentReader.getSegmentName()).append('_').append(segmentReader.getSegmentInfo().getDelGen())
+                    .append('_').append(segmentReader.numDocs());
+        }
+        return tag.toString();
+    }
+
+    public void store(String tag, String type, BytesReference key, Lookup lookup) {
+        String name = type + "_" + digest(key) + SUFFIX;
+        String tempName = name + "." + tempCounter.incrementAndGet() + TEMP_SUFFIX;
+
+        Directory directory = null;
+        boolean stored = false;
+        try {
+            if (!location.exists() && !location.mkdirs()) {
+                logger.warn("Could not create directory [{}] to store suggesters", location);
+                return;
+            }
+
+            directory = new SimpleFSDirectory(location);
+            IndexOutput output = directory.createOutput(tempName, IOContext.DEFAULT);
+            try {
+                CodecUtil.writeHeader(output, CODEC, VERSION_CURRENT);
+                output.writeString(tag);
+                output.writeString(type);
+                output.writeVInt(key.length());
+                BytesReference bytes = key.toBytesArray();
+                output.writeBytes(bytes.array(), bytes.arrayOffset(), bytes.length());
+                stored = lookup.store(output);
+                CodecUtil.writeFooter(output);
+            } finally {
+                output.close();
+            }
+
+            if (stored) {
+                Files.move(new File(location, tempName).toPath(), new File(location, name).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not store [{}] suggester in [{}]", e, type, location);
+        } finally {
+            if (directory != null) {
+                deleteQuietly(new File(location, tempName));
+                IOUtils.closeWhileHandlingException(directory);
+            }
+        }
+    }
+
+    /**
+     * The SHA-1 digest of the key in hex, so that lookups with different keys never share a file
+     */
+    static String digest(BytesReference key) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new ElasticsearchIllegalStateException("SHA-1 is not available", e);
+        }
+        BytesReference bytes = key.toBytesArray();
+        messageDigest.update(bytes.array(), bytes.arrayOffset(), bytes.length());
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : messageDigest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    public boolean hasStoredLookups() {
+        String[] names = location.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(SUFFIX)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists all stored lookups, which have been built from a reader with the given tag. Lookups with other tags
+     * are outdated and are deleted
+     */
+    public List<StoredLookup> list(String tag) {
+        List<StoredLookup> storedLookups = Lists.newArrayList();
+        File[] files = location.listFiles();
+        if (files == null) {
+            return storedLookups;
+        }
+
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+
+            try {
+                StoredLookup storedLookup = readHeader(file);
+                if (tag.equals(storedLookup.tag)) {
+                    storedLookups.add(storedLookup);
+                } else {
+                    deleteQuietly(file);
+                }
+            } catch (IOException e) {
+                logger.warn("Could not read stored suggester [{}], deleting it", e, file);
+                deleteQuietly(file);
+            }
+        }
+
+        return storedLookups;
+    }
+
+    /**
+     * Deletes all stored lookups, which have not been built from a reader with the given tag
+     */
+    public void clean(String tag) {
+        list(tag);
+    }
+
+    private StoredLookup readHeader(File file) throws IOException {
+        Directory directory = new SimpleFSDirectory(location);
+        try {
+            IndexInput input = directory.openInput(file.getName(), IOContext.READONCE);
+            try {
+                return readHeader(file, input);
+            } finally {
+                input.close();
+            }
+        } finally {
+            directory.close();
+        }
+    }
+
+    private StoredLookup readHeader(File file, IndexInput input) throws IOException {
+        CodecUtil.checkHeader(input, CODEC, VERSION_START, VERSION_CURRENT);
+        String tag = input.readString();
+        String type = input.readString();
+        byte[] key = new byte[input.readVInt()];
+        input.readBytes(key, 0, key.length);
+        return new StoredLookup(file, tag, type, new BytesArray(key));
+    }
+
+    private void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.debug("Could not delete [{}]", file);
+        }
+    }
+
+    public class StoredLookup {
+
+        private final File file;
+        private final String tag;
+        private final String type;
+        private final BytesReference key;
+
+        StoredLookup(File file, String tag, String type, BytesReference key) {
+            this.file = file;
+            this.tag = tag;
+            this.type = type;
+            this.key = key;
+        }
+
+        public String type() {
+            return type;
+        }
+
+        public BytesReference key() {
+            return key;
+        }
+
+        /**
+         * Reads the stored data into the empty lookup and verifies the checksum of the file
+         */
+        public void load(Lookup lookup) throws IOException {
+            Directory directory = new SimpleFSDirectory(location);
+            try {
+                ChecksumIndexInput input = directory.openChecksumInput(file.getName(), IOContext.READONCE);
+                try {
+                    readHeader(file, input);
+                    lookup.load(input);
+                    CodecUtil.checkFooter(input);
+                } finally {
+                    input.close();
+                }
+            } finally {
+                directory.close();
+            }
+        }
+
+        public void delete() {
+            deleteQuietly(file);
+        }
+    }
+}
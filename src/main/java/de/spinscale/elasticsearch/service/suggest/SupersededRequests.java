@@ -0,0 +1,119 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import de.spinscale.elasticsearch.action.suggest.suggest.ShardSuggestRequest;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the latest suggest request of every typing session, so that shard operations of older requests
+ * of the same session can be skipped, as their suggestions are not shown to the user anymore.
+ *
+ * Sessions are keyed by the coordinating node and the session token of the request, as every coordinating node
+ * numbers its requests by itself. The coordinating node remembers, to which nodes the shard requests of the running
+ * request of a session have been sent, and notifies those nodes, when a newer request of the session arrives, so that
+ * shard operations still queued there are skipped as well.
+ */
+public class SupersededRequests extends AbstractComponent {
+
+    private final AtomicLong sequences = new AtomicLong();
+    // the running requests of the sessions coordinated by this node
+    private final Cache<String, RunningRequest> runningRequests;
+    // the latest request of every session seen by the shards of this node
+    private final Cache<String, Long> latestSequences;
+
+    @Inject
+    public SupersededRequests(Settings settings) {
+        super(settings);
+        int size = settings.getAsInt("suggest.cancel.sessions", 10000);
+        TimeValue expire = settings.getAsTime("suggest.cancel.expire", TimeValue.timeValueMinutes(1));
+        this.runningRequests = CacheBuilder.newBuilder().maximumSize(size).expireAfterWrite(expire.millis(), TimeUnit.MILLISECONDS).build();
+        this.latestSequences = CacheBuilder.newBuilder().maximumSize(size).expireAfterAccess(expire.millis(), TimeUnit.MILLISECONDS).build();
+        logger.debug("Tracking superseded requests of [{}] sessions, expire [{}]", size, expire);
+    }
+
+    public static String key(String coordinatingNode, String session) {
+        return coordinatingNode + "/" + session;
+    }
+
+    /**
+     * Registers a new request of the session on the coordinating node and returns the nodes, which have received
+     * shard requests of the request it supersedes, if that one is still running
+     */
+    public Set<String> start(String key, long sequence) {
+        supersede(key, sequence);
+        RunningRequest previous = runningRequests.asMap().put(key, new RunningRequest(sequence));
+        if (previous == null) {
+            return ImmutableSet.of();
+        }
+        return ImmutableSet.copyOf(previous.nodes);
+    }
+
+    public long nextSequence() {
+        return sequences.incrementAndGet();
+    }
+
+    /**
+     * Remembers, that a shard request of the running request of the session has been sent to the node
+     */
+    public void sent(String key, long sequence, String nodeId) {
+        RunningRequest request = runningRequests.getIfPresent(key);
+        if (request != null && request.sequence == sequence) {
+            request.nodes.add(nodeId);
+        }
+    }
+
+    public void done(String key, long sequence) {
+        ConcurrentMap<String, RunningRequest> requests = runningRequests.asMap();
+        RunningRequest request = requests.get(key);
+        if (request != null && request.sequence == sequence) {
+            requests.remove(key, request);
+        }
+    }
+
+    /**
+     * Remembers the sequence as the latest request of the session, unless a newer one is known already
+     */
+    public void supersede(String key, long sequence) {
+        ConcurrentMap<String, Long> latest = latestSequences.asMap();
+        while (true) {
+            Long current = latest.putIfAbsent(key, sequence);
+            if (current == null || current >= sequence || latest.replace(key, current, sequence)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns true, if a newer request of the session of the shard request has been seen on this node
+     */
+    public boolean superseded(ShardSuggestRequest request) {
+        if (request.session() == null || request.coordinatingNode() == null) {
+            return false;
+        }
+        String key = key(request.coordinatingNode(), request.session());
+        supersede(key, request.sequence());
+        Long latest = latestSequences.getIfPresent(key);
+        return latest != null && latest > request.sequence();
+    }
+
+    private static class RunningRequest {
+
+        private final long sequence;
+        private final Set<String> nodes = ConcurrentCollections.newConcurrentSet();
+
+        RunningRequest(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package de.spinscale.elasticsearch.service.suggest;
+
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.collect.ImmutableList;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state of the previous prefix lookup of every typing session on a shard, kept for a short time.
+ *
+ * If the next term of a session extends the previous prefix, the lookup continues from that state instead of
+ * starting from scratch: if the previous lookup returned all terms of the prefix, the results are filtered from
+ * them, otherwise an off heap lookup only searches the terms of the previous prefix.
+ */
+public class TypingSessions {
+
+    private final Cache<List<Object>, State> sessions;
+
+    public TypingSessions(int size, TimeValue expire) {
+        this.sessions = CacheBuilder.newBuilder().maximumSize(size).expireAfterAccess(expire.millis(), TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * Returns the state of the session, if it belongs to the snapshot and the term extends its prefix
+     */
+    @Nullable
+    public State resume(String session, String field, long generation, String term) {
+        State state = sessions.getIfPresent(key(session, field));
+        if (state == null || state.generation != generation || !term.startsWith(state.prefix)) {
+            return null;
+        }
+        return state;
+    }
+
+    public void update(String session, String field, State state) {
+        sessions.put(key(session, field), state);
+    }
+
+    public void clear() {
+        sessions.invalidateAll();
+    }
+
+    private static List<Object> key(String session, String field) {
+        return Arrays.<Object>asList(session, field);
+    }
+
+    public static class State {
+
+        private final long generation;
+        private final String prefix;
+        private final OffHeapLookup.Position position;
+        private final List<LookupResult> allResults;
+
+        /**
+         * @param position the ordinals of the terms of the prefix, if looked up off heap
+         * @param allResults all results of the prefix ordered like the lookup returns them, if they are known
+         */
+        public State(long generation, String prefix, @Nullable OffHeapLookup.Position position, @Nullable List<LookupResult> allResults) {
+            this.generation = generation;
+            this.prefix = prefix;
+            this.position = position;
+            this.allResults = allResults == null ? null : ImmutableList.copyOf(allResults);
+        }
+
+        @Nullable
+        public OffHeapLookup.Position position() {
+            return position;
+        }
+
+        public boolean complete() {
+            return allResults != null;
+        }
+
+        /**
+         * All results of the term filtered from all results of the previous prefix. Like a lookup, an exact match
+         * comes first, followed by the other results in the order of the lookup of the previous prefix
+         */
+        public List<LookupResult> filter(String term) {
+            List<LookupResult> results = Lists.newArrayList();
+            for (LookupResult result : allResults) {
+                String key = result.key.toString();
+                if (key.equals(term)) {
+                    results.add(0, result);
+                } else if (key.startsWith(term)) {
+                    results.add(result);
+                }
+            }
+            return results;
+        }
+    }
+}
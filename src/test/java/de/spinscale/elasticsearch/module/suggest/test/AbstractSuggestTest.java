@@ -1,32 +1,68 @@
 package de.spinscale.elasticsearch.module.suggest.test;
 
+import de.spinscale.elasticsearch.action.suggest.refresh.RefreshTaskStatus;
+import de.spinscale.elasticsearch.action.suggest.refresh.SuggestRefreshResponse;
+import de.spinscale.elasticsearch.action.suggest.refresh.SuggestRefreshTasksResponse;
+import de.spinscale.elasticsearch.action.suggest.statistics.DeadPrefixStats;
 import de.spinscale.elasticsearch.action.suggest.statistics.FstStats;
+import de.spinscale.elasticsearch.action.suggest.statistics.ShardSuggestStatisticsResponse;
+import de.spinscale.elasticsearch.action.suggest.statistics.SuggestBuildStats;
+import de.spinscale.elasticsearch.action.suggest.statistics.SuggestCacheStats;
+import de.spinscale.elasticsearch.action.suggest.statistics.SuggestRequestStats;
+import de.spinscale.elasticsearch.action.suggest.statistics.SuggestStatisticsResponse;
+import de.spinscale.elasticsearch.action.suggest.suggest.SuggestResponse;
+import de.spinscale.elasticsearch.client.action.suggest.SuggestRefreshRequestBuilder;
+import de.spinscale.elasticsearch.client.action.suggest.SuggestRefreshTasksRequestBuilder;
+import de.spinscale.elasticsearch.client.action.suggest.SuggestRequestBuilder;
+import de.spinscale.elasticsearch.client.action.suggest.SuggestStatisticsRequestBuilder;
 import de.spinscale.elasticsearch.plugin.suggest.SuggestPlugin;
+import de.spinscale.elasticsearch.service.suggest.PrefixExtensionCache;
+import de.spinscale.elasticsearch.service.suggest.ShardSuggestService;
+import de.spinscale.elasticsearch.service.suggest.SuggestService;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.RandomStringUtils;
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.admin.cluster.node.info.NodeInfo;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.base.Charsets;
 import org.elasticsearch.common.collect.Lists;
 import org.elasticsearch.common.collect.Maps;
+import org.elasticsearch.common.collect.Sets;
+import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.test.ElasticsearchIntegrationTest;
 import org.elasticsearch.test.junit.annotations.TestLogging;
+import org.elasticsearch.threadpool.ThreadPool;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import static org.elasticsearch.common.settings.ImmutableSettings.settingsBuilder;
 import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAllSearchersClosed;
 import static org.hamcrest.Matchers.*;
 
 @TestLogging("_root:info")
@@ -52,6 +88,10 @@ public abstract class AbstractSuggestTest extends ElasticsearchIntegrationTest {
         return settingsBuilder()
                 .put(super.nodeSettings(nodeOrdinal))
                 .put("plugin.types", SuggestPlugin.class.getName())
+                // keep the shards and the stored suggesters across node restarts
+                .put("gateway.type", "local")
+                // the number of processors is random, concurrent shard operations need more than one thread
+                .put("threadpool.suggest.size", 4)
                 .build();
     }
 
@@ -155,6 +195,907 @@ public abstract class AbstractSuggestTest extends ElasticsearchIntegrationTest {
         assertThat(suggestions.size(), is(0));
     }
 
+    @Test
+    public void testThatSegmentLookupsWorkAfterUpdate() throws Exception {
+        String segmentIndex = index + "_segments";
+        createIndexWithProductsMapping(segmentIndex, settingsBuilder().put("suggest.fst.per_segment", true).build());
+
+        indexProducts(createProducts("ProductName", "Kochjacke Paul", "Kochjacke Pauline"), segmentIndex);
+        List<String> suggestions = getSuggestions(new SuggestionQuery(segmentIndex, type, "ProductName.suggest", "kochjacke").size(10));
+        assertSuggestions(suggestions, "kochjacke", "kochjacke paul", "kochjacke pauline");
+
+        List<Map<String, Object>> products = createProducts(1);
+        products.get(0).put("ProductName", "Kochjacke Paulinator");
+        indexProducts(products, segmentIndex);
+        refreshIndexSuggesters(segmentIndex);
+
+        suggestions = getSuggestions(new SuggestionQuery(segmentIndex, type, "ProductName.suggest", "kochjacke").size(10));
+        assertSuggestions(suggestions, "kochjacke", "kochjacke paul", "kochjacke paulinator", "kochjacke pauline");
+    }
+
+    @Test
+    public void testThatSegmentLookupsAreMergedByDocumentFrequency() throws Exception {
+        String segmentIndex = index + "_segments_merged";
+        createIndexWithProductsMapping(segmentIndex, settingsBuilder().put("suggest.fst.per_segment", true)
+                .put("index.number_of_shards", 1).put("index.number_of_replicas", 0).build());
+
+        // koa is in a high bucket of both segments, but kob is in more documents
+        String[] rareTerms = { "x1", "x2", "x3", "x4", "x5", "x6", "x7", "x8" };
+        List<Map<String, Object>> products = createProducts("ProductName", rareTerms);
+        products.addAll(createProducts("ProductName", "koa", "koa", "kob", "kob", "kob", "kob", "kob", "kob", "kob", "kob"));
+        indexProducts(products, segmentIndex);
+        products = createProducts("ProductName", rareTerms);
+        products.addAll(createProducts("ProductName", "koa", "koa"));
+        indexProducts(products, segmentIndex);
+
+        List<String> suggestions = getSuggestions(new SuggestionQuery(segmentIndex, type, "ProductName.suggest", "ko").size(1));
+        assertSuggestions(suggestions, "kob");
+    }
+
+    @Test
+    public void testThatOffHeapLookupsWorkAfterUpdate() throws Exception {
+        String offHeapIndex = index + "_off_heap";
+        // no replicas, so that the statistics are read from the queried shards
+        createIndexWithProductsMapping(offHeapIndex, settingsBuilder()
+                .put("suggest.fst.off_heap", true).put("index.number_of_replicas", 0).build());
+
+        indexProducts(createProducts("ProductName", "Kochjacke Paul", "Kochjacke Pauline", "Kochhose"), offHeapIndex);
+        List<String> suggestions = getSuggestions(new SuggestionQuery(offHeapIndex, type, "ProductName.suggest", "kochjacke").size(10));
+        assertSuggestions(suggestions, "kochjacke", "kochjacke paul", "kochjacke pauline");
+
+        List<Map<String, Object>> products = createProducts(1);
+        products.get(0).put("ProductName", "Kochjacke Paulinator");
+        indexProducts(products, offHeapIndex);
+        refreshIndexSuggesters(offHeapIndex);
+
+        suggestions = getSuggestions(new SuggestionQuery(offHeapIndex, type, "ProductName.suggest", "kochjacke pauli").size(10));
+        assertSuggestions(suggestions, "kochjacke paulinator", "kochjacke pauline");
+
+        long offHeapSizeInBytes = 0;
+        for (FstStats.FstIndexShardStats stats : getStatistics().getStats()) {
+            offHeapSizeInBytes += stats.getOffHeapSizeInBytes();
+        }
+        assertThat(offHeapSizeInBytes, greaterThan(0L));
+    }
+
+    @Test
+    public void testThatOffHeapLookupsReturnTheSameSuggestionsAsHeapLookups() throws Exception {
+        // single shards, so that both indices have the same terms and weights
+        Settings settings = settingsBuilder().put("index.number_of_shards", 1).put("index.number_of_replicas", 0).build();
+        String heapIndex = index + "_heap";
+        String offHeapIndex = index + "_off_heap";
+        createIndexWithProductsMapping(heapIndex, settings);
+        createIndexWithProductsMapping(offHeapIndex, settingsBuilder().put(settings).put("suggest.fst.off_heap", true).build());
+
+        // frequencies growing in sort order put several terms with different weights into every bucket,
+        // the terms of a bucket are returned in sort order and not by their weight
+        List<String> names = Lists.newArrayList();
+        String[] distinctNames = { "fa", "fb", "fc", "fd", "fe", "ff", "fg", "fh", "fi", "fj", "fk", "fl", "fm",
+                "fn", "fo", "foo", "foobar", "food", "fool", "foot", "fox", "bar", "barfoo", "baz", "boof" };
+        for (int i = 0; i < distinctNames.length; i++) {
+            for (int j = 0; j <= i % 15; j++) {
+                names.add(distinctNames[i]);
+            }
+        }
+        String[] products = names.toArray(new String[names.size()]);
+        indexProducts(createProducts("ProductName", products), heapIndex);
+        indexProducts(createProducts("ProductName", products), offHeapIndex);
+
+        for (String term : Arrays.asList("f", "fo", "foo", "foob", "b", "ba", "bar", "x")) {
+            for (int size : Arrays.asList(1, 2, 3, 10)) {
+                List<String> suggestions = getSuggestions(new SuggestionQuery(offHeapIndex, type, "ProductName.suggest", term).size(size));
+                List<String> heapSuggestions = getSuggestions(new SuggestionQuery(heapIndex, type, "ProductName.suggest", term).size(size));
+                assertThat("Suggestions for [" + term + "] of size " + size, suggestions, is(heapSuggestions));
+            }
+        }
+    }
+
+    @Test
+    public void testThatShortPrefixesAreAnsweredFromPrefixTableAfterUpdate() throws Exception {
+        String prefixIndex = index + "_prefix";
+        // no replicas, so that the statistics are read from the queried shards
+        createIndexWithProductsMapping(prefixIndex, settingsBuilder()
+                .put("suggest.fst.prefix_table.length", 2).put("index.number_of_replicas", 0).build());
+
+        indexProducts(createProducts("ProductName", "foo", "foob", "foobar", "boof"), prefixIndex);
+        SuggestionQuery query = new SuggestionQuery(prefixIndex, type, "ProductName.suggest", "fo").size(10);
+        assertSuggestions(query, "foo", "foob", "foobar");
+        assertThat(getSuggestions(new SuggestionQuery(prefixIndex, type, "ProductName.suggest", "x").size(10)), hasSize(0));
+
+        indexProducts(createProducts("ProductName", "fooc"), prefixIndex);
+        refreshIndexSuggesters(prefixIndex);
+        assertSuggestions(query, "foo", "foob", "foobar", "fooc");
+
+        long prefixTableSizeInBytes = 0;
+        for (FstStats.FstIndexShardStats stats : getStatistics().getStats()) {
+            prefixTableSizeInBytes += stats.getPrefixTableSizeInBytes();
+        }
+        assertThat(prefixTableSizeInBytes, greaterThan(0L));
+    }
+
+    @Test
+    public void testThatBuildsExceedingTheIndexMemoryLimitAreRefused() throws Exception {
+        String limitedIndex = index + "_limited";
+        createIndexWithProductsMapping(limitedIndex, settingsBuilder().put("suggest.memory.limit", "1b").build());
+
+        indexProducts(createProducts("ProductName", "foo", "foob", "foobar"), limitedIndex);
+        indexProducts(createProducts("ProductName", "foo", "foob", "foobar"));
+
+        SuggestResponse response = new SuggestRequestBuilder(client()).setIndices(limitedIndex)
+                .field("ProductName.suggest").term("foo").size(10).get();
+        assertThat(response.getSuggestions(), hasSize(0));
+        assertThat(response.getFailedShards(), greaterThan(0));
+        assertThat(response.getShardFailures()[0].reason(), containsString("CircuitBreakingException"));
+
+        // other indices are not affected by the limit
+        List<String> suggestions = getSuggestions("ProductName.suggest", "foo", 10);
+        assertSuggestions(suggestions, "foo", "foob", "foobar");
+    }
+
+    @Test
+    public void testThatCachedSuggestionsAreInvalidatedOnRefresh() throws Exception {
+        String cachedIndex = index + "_cached";
+        // no replicas, so that the statistics are read from the queried shards
+        createIndexWithProductsMapping(cachedIndex, settingsBuilder().put("index.number_of_replicas", 0).build());
+
+        indexProducts(createProducts("ProductName", "foo", "foob"), cachedIndex);
+        SuggestionQuery query = new SuggestionQuery(cachedIndex, type, "ProductName.suggest", "foo").size(10);
+        assertSuggestions(query, "foo", "foob");
+        assertSuggestions(query, "foo", "foob");
+
+        SuggestCacheStats cacheStats = new SuggestStatisticsRequestBuilder(client()).get().getCacheStats();
+        assertThat(cacheStats.getHits(), greaterThan(0L));
+        assertThat(cacheStats.getMisses(), greaterThan(0L));
+
+        indexProducts(createProducts("ProductName", "foobar"), cachedIndex);
+        refreshIndexSuggesters(cachedIndex);
+        assertSuggestions(query, "foo", "foob", "foobar");
+    }
+
+    @Test
+    public void testThatTypingSessionsContinueFromThePreviousPrefix() throws Exception {
+        String sessionIndex = index + "_sessions";
+        createIndexWithProductsMapping(sessionIndex, settingsBuilder().put("suggest.fst.off_heap", randomBoolean()).build());
+        indexProducts(createProducts("ProductName", "foo", "foob", "foobar", "boof", "fa"), sessionIndex);
+
+        String session = randomAsciiOfLength(8);
+        assertThat(getSessionSuggestions(sessionIndex, session, "f", 10), contains("fa", "foo", "foob", "foobar"));
+        assertThat(getSessionSuggestions(sessionIndex, session, "fo", 10), contains("foo", "foob", "foobar"));
+        assertThat(getSessionSuggestions(sessionIndex, session, "foob", 1), contains("foob"));
+        assertThat(getSessionSuggestions(sessionIndex, session, "foobar", 10), contains("foobar"));
+        assertThat(getSessionSuggestions(sessionIndex, session, "b", 10), contains("boof"));
+        assertThat(getSessionSuggestions(sessionIndex, session, "bx", 10), hasSize(0));
+    }
+
+    @Test
+    public void testThatOnlyShardOperationsOfSupersededRequestsAreCancelled() throws Exception {
+        String sessionIndex = index + "_superseded";
+        // a replica, which would be asked, if skipped shard operations were retried on the next copy
+        internalCluster().ensureAtLeastNumDataNodes(2);
+        createIndexWithProductsMapping(sessionIndex, settingsBuilder().put("index.number_of_replicas", 1).build());
+        ensureGreen(sessionIndex);
+        indexProducts(createProducts("ProductName", "foo", "foob", "foobar", "boof", "fa"), sessionIndex);
+
+        Client client = client();
+        String session = randomAsciiOfLength(8);
+        List<ListenableActionFuture<SuggestResponse>> futures = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            futures.add(new SuggestRequestBuilder(client).setIndices(sessionIndex).session(session)
+                    .field("ProductName.suggest").term(randomFrom("f", "fo", "foo")).execute());
+        }
+
+        for (ListenableActionFuture<SuggestResponse> future : futures) {
+            SuggestResponse response = future.actionGet();
+            assertThat(response.getFailedShards(), is(0));
+            assertThat(response.getSuccessfulShards(), is(response.getTotalShards()));
+        }
+
+        // every shard operation has run on a single copy, either looking up or skipped
+        long operations = 0;
+        for (ShardSuggestStatisticsResponse statistics : getStatisticsOfAllCopies(sessionIndex)) {
+            operations += statistics.getCacheStats().getHits() + statistics.getCacheStats().getMisses()
+                    + statistics.getRequestStats().getCancelled();
+        }
+        assertThat(operations, is((long) futures.size() * getNumShards(sessionIndex).numPrimaries));
+        assertThat(getSessionSuggestions(sessionIndex, session, "foob", 10), contains("foob", "foobar"));
+    }
+
+    private List<ShardSuggestStatisticsResponse> getStatisticsOfAllCopies(String index) {
+        List<ShardSuggestStatisticsResponse> statistics = Lists.newArrayList();
+        for (IndicesService indicesService : internalCluster().getInstances(IndicesService.class)) {
+            IndexService indexService = indicesService.indexService(index);
+            if (indexService == null) {
+                continue;
+            }
+            for (int shardId : indexService.shardIds()) {
+                statistics.add(indexService.shardInjectorSafe(shardId).getInstance(ShardSuggestService.class).getStatistics());
+            }
+        }
+        return statistics;
+    }
+
+    @Test
+    public void testThatConcurrentIdenticalRequestsShareTheirLookups() throws Exception {
+        String coalescedIndex = index + "_coalesced";
+        // a single copy, which all requests wait for, while its first lookup slowly builds the suggester
+        createIndexWithProductsMapping(coalescedIndex, settingsBuilder().put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0).put("suggest.build.max_bytes_per_sec", "1kb")
+                .put("suggest.coalesce.timeout", "1m").build());
+        indexProducts(createProducts("ProductName", "foo", "foob", "foobar", "boof", "fa"), coalescedIndex);
+        indexProducts(createProducts("ProductName", createNames("product", 100)), coalescedIndex);
+
+        List<ListenableActionFuture<SuggestResponse>> futures = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            futures.add(new SuggestRequestBuilder(client()).setIndices(coalescedIndex).field("ProductName.suggest").term("fo").execute());
+        }
+        for (ListenableActionFuture<SuggestResponse> future : futures) {
+            SuggestResponse response = future.actionGet();
+            assertThat(response.getFailedShards(), is(0));
+            assertThat(response.getSuggestions(), contains("foo", "foob", "foobar"));
+        }
+
+        SuggestStatisticsResponse statistics = new SuggestStatisticsRequestBuilder(client()).setIndices(coalescedIndex).get();
+        assertThat(statistics.getRequestStats().getCoalesced(), greaterThan(0L));
+        assertThat(statistics.getRequestStats().getCoalesced() + statistics.getCacheStats().getHits(), is((long) futures.size() - 1));
+    }
+
+    @Test
+    public void testThatSuggestionsOfAllPrioritiesRunOnTheSuggestPool() throws Exception {
+        for (NodeInfo nodeInfo : client().admin().cluster().prepareNodesInfo().setThreadPool(true).get()) {
+            List<String> threadPools = Lists.newArrayList();
+            for (ThreadPool.Info info : nodeInfo.getThreadPool()) {
+                threadPools.add(info.getName());
+            }
+            assertThat(threadPools, hasItem("suggest"));
+        }
+
+        for (String priority : Arrays.asList("low", "normal", "high")) {
+            String priorityIndex = index + "_" + priority;
+            createIndexWithProductsMapping(priorityIndex, settingsBuilder().put("suggest.priority", priority).build());
+            indexProducts(createProducts("ProductName", "foo", "foob", "boof"), priorityIndex);
+            assertSuggestions(new SuggestionQuery(priorityIndex, type, "ProductName.suggest", "foo").size(10), "foo", "foob");
+        }
+        assertThat(new SuggestStatisticsRequestBuilder(client()).get().getRequestStats().getRejected(), is(0L));
+    }
+
+    @Test
+    public void testThatFirstLookupsDoNotWaitForSuggestersBeingBuilt() throws Exception {
+        final String asyncIndex = index + "_async";
+        // no replicas, so that every request hits the shard, which has started building
+        createIndexWithProductsMapping(asyncIndex, settingsBuilder().put("index.number_of_replicas", 0)
+                .put("suggest.build.async", true).build());
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"), asyncIndex);
+
+        SuggestResponse response = new SuggestRequestBuilder(client()).setIndices(asyncIndex)
+                .field("ProductName.suggest").term("foo").size(10).get();
+        assertThat(response.getFailedShards(), is(0));
+        assertThat(response.isPartial(), is(true));
+
+        assertBusy(new Runnable() {
+            @Override
+            public void run() {
+                SuggestResponse response = new SuggestRequestBuilder(client()).setIndices(asyncIndex)
+                        .field("ProductName.suggest").term("foo").size(10).get();
+                assertThat(response.isPartial(), is(false));
+                assertThat(response.getSuggestions(), contains("foo", "foob"));
+            }
+        });
+        assertThat(new SuggestStatisticsRequestBuilder(client()).get().getRequestStats().getPartial(), greaterThan(0L));
+    }
+
+    @Test
+    public void testThatSuggestersAreRefreshedAfterTheIndexHasChanged() throws Exception {
+        final String onChangeIndex = index + "_on_change";
+        createIndexWithProductsMapping(onChangeIndex, settingsBuilder().put("index.number_of_replicas", 0)
+                .put("suggest.refresh.on_change", true).put("suggest.refresh.quiet_period", "100ms")
+                .put("suggest.refresh.min_spacing", "0ms").build());
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"), onChangeIndex);
+        assertSuggestions(new SuggestionQuery(onChangeIndex, type, "ProductName.suggest", "foo").size(10), "foo", "foob");
+
+        indexProducts(createProducts("ProductName", "foobar"), onChangeIndex);
+        assertBusy(new Runnable() {
+            @Override
+            public void run() {
+                SuggestResponse response = new SuggestRequestBuilder(client()).setIndices(onChangeIndex)
+                        .field("ProductName.suggest").term("foo").size(10).get();
+                assertThat(response.getSuggestions(), contains("foo", "foob", "foobar"));
+            }
+        });
+    }
+
+    @Test
+    public void testThatCopiesAreRefreshedInTheirWindowsAfterTheIndexHasChanged() throws Exception {
+        final String onChangeIndex = index + "_on_change_copies";
+        internalCluster().ensureAtLeastNumDataNodes(2);
+        createIndexWithProductsMapping(onChangeIndex, settingsBuilder().put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 1).put("suggest.refresh.on_change", true)
+                .put("suggest.refresh.quiet_period", "100ms").put("suggest.refresh.min_spacing", "1s").build());
+        ensureGreen(onChangeIndex);
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"), onChangeIndex);
+        // both copies have to be queried, shards which have not been queried yet are not rebuilt
+        for (int i = 0; i < 10; i++) {
+            assertSuggestions(new SuggestionQuery(onChangeIndex, type, "ProductName.suggest", "foo").size(10), "foo", "foob");
+        }
+
+        // every copy rebuilds in its half of the min spacing
+        indexProducts(createProducts("ProductName", "foobar"), onChangeIndex);
+        assertBusy(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    SuggestResponse response = new SuggestRequestBuilder(client()).setIndices(onChangeIndex)
+                            .field("ProductName.suggest").term("foo").size(10).get();
+                    assertThat(response.getSuggestions(), contains("foo", "foob", "foobar"));
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testThatShardsWithUnchangedReadersAreNotRebuilt() throws Exception {
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"));
+        assertSuggestions(new SuggestionQuery(index, type, "ProductName.suggest", "foo").size(10), "foo", "foob");
+
+        SuggestRefreshResponse response = new SuggestRefreshRequestBuilder(client()).setIndices(index).get();
+        assertThat(response.getFailedShards(), is(0));
+        assertThat(response.getRebuiltShards(), is(0));
+        assertThat(response.getSkippedShards(), is(response.getTotalShards()));
+
+        indexProducts(createProducts("ProductName", "foobar"));
+        response = new SuggestRefreshRequestBuilder(client()).setIndices(index).get();
+        assertThat(response.getRebuiltShards(), greaterThan(0));
+        assertThat(response.getRebuiltShards() + response.getSkippedShards(), is(response.getTotalShards()));
+        assertSuggestions(new SuggestionQuery(index, type, "ProductName.suggest", "foo").size(10), "foo", "foob", "foobar");
+
+        response = new SuggestRefreshRequestBuilder(client()).setIndices(index).setForce(true).get();
+        assertThat(response.getRebuiltShards(), greaterThan(0));
+    }
+
+    @Test
+    public void testThatSuggestersBuiltFromBufferedTermsEqualThoseBuiltFromTheTermsDictionary() throws Exception {
+        // single shards, so that both indices have the same terms and weights
+        Settings settings = settingsBuilder().put("index.number_of_shards", 1).put("index.number_of_replicas", 0).build();
+        String directIndex = index + "_direct";
+        String bufferedIndex = index + "_buffered";
+        createIndexWithProductsMapping(directIndex, settings);
+        createIndexWithProductsMapping(bufferedIndex, settings);
+
+        String[] names = { "BMW 318", "BMW 528", "BMW 528", "BMW M3", "the BMW 320", "VW Jetta", "VW Golf", "VW Golf", "VW Polo" };
+        indexProducts(createProducts("ProductName", names), directIndex);
+        indexProducts(createProducts("ProductName", names), bufferedIndex);
+
+        List<SuggestionQuery> queries = Lists.newArrayList();
+        for (String term : Arrays.asList("b", "bm", "v", "vw", "3", "go", "x")) {
+            queries.add(new SuggestionQuery(bufferedIndex, type, "ProductName.suggest", term).size(10));
+            queries.add(new SuggestionQuery(bufferedIndex, type, "ProductName.keyword", term).suggestType("full").analyzer("standard").size(10));
+            queries.add(new SuggestionQuery(bufferedIndex, type, "ProductName.keyword", term).suggestType("fuzzy").analyzer("standard").size(10));
+        }
+        queries.add(new SuggestionQuery(bufferedIndex, type, "ProductName.suggest", "jeta").size(10).similarity(0.7f));
+
+        // the first lookups build from the terms dictionary, the forced refresh builds them again from the buffered terms
+        for (SuggestionQuery query : queries) {
+            getSuggestions(query);
+        }
+        SuggestRefreshResponse refreshResponse = new SuggestRefreshRequestBuilder(client()).setIndices(bufferedIndex).setForce(true).get();
+        assertThat(refreshResponse.getFailedShards(), is(0));
+        assertThat(refreshResponse.getRebuiltShards(), is(1));
+
+        for (SuggestionQuery query : queries) {
+            SuggestionQuery directQuery = new SuggestionQuery(directIndex, query.type, query.field, query.term).size(query.size)
+                    .suggestType(query.suggestType).analyzer(query.analyzer).similarity(query.similarity);
+            List<String> suggestions = getSuggestions(query);
+            assertThat("Suggestions for " + query, suggestions, is(getSuggestions(directQuery)));
+        }
+    }
+
+    @Test
+    public void testThatStoredSuggestersAreLoadedAfterARestart() throws Exception {
+        String storedIndex = index + "_stored";
+        String notStoredIndex = index + "_not_stored";
+        // a single shard without replicas, so that the statistics are read from the shard owning the stored files
+        Settings settings = settingsBuilder().put("index.number_of_shards", 1).put("index.number_of_replicas", 0).build();
+        createIndexWithProductsMapping(storedIndex, settings);
+        createIndexWithProductsMapping(notStoredIndex, settingsBuilder().put(settings).put("suggest.store", false).build());
+        // the shard must not be rebalanced to a node joining later after a restart, which does not hold the stored files
+        String storedNode = internalCluster().nodesInclude(storedIndex).iterator().next();
+        client().admin().indices().prepareUpdateSettings(storedIndex)
+                .setSettings(settingsBuilder().put("index.routing.allocation.include._name", storedNode)).get();
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"), storedIndex);
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"), notStoredIndex);
+        // the shards consist of the same segments after the restart, if nothing has to be replayed from the translog
+        flush();
+
+        assertThat(suggest(storedIndex, "foo"), contains("foo", "foob"));
+        assertThat(suggest(notStoredIndex, "foo"), contains("foo", "foob"));
+        assertThat(getBuildStats(storedIndex).getBuilt(), greaterThan(0L));
+        List<File> storedFiles = getStoredSuggesterFiles(storedIndex);
+        assertThat(storedFiles, hasSize(1));
+        assertThat(getStoredSuggesterFiles(notStoredIndex), hasSize(0));
+
+        // the stored suggester is loaded instead of being built again
+        restartAndWaitForStoredSuggesters(storedIndex);
+        assertThat(suggest(storedIndex, "foo"), contains("foo", "foob"));
+        assertThat(getBuildStats(storedIndex).getBuilt(), is(0L));
+
+        // a corrupted file fails its checksum, it is deleted and the suggester is built and stored again
+        storedFiles = getStoredSuggesterFiles(storedIndex);
+        assertThat(storedFiles, hasSize(1));
+        corrupt(storedFiles.get(0));
+        internalCluster().fullRestart();
+        ensureGreen(storedIndex);
+        assertNoStoredSuggesterFiles(storedIndex);
+        assertThat(getBuildStats(storedIndex).getLoaded(), is(0L));
+        assertThat(suggest(storedIndex, "foo"), contains("foo", "foob"));
+        assertThat(getBuildStats(storedIndex).getBuilt(), greaterThan(0L));
+        assertThat(getStoredSuggesterFiles(storedIndex), hasSize(1));
+        restartAndWaitForStoredSuggesters(storedIndex);
+        assertThat(suggest(storedIndex, "foo"), contains("foo", "foob"));
+
+        // files built from other segments are deleted instead of being loaded
+        indexProducts(createProducts("ProductName", "foobar"), storedIndex);
+        flush();
+        internalCluster().fullRestart();
+        ensureGreen(storedIndex);
+        assertNoStoredSuggesterFiles(storedIndex);
+        assertThat(suggest(storedIndex, "foo"), contains("foo", "foob", "foobar"));
+        assertThat(getBuildStats(storedIndex).getLoaded(), is(0L));
+        assertThat(getStoredSuggesterFiles(notStoredIndex), hasSize(0));
+    }
+
+    @Test
+    public void testThatStoredSuggestersOfRedefinedAnalyzersAreNotLoaded() throws Exception {
+        String storedIndex = index + "_stored_analyzers";
+        createIndexWithProductsMapping(storedIndex, settingsBuilder().put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0).build());
+        indexProducts(createProducts("ProductName", "Foo Bar", "Foo Baz"), storedIndex);
+        flush();
+
+        SuggestionQuery query = new SuggestionQuery(storedIndex, type, "ProductName.keyword", "foo b")
+                .suggestType("full").analyzer("lowercase_analyzer").size(10);
+        assertSuggestions(query, "Foo Bar", "Foo Baz");
+        assertThat(getStoredSuggesterFiles(storedIndex), hasSize(1));
+
+        // the analyzer of the same name does not lowercase anymore, the suggester is built again instead of being loaded
+        assertAcked(client().admin().indices().prepareClose(storedIndex));
+        assertAcked(client().admin().indices().prepareUpdateSettings(storedIndex)
+                .setSettings(settingsBuilder().putArray("index.analysis.analyzer.lowercase_analyzer.filter", "standard", "standard")));
+        assertAcked(client().admin().indices().prepareOpen(storedIndex));
+        ensureGreen(storedIndex);
+        assertNoStoredSuggesterFiles(storedIndex);
+        assertThat(getBuildStats(storedIndex).getLoaded(), is(0L));
+        assertThat(getSuggestions(query), hasSize(0));
+    }
+
+    @Test
+    public void testThatCancelledRefreshesKeepThePreviousSuggesters() throws Exception {
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"));
+        assertSuggestions(new SuggestionQuery(index, type, "ProductName.suggest", "foo").size(10), "foo", "foob");
+
+        SuggestRefreshTasksResponse tasksResponse = new SuggestRefreshTasksRequestBuilder(client()).setIndices(index).get();
+        assertThat(tasksResponse.getFailedShards(), is(0));
+        assertThat(tasksResponse.getTasks().size(), is(0));
+
+        ListenableActionFuture<SuggestRefreshResponse> refresh = new SuggestRefreshRequestBuilder(client()).setIndices(index).setForce(true).execute();
+        tasksResponse = new SuggestRefreshTasksRequestBuilder(client()).setIndices(index).setCancel(true).get();
+        assertThat(tasksResponse.getFailedShards(), is(0));
+        for (RefreshTaskStatus task : tasksResponse.getTasks()) {
+            assertThat(task.getIndex(), is(index));
+            assertThat(task.isCancelled(), is(true));
+        }
+
+        assertThat(refresh.actionGet().getFailedShards(), is(0));
+        assertSuggestions(new SuggestionQuery(index, type, "ProductName.suggest", "foo").size(10), "foo", "foob");
+        assertThat(new SuggestRefreshTasksRequestBuilder(client()).setIndices(index).get().getTasks().size(), is(0));
+    }
+
+    @Test
+    public void testThatSlowRefreshesAreListedAndCanBeCancelled() throws Exception {
+        String slowIndex = index + "_slow";
+        createIndexWithProductsMapping(slowIndex, settingsBuilder().put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0).put("suggest.build.max_bytes_per_sec", "1kb").build());
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"), slowIndex);
+        assertThat(suggest(slowIndex, "foo"), contains("foo", "foob"));
+
+        // the rebuild reads the new terms very slowly, so that it is still running while it is listed and cancelled
+        indexProducts(createProducts("ProductName", createNames("foobar", 1000)), slowIndex);
+        ListenableActionFuture<SuggestRefreshResponse> refresh = new SuggestRefreshRequestBuilder(client()).setIndices(slowIndex).setForce(true).execute();
+        RefreshTaskStatus task = awaitRefreshTask(slowIndex);
+        assertThat(task.getNode(), is(notNullValue()));
+        assertThat(task.getIndex(), is(slowIndex));
+        assertThat(task.getShardId(), is(0));
+        assertThat(task.getField(), is(nullValue()));
+        assertThat(task.getPhase(), isOneOf("scanning", "building"));
+        assertThat(task.getElapsedInMillis(), greaterThanOrEqualTo(0L));
+        assertThat(task.isCancelled(), is(false));
+
+        SuggestRefreshTasksResponse tasksResponse = new SuggestRefreshTasksRequestBuilder(client()).setIndices(slowIndex).setCancel(true).get();
+        assertThat(tasksResponse.getFailedShards(), is(0));
+        assertThat(tasksResponse.getTasks(), hasSize(1));
+        assertThat(tasksResponse.getTasks().get(0).isCancelled(), is(true));
+
+        SuggestRefreshResponse refreshResponse = refresh.actionGet();
+        assertThat(refreshResponse.getFailedShards(), is(0));
+        assertThat(refreshResponse.getRebuiltShards(), is(0));
+        assertThat(new SuggestRefreshTasksRequestBuilder(client()).setIndices(slowIndex).get().getTasks(), hasSize(0));
+        assertThat(suggest(slowIndex, "foo"), contains("foo", "foob"));
+    }
+
+    @Test
+    public void testThatClosingAShardDuringARefreshDoesNotWaitForTheBuilds() throws Exception {
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"));
+        assertSuggestions(new SuggestionQuery(index, type, "ProductName.suggest", "foo").size(10), "foo", "foob");
+
+        ListenableActionFuture<SuggestRefreshResponse> refresh = new SuggestRefreshRequestBuilder(client()).setIndices(index).setForce(true).execute();
+        assertAcked(client().admin().indices().prepareClose(index));
+        // shards closed before their refresh started fail, running refreshes are cancelled
+        refresh.actionGet();
+
+        assertAcked(client().admin().indices().prepareOpen(index));
+        ensureGreen(index);
+        // the documents may not have survived closing, depending on the store of the test cluster
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"));
+        assertSuggestions(new SuggestionQuery(index, type, "ProductName.suggest", "foo").size(10), "foo", "foob");
+    }
+
+    @Test
+    public void testThatClosingAnIndexCancelsItsRunningRefreshWithoutLeavingFilesBehind() throws Exception {
+        String slowIndex = index + "_slow";
+        createIndexWithProductsMapping(slowIndex, settingsBuilder().put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0).put("suggest.build.max_bytes_per_sec", "1kb")
+                .put("suggest.fst.off_heap", true).build());
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"), slowIndex);
+        assertThat(suggest(slowIndex, "foo"), contains("foo", "foob"));
+        // the stored lookups of the previous snapshot
+        List<File> storedFiles = getShardFiles(slowIndex, "suggest", "");
+        assertThat(getShardFiles(slowIndex, "suggest_off_heap", ".offheap"), hasSize(greaterThan(0)));
+
+        indexProducts(createProducts("ProductName", createNames("foobar", 1000)), slowIndex);
+        ListenableActionFuture<SuggestRefreshResponse> refresh = new SuggestRefreshRequestBuilder(client()).setIndices(slowIndex).setForce(true).execute();
+        awaitRefreshTask(slowIndex);
+        assertAcked(client().admin().indices().prepareClose(slowIndex));
+
+        // the running refresh is cancelled and keeps the previous suggesters instead of failing
+        SuggestRefreshResponse refreshResponse = refresh.actionGet();
+        assertThat(refreshResponse.getFailedShards(), is(0));
+        assertThat(refreshResponse.getRebuiltShards(), is(0));
+        // only the stored suggesters of the previous snapshot are kept, no temporary files, no off heap lookups
+        assertThat(getShardFiles(slowIndex, "suggest", ""), is(storedFiles));
+        assertThat(getShardFiles(slowIndex, "suggest_off_heap", ""), hasSize(0));
+        assertBusy(new Runnable() {
+            @Override
+            public void run() {
+                assertAllSearchersClosed();
+            }
+        });
+    }
+
+    @Test
+    public void testThatEveryNodeRefreshesItsOwnCopiesInTheirOwnWindows() throws Exception {
+        String staggeredIndex = index + "_staggered";
+        internalCluster().ensureAtLeastNumDataNodes(2);
+        createIndexWithProductsMapping(staggeredIndex, settingsBuilder().put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 1).build());
+        ensureGreen(staggeredIndex);
+
+        ShardId shardId = new ShardId(staggeredIndex, 0);
+        Set<String> nodesHoldingCopies = internalCluster().nodesInclude(staggeredIndex);
+        assertThat(nodesHoldingCopies, hasSize(2));
+        Set<Long> windows = Sets.newHashSet();
+        for (ClusterService clusterService : internalCluster().getInstances(ClusterService.class)) {
+            if (!clusterService.localNode().dataNode()) {
+                continue;
+            }
+            String node = clusterService.localNode().name();
+            SuggestService suggestService = internalCluster().getInstance(SuggestService.class, node);
+            Map<ShardId, Long> shardRefreshes = suggestService.nextShardRefreshes();
+            if (nodesHoldingCopies.contains(node)) {
+                // the refresh interval is split into one window per copy
+                long interval = suggestService.refreshInterval().millis();
+                windows.add(shardRefreshes.get(shardId) % interval / (interval / 2));
+            } else {
+                assertThat(shardRefreshes.keySet(), not(hasItem(shardId)));
+            }
+        }
+        assertThat(windows, containsInAnyOrder(0L, 1L));
+    }
+
+    @Test
+    public void testThatRequestsWithTimeoutReportShardTimings() throws Exception {
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"));
+
+        SuggestResponse response = new SuggestRequestBuilder(client()).setIndices(index).timeout("10s")
+                .field("ProductName.suggest").term("foo").size(10).get();
+        assertThat(response.isTimedOut(), is(false));
+        assertThat(response.getFailedShards(), is(0));
+        assertThat(response.getSuggestions(), contains("foo", "foob"));
+        assertThat(response.getShardTimings(), hasSize(response.getTotalShards()));
+        for (SuggestResponse.ShardTiming shardTiming : response.getShardTimings()) {
+            assertThat(shardTiming.getIndex(), is(index));
+            assertThat(shardTiming.getNode(), is(notNullValue()));
+            assertThat(shardTiming.isTimedOut(), is(false));
+        }
+
+        // shards, which have not answered in time, are reported as failed and timed out
+        response = new SuggestRequestBuilder(client()).setIndices(index).timeout(TimeValue.timeValueNanos(1))
+                .field("ProductName.suggest").term("boo").size(10).get();
+        int timedOutShards = 0;
+        for (SuggestResponse.ShardTiming shardTiming : response.getShardTimings()) {
+            timedOutShards += shardTiming.isTimedOut() ? 1 : 0;
+        }
+        assertThat(response.isTimedOut(), is(timedOutShards > 0));
+        assertThat(response.getFailedShards(), greaterThanOrEqualTo(timedOutShards));
+        assertThat(response.getSuccessfulShards() + response.getFailedShards(), is(response.getTotalShards()));
+    }
+
+    @Test
+    public void testThatRequestsWithTimeoutReturnTheSuggestionsOfTheShardsAnsweredInTime() throws Exception {
+        String fastIndex = index + "_fast";
+        String slowIndex = index + "_slow";
+        Settings settings = settingsBuilder().put("index.number_of_shards", 1).put("index.number_of_replicas", 0).build();
+        createIndexWithProductsMapping(fastIndex, settings);
+        // the shard of this index builds its suggester on the first request, reading its terms very slowly
+        createIndexWithProductsMapping(slowIndex, settingsBuilder().put(settings).put("suggest.build.max_bytes_per_sec", "1kb").build());
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"), fastIndex);
+        indexProducts(createProducts("ProductName", createNames("foobar", 200)), slowIndex);
+        assertThat(suggest(fastIndex, "foo"), contains("foo", "foob"));
+
+        SuggestResponse response = new SuggestRequestBuilder(client()).setIndices(fastIndex, slowIndex).timeout("500ms")
+                .field("ProductName.suggest").term("foo").size(10).get();
+        assertThat(response.isTimedOut(), is(true));
+        assertThat(response.getSuggestions(), contains("foo", "foob"));
+        assertThat(response.getSuccessfulShards(), is(1));
+        assertThat(response.getFailedShards(), is(1));
+        assertThat(response.getShardTimings(), hasSize(2));
+        for (SuggestResponse.ShardTiming shardTiming : response.getShardTimings()) {
+            assertThat(shardTiming.isTimedOut(), is(shardTiming.getIndex().equals(slowIndex)));
+        }
+    }
+
+    private String[] createNames(String prefix, int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = prefix + " " + i;
+        }
+        return names;
+    }
+
+    private RefreshTaskStatus awaitRefreshTask(final String index) throws Exception {
+        final List<RefreshTaskStatus> tasks = Lists.newArrayList();
+        assertBusy(new Runnable() {
+            @Override
+            public void run() {
+                tasks.clear();
+                tasks.addAll(new SuggestRefreshTasksRequestBuilder(client()).setIndices(index).get().getTasks());
+                assertThat(tasks, hasSize(1));
+            }
+        });
+        return tasks.get(0);
+    }
+
+    @Test
+    public void testThatStoredOffHeapLookupsAreLoadedAfterARestart() throws Exception {
+        String storedIndex = index + "_stored_off_heap";
+        createIndexWithProductsMapping(storedIndex, settingsBuilder().put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0).put("suggest.fst.off_heap", true).build());
+        String storedNode = internalCluster().nodesInclude(storedIndex).iterator().next();
+        client().admin().indices().prepareUpdateSettings(storedIndex)
+                .setSettings(settingsBuilder().put("index.routing.allocation.include._name", storedNode)).get();
+        indexProducts(createProducts("ProductName", "foo", "foob", "boof"), storedIndex);
+        flush();
+
+        assertThat(suggest(storedIndex, "foo"), contains("foo", "foob"));
+        assertThat(getStoredSuggesterFiles(storedIndex), hasSize(1));
+
+        // the copy is written into a new memory mapped file instead of building the lookup again
+        restartAndWaitForStoredSuggesters(storedIndex);
+        assertThat(getShardFiles(storedIndex, "suggest_off_heap", ".offheap"), hasSize(1));
+        assertThat(suggest(storedIndex, "foo"), contains("foo", "foob"));
+        assertThat(getBuildStats(storedIndex).getBuilt(), is(0L));
+    }
+
+    private List<String> suggest(String index, String term) {
+        SuggestResponse response = new SuggestRequestBuilder(client()).setIndices(index)
+                .field("ProductName.suggest").term(term).size(10).get();
+        assertThat(response.getFailedShards(), is(0));
+        return response.getSuggestions();
+    }
+
+    private SuggestBuildStats getBuildStats(String index) {
+        return new SuggestStatisticsRequestBuilder(client()).setIndices(index).get().getBuildStats();
+    }
+
+    private void restartAndWaitForStoredSuggesters(final String index) throws Exception {
+        internalCluster().fullRestart();
+        ensureGreen(index);
+        assertBusy(new Runnable() {
+            @Override
+            public void run() {
+                assertThat(getBuildStats(index).getLoaded(), greaterThan(0L));
+            }
+        });
+    }
+
+    private void assertNoStoredSuggesterFiles(final String index) throws Exception {
+        assertBusy(new Runnable() {
+            @Override
+            public void run() {
+                assertThat(getStoredSuggesterFiles(index), hasSize(0));
+            }
+        });
+    }
+
+    private List<File> getStoredSuggesterFiles(String index) {
+        return getShardFiles(index, "suggest", ".lookup");
+    }
+
+    private List<File> getShardFiles(String index, String directory, String suffix) {
+        List<File> shardFiles = Lists.newArrayList();
+        for (NodeEnvironment nodeEnvironment : internalCluster().getDataNodeInstances(NodeEnvironment.class)) {
+            for (File shardLocation : nodeEnvironment.shardLocations(new ShardId(index, 0))) {
+                File[] files = new File(shardLocation, directory).listFiles();
+                for (File file : files == null ? new File[0] : files) {
+                    if (file.getName().endsWith(suffix)) {
+                        shardFiles.add(file);
+                    }
+                }
+            }
+        }
+        return shardFiles;
+    }
+
+    private void corrupt(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            // the last byte of the lookup data in front of the checksum footer
+            long position = randomAccessFile.length() - 17;
+            randomAccessFile.seek(position);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(value ^ 0xff);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private List<String> getSessionSuggestions(String index, String session, String term, int size) {
+        SuggestResponse response = new SuggestRequestBuilder(client()).setIndices(index).session(session)
+                .field("ProductName.suggest").term(term).size(size).get();
+        assertThat(response.getFailedShards(), is(0));
+        return response.getSuggestions();
+    }
+
+    @Test
+    public void testThatExtensionsOfCachedPrefixesAreFilteredFromTheCache() throws Exception {
+        String prefixCacheIndex = index + "_prefix_cache";
+        createIndexWithProductsMapping(prefixCacheIndex, settingsBuilder().put("suggest.prefix_cache.enabled", true).build());
+
+        indexProducts(createProducts("ProductName", "foo", "foob", "foobar", "boof", "fa"), prefixCacheIndex);
+        assertSuggestions(new SuggestionQuery(prefixCacheIndex, type, "ProductName.suggest", "f").size(10), "fa", "foo", "foob", "foobar");
+        assertSuggestions(new SuggestionQuery(prefixCacheIndex, type, "ProductName.suggest", "foo").size(10), "foo", "foob", "foobar");
+        assertSuggestions(new SuggestionQuery(prefixCacheIndex, type, "ProductName.suggest", "foob").size(1), "foob");
+    }
+
+    @Test
+    public void testThatCachedPrefixesAreDroppedOnRefresh() throws Exception {
+        String prefixCacheIndex = index + "_prefix_cache_refresh";
+        // every node holds a copy and drops its cached prefixes, when the copy is refreshed
+        createIndexWithProductsMapping(prefixCacheIndex, settingsBuilder().put("suggest.prefix_cache.enabled", true)
+                .put("index.number_of_shards", 1).put("index.number_of_replicas", cluster().numDataNodes() - 1).build());
+        ensureGreen(prefixCacheIndex);
+        indexProducts(createProducts("ProductName", "foo", "foob", "foobar", "fa"), prefixCacheIndex);
+
+        // the cache is kept by the coordinating node, so all requests go through the same node
+        String node = internalCluster().nodesInclude(prefixCacheIndex).iterator().next();
+        PrefixExtensionCache prefixExtensionCache = internalCluster().getInstance(PrefixExtensionCache.class, node);
+        SuggestCacheStats before = prefixExtensionCache.stats();
+
+        assertThat(getNodeSuggestions(node, prefixCacheIndex, "f"), contains("fa", "foo", "foob", "foobar"));
+        assertThat(getNodeSuggestions(node, prefixCacheIndex, "fo"), contains("foo", "foob", "foobar"));
+        assertThat(prefixExtensionCache.stats().getMisses(), is(before.getMisses() + 1));
+        assertThat(prefixExtensionCache.stats().getHits(), is(before.getHits() + 1));
+
+        indexProducts(createProducts("ProductName", "fox"), prefixCacheIndex);
+        refreshIndexSuggesters(prefixCacheIndex);
+        assertThat(getNodeSuggestions(node, prefixCacheIndex, "fo"), contains("foo", "foob", "foobar", "fox"));
+        assertThat(prefixExtensionCache.stats().getMisses(), is(before.getMisses() + 2));
+        assertThat(prefixExtensionCache.stats().getHits(), is(before.getHits() + 1));
+    }
+
+    private List<String> getNodeSuggestions(String node, String index, String term) {
+        SuggestResponse response = new SuggestRequestBuilder(internalCluster().client(node)).setIndices(index)
+                .field("ProductName.suggest").term(term).size(10).get();
+        assertThat(response.getFailedShards(), is(0));
+        return response.getSuggestions();
+    }
+
+    @Test
+    public void testThatDeadPrefixesAreForgottenOnRefresh() throws Exception {
+        String deadPrefixIndex = index + "_dead_prefixes";
+        // no replicas, so that the statistics are read from the queried shards
+        createIndexWithProductsMapping(deadPrefixIndex, settingsBuilder().put("index.number_of_replicas", 0).build());
+
+        indexProducts(createProducts("ProductName", "foo", "foob"), deadPrefixIndex);
+        assertThat(getSuggestions(new SuggestionQuery(deadPrefixIndex, type, "ProductName.suggest", "xy").size(10)), hasSize(0));
+        SuggestionQuery query = new SuggestionQuery(deadPrefixIndex, type, "ProductName.suggest", "xyz").size(10);
+        assertThat(getSuggestions(query), hasSize(0));
+
+        DeadPrefixStats deadPrefixStats = new SuggestStatisticsRequestBuilder(client()).get().getDeadPrefixStats();
+        assertThat(deadPrefixStats.getHits(), greaterThan(0L));
+        assertThat(deadPrefixStats.getMisses(), greaterThan(0L));
+
+        indexProducts(createProducts("ProductName", "xyzzy"), deadPrefixIndex);
+        refreshIndexSuggesters(deadPrefixIndex);
+        assertSuggestions(query, "xyzzy");
+    }
+
+    @Test
+    public void testThatSuggestionsAreOrderedByWeight() throws Exception {
+        String weightedIndex = index + "_weighted";
+        // a single shard, so that the weights are the document frequencies of the whole index
+        createIndexWithProductsMapping(weightedIndex, settingsBuilder().put("index.number_of_shards", 1).build());
+
+        indexProducts(createProducts("ProductName", "BMW 318", "BMW 528", "BMW 528", "BMW M3", "BMW 528", "BMW M3"), weightedIndex);
+        SuggestionQuery query = new SuggestionQuery(weightedIndex, type, "ProductName.keyword", "b")
+                .suggestType("full").analyzer("standard").size(10);
+        assertSuggestions(query, "BMW 528", "BMW M3", "BMW 318");
+    }
+
+    @Test
+    public void testThatSuggestionsOfAllShardsAreMergedByTheirDocumentFrequencies() throws Exception {
+        String mergedIndex = index + "_merged";
+        createIndexWithProductsMapping(mergedIndex, settingsBuilder().put("index.number_of_shards", 2)
+                .put("index.number_of_replicas", 0).build());
+        String[] routings = getRoutingsOfDifferentShards(mergedIndex);
+
+        // the first shard orders fb, f, fa and the second one fc, fd, fb, but fb is the most frequent term of the index
+        indexProducts(createProducts("ProductName", "f", "fa", "fb", "fb", "fb", "fb"), mergedIndex, routings[0]);
+        indexProducts(createProducts("ProductName", "fb", "fb", "fb", "fb", "fc", "fc", "fc", "fc", "fc", "fc",
+                "fd", "fd", "fd", "fd", "fd"), mergedIndex, routings[1]);
+
+        SuggestionQuery query = new SuggestionQuery(mergedIndex, type, "ProductName.suggest", "f");
+        assertSuggestions(query.size(10), "f", "fb", "fc", "fd", "fa");
+        assertSuggestions(query.size(3), "f", "fb", "fc");
+        assertSuggestions(new SuggestionQuery(mergedIndex, type, "ProductName.suggest", "fd").size(10), "fd");
+
+        // similar terms come after all terms starting with the term
+        SuggestionQuery similarQuery = new SuggestionQuery(mergedIndex, type, "ProductName.suggest", "fa").size(10).similarity(0.5f);
+        List<String> suggestions = getSuggestions(similarQuery);
+        assertThat(suggestions.get(0), is("fa"));
+    }
+
+    @Test
+    public void testThatShardsSelectTheirSuggestionsByDocumentFrequency() throws Exception {
+        String docFreqIndex = index + "_doc_freq";
+        createIndexWithProductsMapping(docFreqIndex, settingsBuilder().put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0).build());
+
+        // kochxa and kochxb share the highest bucket of the FST, which orders them alphabetically
+        List<Map<String, Object>> products = createProducts("ProductName", "x1", "x2", "x3", "x4", "x5", "x6", "x7", "x8", "x9",
+                "x10", "x11", "x12", "x13", "x14", "x15", "x16", "x17", "x18");
+        products.addAll(createProducts("ProductName", "kochxa", "kochxa", "kochxb", "kochxb", "kochxb"));
+        indexProducts(products, docFreqIndex);
+
+        assertSuggestions(new SuggestionQuery(docFreqIndex, type, "ProductName.suggest", "koch").size(1), "kochxb");
+        assertSuggestions(new SuggestionQuery(docFreqIndex, type, "ProductName.suggest", "koch").size(2), "kochxb", "kochxa");
+    }
+
+    private String[] getRoutingsOfDifferentShards(String index) {
+        String[] routings = new String[2];
+        int firstShard = -1;
+        for (int i = 0; routings[1] == null; i++) {
+            String routing = String.valueOf(i);
+            int shard = client().admin().cluster().prepareSearchShards(index).setRouting(routing).get()
+                    .getGroups()[0].getShardId();
+            if (firstShard == -1) {
+                firstShard = shard;
+                routings[0] = routing;
+            } else if (shard != firstShard) {
+                routings[1] = routing;
+            }
+        }
+        return routings;
+    }
+
     @Test
     public void testThatSuggestionWorksWithSimilarity() throws Exception {
         List<Map<String, Object>> products = createProducts("ProductName", "kochjacke bla", "kochjacke blubb",
@@ -166,6 +1107,19 @@ public abstract class AbstractSuggestTest extends ElasticsearchIntegrationTest {
         assertThat(suggestions, contains("kochjacke"));
     }
 
+    @Test
+    public void testThatSuggestionWorksWithDirectSimilarityEngine() throws Exception {
+        List<Map<String, Object>> products = createProducts("ProductName", "kochjacke bla", "kochjacke blubb",
+                "kochjacke blibb", "kochjacke paul");
+        indexProducts(products);
+
+        SuggestionQuery query = new SuggestionQuery(index, type, "ProductName.suggest", "kochajcke")
+                .size(10).similarity(0.75f).similarityEngine("direct");
+        List<String> suggestions = getSuggestions(query);
+        assertThat(suggestions, hasSize(1));
+        assertThat(suggestions, contains("kochjacke"));
+    }
+
     @Ignore("This test is useless in this setup, as it may return better/more data than expected and therefore fails")
     @Test
     public void testThatRefreshingPerIndexWorks() throws Exception {
@@ -365,9 +1319,16 @@ public abstract class AbstractSuggestTest extends ElasticsearchIntegrationTest {
 
 
     private void createIndexWithProductsMapping(String indexName) throws IOException {
+        createIndexWithProductsMapping(indexName, ImmutableSettings.EMPTY);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void createIndexWithProductsMapping(String indexName, Settings settings) throws IOException {
         String settingsData = IOUtils.toString(this.getClass().getResourceAsStream("/product.json"));
+        Map<String, Object> source = XContentHelper.convertToMap(settingsData.getBytes(Charsets.UTF_8), false).v2();
+        ((Map<String, Object>) source.get("settings")).putAll(settings.getAsMap());
         CreateIndexResponse createIndexResponse = client().admin().indices().prepareCreate(indexName)
-                .setSource(settingsData).execute().actionGet();
+                .setSource(source).execute().actionGet();
         assertThat(createIndexResponse.isAcknowledged(), is(true));
 
         client().admin().cluster().prepareHealth(indexName).setWaitForGreenStatus().execute().actionGet();
@@ -414,7 +1375,7 @@ public abstract class AbstractSuggestTest extends ElasticsearchIntegrationTest {
         return products;
     }
 
-    private List<Map<String, Object>> createProducts(String fieldName, String ... fields) {
+    protected List<Map<String, Object>> createProducts(String fieldName, String ... fields) {
         List<Map<String, Object>> products = createProducts(fields.length);
 
         for (int i = 0 ; i < fields.length ; i++) {
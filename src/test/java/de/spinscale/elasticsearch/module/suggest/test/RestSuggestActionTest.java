@@ -72,6 +72,28 @@ public class RestSuggestActionTest extends AbstractSuggestTest {
         assertThat(response, endsWith("\"suggestions\":[\"foobar\"]});"));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testThatMultiSuggestReturnsTheSuggestionsOfEveryRequest() throws Exception {
+        List<Map<String, Object>> products = createProducts("ProductName", "foo", "foob", "foobar", "boof");
+        products.get(0).put("Description", "Kochjacke Pute");
+        indexProducts(products);
+        refreshAllSuggesters();
+
+        String json = "{ \"requests\": [ { \"field\": \"ProductName.suggest\", \"term\": \"foob\" }, "
+                + "{ \"field\": \"ProductName.suggest\", \"term\": \"b\" }, { \"field\": \"Description\", \"term\": \"Koch\" } ] }";
+        Response r = httpClient.preparePost("http://localhost:" + port + "/" + index + "/product/__msuggest").setBody(json).execute().get();
+        assertThat(r.getStatusCode(), is(200));
+        assertThatResponseHasNoShardFailures(r);
+
+        Map<String, Object> jsonResponse = JsonXContent.jsonXContent.createParser(r.getResponseBody()).mapAndClose();
+        List<Map<String, Object>> responses = (List<Map<String, Object>>) jsonResponse.get("responses");
+        assertThat(responses, hasSize(3));
+        assertThat((List<String>) responses.get(0).get("suggestions"), contains("foob", "foobar"));
+        assertThat((List<String>) responses.get(1).get("suggestions"), contains("boof"));
+        assertThat((List<String>) responses.get(2).get("suggestions"), contains("Kochjacke Pute"));
+    }
+
     @Override
     public List<String> getSuggestions(SuggestionQuery suggestionQuery) throws Exception {
         String json = createJSONQuery(suggestionQuery);
@@ -134,7 +156,8 @@ public class RestSuggestActionTest extends AbstractSuggestTest {
 
             if (fstStatsNodeEntry.isObject()) {
                 ShardId shardId = new ShardId(fstStatsNodeEntry.get("index").asText(), fstStatsNodeEntry.get("id").asInt());
-                FstStats.FstIndexShardStats fstIndexShardStats = new FstStats.FstIndexShardStats(shardId, null, null, fstStatsNodeEntry.get("sizeInBytes").getLongValue());
+                FstStats.FstIndexShardStats fstIndexShardStats = new FstStats.FstIndexShardStats(shardId, null, null, fstStatsNodeEntry.get("sizeInBytes").getLongValue(),
+                        fstStatsNodeEntry.get("offHeapSizeInBytes").getLongValue(), fstStatsNodeEntry.get("prefixTableSizeInBytes").getLongValue());
                 stats.add(fstIndexShardStats);
             }
 
@@ -158,6 +181,9 @@ public class RestSuggestActionTest extends AbstractSuggestTest {
         if (suggestionQuery.similarity != null && suggestionQuery.similarity > 0.0 && suggestionQuery.similarity < 1.0) {
             query.append(String.format(Locale.ROOT, ", \"similarity\": \"%s\"", suggestionQuery.similarity));
         }
+        if (suggestionQuery.similarityEngine != null) {
+            query.append(String.format(Locale.ROOT, ", \"similarityEngine\": \"%s\"", suggestionQuery.similarityEngine));
+        }
         if (Strings.hasLength(suggestionQuery.indexAnalyzer)) {
             query.append(String.format(Locale.ROOT, ", \"indexAnalyzer\": \"%s\"", suggestionQuery.indexAnalyzer));
         }
@@ -1,14 +1,19 @@
 package de.spinscale.elasticsearch.module.suggest.test;
 
 import de.spinscale.elasticsearch.action.suggest.statistics.FstStats;
+import de.spinscale.elasticsearch.action.suggest.suggest.MultiSuggestResponse;
 import de.spinscale.elasticsearch.action.suggest.suggest.SuggestResponse;
+import de.spinscale.elasticsearch.client.action.suggest.MultiSuggestRequestBuilder;
 import de.spinscale.elasticsearch.client.action.suggest.SuggestRefreshRequestBuilder;
 import de.spinscale.elasticsearch.client.action.suggest.SuggestRequestBuilder;
 import de.spinscale.elasticsearch.client.action.suggest.SuggestStatisticsRequestBuilder;
 import org.elasticsearch.common.Strings;
+import org.junit.Test;
 
 import java.util.List;
+import java.util.Map;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.emptyArray;
 import static org.hamcrest.Matchers.is;
 
@@ -18,6 +23,25 @@ import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
 @ClusterScope(scope = Scope.SUITE, transportClientRatio = 0.0)
 public class SuggestBuildersTest extends AbstractSuggestTest {
 
+    @Test
+    public void testThatMultiSuggestReturnsTheSuggestionsOfEveryRequest() throws Exception {
+        List<Map<String, Object>> products = createProducts("ProductName", "foo", "foob", "foobar", "boof");
+        indexProducts(products);
+        refreshAllSuggesters();
+
+        MultiSuggestResponse response = new MultiSuggestRequestBuilder(client()).setIndices(index)
+                .add(new SuggestRequestBuilder(client()).field("ProductName.suggest").term("foob"))
+                .add(new SuggestRequestBuilder(client()).field("ProductName.suggest").term("foo").size(1))
+                .add(new SuggestRequestBuilder(client()).field("ProductName.suggest").term("b").suggestType("full"))
+                .get();
+
+        assertThat(response.getShardFailures(), is(emptyArray()));
+        assertThat(response.size(), is(3));
+        assertThat(response.getSuggestions(0), contains("foob", "foobar"));
+        assertThat(response.getSuggestions(1), contains("foo"));
+        assertThat(response.getSuggestions(2), contains("boof"));
+    }
+
     @Override
     public List<String> getSuggestions(SuggestionQuery suggestionQuery) throws Exception {
         SuggestRequestBuilder builder = new SuggestRequestBuilder(client())
@@ -31,6 +55,9 @@ public class SuggestBuildersTest extends AbstractSuggestTest {
         if (suggestionQuery.similarity != null && suggestionQuery.similarity > 0.0 && suggestionQuery.similarity < 1.0) {
             builder.similarity(suggestionQuery.similarity);
         }
+        if (suggestionQuery.similarityEngine != null) {
+            builder.similarityEngine(suggestionQuery.similarityEngine);
+        }
         if (suggestionQuery.suggestType != null) {
             builder.suggestType(suggestionQuery.suggestType);
         }
@@ -13,6 +13,7 @@ public class SuggestionQuery {
     public String queryAnalyzer;
     public Integer size;
     public Float similarity;
+    public String similarityEngine;
     public String analyzer;
     public boolean preservePositionIncrements = true;
 
@@ -33,6 +34,11 @@ public class SuggestionQuery {
         return this;
     }
 
+    public SuggestionQuery similarityEngine(String similarityEngine) {
+        this.similarityEngine = similarityEngine;
+        return this;
+    }
+
     public SuggestionQuery suggestType(String suggestType) {
         this.suggestType = suggestType;
         return this;
@@ -59,6 +65,7 @@ public class SuggestionQuery {
         sb.append(String.format(Locale.ROOT, "Index [%s] type [%s] field [%s] term [%s]", index, type, field, term));
         if (size != null) sb.append(String.format(Locale.ROOT, " size[%s]", size));
         if (similarity != null) sb.append(String.format(Locale.ROOT, " similarity[%s]", similarity));
+        if (similarityEngine != null) sb.append(String.format(Locale.ROOT, " similarityEngine[%s]", similarityEngine));
         if (suggestType != null) sb.append(String.format(Locale.ROOT, " suggestType[%s]", suggestType));
         if (analyzer != null) sb.append(String.format(Locale.ROOT, " analyzer[%s]", analyzer));
         if (indexAnalyzer!= null) sb.append(String.format(Locale.ROOT, " indexAnalyzer[%s]", indexAnalyzer));
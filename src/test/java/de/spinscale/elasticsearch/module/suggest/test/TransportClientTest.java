@@ -67,6 +67,9 @@ public class TransportClientTest extends AbstractSuggestTest {
         if (suggestionQuery.similarity != null && suggestionQuery.similarity > 0.0 && suggestionQuery.similarity < 1.0) {
             builder.similarity(suggestionQuery.similarity);
         }
+        if (suggestionQuery.similarityEngine != null) {
+            builder.similarityEngine(suggestionQuery.similarityEngine);
+        }
         if (suggestionQuery.suggestType != null) {
             builder.suggestType(suggestionQuery.suggestType);
         }
@@ -33,6 +33,9 @@ public class TransportSuggestActionTest extends AbstractSuggestTest {
         if (suggestionQuery.similarity != null && suggestionQuery.similarity > 0.0 && suggestionQuery.similarity < 1.0) {
             request.similarity(suggestionQuery.similarity);
         }
+        if (suggestionQuery.similarityEngine != null) {
+            request.similarityEngine(suggestionQuery.similarityEngine);
+        }
         if (suggestionQuery.suggestType != null) {
             request.suggestType(suggestionQuery.suggestType);
         }